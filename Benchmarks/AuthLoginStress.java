@@ -0,0 +1,138 @@
+package Benchmarks;
+
+import Models.Employee;
+import Models.Role;
+import Server.Utils.LatencyHistogram;
+import Services.AuthService;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency check for AuthService: in every round, all threads are released at once and each tries to
+ * log in as the same users, with a few wrong passwords mixed in. Exactly one login per user must win;
+ * after each round the winners log out, and a logout with a session from an earlier round must not end
+ * the user's current login.
+ * Exits with status 1 on any violation, so it can gate a build.
+ *
+ * Options (--name=value): users (default 50), threads (64), attemptsPerUser (per thread and round, 1),
+ * rounds (20), badPasswordRatio (0.1), seed.
+ */
+public class AuthLoginStress {
+
+    private final Map<String, String> options = new HashMap<>();
+    private String option(String name, String fallback) { return options.getOrDefault(name, fallback); }
+    private int intOption(String name, int fallback) { return Integer.parseInt(option(name, String.valueOf(fallback))); }
+
+    public static void main(String[] args) throws Exception {
+        AuthLoginStress stress = new AuthLoginStress();
+        for (String arg : args) {
+            String[] pair = arg.replaceFirst("^--", "").split("=", 2);
+            stress.options.put(pair[0], pair.length > 1 ? pair[1] : "true");
+        }
+        System.exit(stress.run() ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        int users = intOption("users", 50);
+        int threads = intOption("threads", 64);
+        int attemptsPerUser = intOption("attemptsPerUser", 1);
+        int rounds = intOption("rounds", 20);
+        double badPasswordRatio = Double.parseDouble(option("badPasswordRatio", "0.1"));
+        long seed = Long.parseLong(option("seed", "42"));
+
+        AuthService authService = new AuthService();
+        for (int u = 0; u < users; u++) {
+            Employee employee = new Employee("Stress User " + u, String.format("%09d", 200_000 + u), "0500000000",
+                    "Bank-0", 10_000 + u, "B001", Role.CASHIER, "stress" + u, "pass" + u);
+            authService.register(employee, employee.getUserName(), employee.getPassword());
+        }
+
+        System.out.printf("%d users, %d threads x %d attempts per user, %d rounds (%d login attempts per round)%n",
+                users, threads, attemptsPerUser, rounds, users * threads * attemptsPerUser);
+
+        LatencyHistogram loginLatency = new LatencyHistogram();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        int violations = 0;
+        long totalWinners = 0, totalDuplicates = 0, totalBadPasswords = 0;
+
+        for (int round = 0; round < rounds; round++) {
+            AtomicInteger[] winners = new AtomicInteger[users];
+            for (int u = 0; u < users; u++) winners[u] = new AtomicInteger();
+            Queue<AuthService.Session> sessions = new ConcurrentLinkedQueue<>();
+            AtomicInteger duplicates = new AtomicInteger(), badPasswords = new AtomicInteger(), unexpected = new AtomicInteger();
+            CountDownLatch startGate = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (int t = 0; t < threads; t++) {
+                Random random = new Random(seed + round * 10_007L + t);
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    startGate.await();
+                    for (int a = 0; a < attemptsPerUser; a++) {
+                        for (int i = 0; i < users; i++) {
+                            int u = (i + thread) % users; // threads start on different users, then collide
+                            boolean badPassword = random.nextDouble() < badPasswordRatio;
+                            long start = System.nanoTime();
+                            try {
+                                sessions.add(authService.login("stress" + u, badPassword ? "wrong" : "pass" + u, "thread-" + thread));
+                                if (badPassword) unexpected.incrementAndGet();
+                                winners[u].incrementAndGet();
+                            } catch (Exception e) {
+                                if (badPassword) badPasswords.incrementAndGet();
+                                else if (e.getMessage().contains("already logged in")) duplicates.incrementAndGet();
+                                else unexpected.incrementAndGet();
+                            }
+                            loginLatency.record((System.nanoTime() - start) / 1_000);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            startGate.countDown();
+            for (Future<?> future : futures) future.get();
+
+            for (int u = 0; u < users; u++) {
+                if (winners[u].get() != 1) {
+                    violations++;
+                    System.out.printf("Round %d: user stress%d logged in %d times%n", round, u, winners[u].get());
+                }
+            }
+            if (unexpected.get() > 0) {
+                violations++;
+                System.out.printf("Round %d: %d unexpected login outcomes%n", round, unexpected.get());
+            }
+
+            for (AuthService.Session session : sessions) authService.logout(session);
+            if (authService.getActiveSessionCount() != 0) {
+                violations++;
+                System.out.printf("Round %d: %d sessions left after logout%n", round, authService.getActiveSessionCount());
+            }
+
+            // Stale logout: an old connection logging out must not end a newer login of the same user
+            AuthService.Session stale = sessions.peek();
+            if (stale != null) {
+                AuthService.Session current = authService.login(stale.getUsername(), stale.getEmployee().getPassword(), "fresh");
+                authService.logout(stale);
+                if (!authService.isLoggedIn(stale.getUsername())) {
+                    violations++;
+                    System.out.printf("Round %d: a stale logout ended the newer session of %s%n", round, stale.getUsername());
+                }
+                authService.logout(current);
+            }
+
+            totalWinners += sessions.size();
+            totalDuplicates += duplicates.get();
+            totalBadPasswords += badPasswords.get();
+        }
+        pool.shutdown();
+
+        System.out.printf("Logins won: %d (expected %d), rejected as duplicate: %d, rejected password: %d%n",
+                totalWinners, (long) users * rounds, totalDuplicates, totalBadPasswords);
+        System.out.printf("Login latency (us): p50=%d p99=%d max=%d%n",
+                loginLatency.percentile(50), loginLatency.percentile(99), loginLatency.getMax());
+        System.out.println(violations == 0 ? "PASS: exactly one winner per user in every round." : "FAIL: " + violations + " violations.");
+        return violations == 0;
+    }
+}
@@ -0,0 +1,117 @@
+package Benchmarks;
+
+import Models.Role;
+import Server.ChatBrokerHub;
+import Services.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+/**
+ * End-to-end check of cross-node chat routing on localhost.
+ * Runs the same scenario over the in-process broker and over a ChatBrokerHub with two TCP nodes:
+ * a request raised on node A is matched to the only idle employee (on node B), both sides exchange
+ * messages, the chat is ended from the requester's node and the request can be raised again.
+ * Chat data goes to a temporary directory (chat.data.dir) that is removed at the end, never to ./Data.
+ * Usage: java Benchmarks.ChatClusterHarness   (exit code 0 = all checks passed)
+ */
+public class ChatClusterHarness {
+
+    private static final long WAIT_MS = 5_000L;
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        File dataDir = Files.createTempDirectory("chat-cluster").toFile();
+        System.setProperty("chat.data.dir", dataDir.getPath()); // read when ChatService is first loaded
+
+        runScenario("in-process", "IPA", "IPB", new InProcessChatBroker(), null);
+
+        ChatBrokerHub hub = new ChatBrokerHub(0);
+        Thread hubThread = new Thread(hub::start, "chat-hub");
+        hubThread.setDaemon(true);
+        hubThread.start();
+        runScenario("tcp hub", "TCPA", "TCPB",
+                new TcpChatBroker("localhost", hub.getPort()), new TcpChatBroker("localhost", hub.getPort()));
+        hub.close();
+        deleteRecursively(dataDir);
+
+        System.out.println(failures == 0 ? "ALL CHECKS PASSED" : failures + " CHECK(S) FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /** brokerB == null: both nodes share brokerA (in-process). */
+    private static void runScenario(String name, String nodeA, String nodeB, ChatBroker brokerA, ChatBroker brokerB) throws Exception {
+        System.out.println("== " + name);
+        ChatService serviceA = new ChatService(FairChatRequestQueue::new, nodeA, brokerA);
+        ChatService serviceB = new ChatService(FairChatRequestQueue::new, nodeB, brokerB == null ? brokerA : brokerB);
+
+        List<String> requesterNotices = new CopyOnWriteArrayList<>();
+        List<String> assigneeNotices = new CopyOnWriteArrayList<>();
+        List<String> requesterScreen = new CopyOnWriteArrayList<>();
+        List<String> assigneeScreen = new CopyOnWriteArrayList<>();
+
+        serviceB.connect("sess-b", "B2", "E-B", "Bob (SELLER, B2)", assigneeNotices::add);
+        serviceA.connect("sess-a", "B1", "E-A", "Alice (CASHIER, B1)", requesterNotices::add);
+        check("node A sees B2 staff online", waitFor(() -> serviceA.hasOnlineInBranch("B2")));
+
+        serviceA.requestChatFromBranch("B1", "E-A", Role.CASHIER, "B2", "price check", requesterNotices::add);
+        check("offer reaches assignee on node B", waitFor(() -> contains(assigneeNotices, "[OFFER]")));
+
+        String chatId = serviceB.acceptOfferByAssignee("sess-b", m -> assigneeScreen.add(m.getSenderName() + ": " + m.getContent()));
+        check("requester on node A is told to BEGIN", waitFor(() -> contains(requesterNotices, "ACCEPTED")));
+        check("node A holds a mirror of " + chatId, serviceA.getChatById(chatId) != null);
+
+        serviceA.markRequesterAttached(chatId, "E-A", "sess-a", "B1", m -> requesterScreen.add(m.getSenderName() + ": " + m.getContent()));
+        serviceA.sendMessage(chatId, "sess-a", "Alice", "hello from A");
+        check("message A -> B delivered", waitFor(() -> contains(assigneeScreen, "hello from A")));
+        check("message A echoed on A", waitFor(() -> contains(requesterScreen, "hello from A")));
+
+        serviceB.sendMessage(chatId, "sess-b", "Bob", "hello from B");
+        check("message B -> A delivered", waitFor(() -> contains(requesterScreen, "hello from B")));
+
+        serviceA.endChat(chatId);
+        check("chat ended on owner node", waitFor(() -> serviceB.getChatById(chatId) == null));
+        check("mirror ended on node A", waitFor(() -> serviceA.getChatById(chatId) == null));
+        check("requester notified of the end", waitFor(() -> contains(requesterNotices, "CHAT_ENDED")));
+
+        int noticesBefore = requesterNotices.size();
+        serviceA.requestChatFromBranch("B1", "E-A", Role.CASHIER, "B2", "again", requesterNotices::add);
+        check("request released, can be raised again", waitFor(() -> contains(assigneeNotices.subList(1, assigneeNotices.size()), "[OFFER]"))
+                && !contains(requesterNotices.subList(noticesBefore, requesterNotices.size()), "[ERROR]"));
+
+        serviceA.disconnect("sess-a");
+        serviceB.disconnect("sess-b");
+        brokerA.unregister(nodeA);
+        (brokerB == null ? brokerA : brokerB).unregister(nodeB);
+    }
+
+    private static boolean contains(List<String> lines, String fragment) {
+        for (String line : lines) if (line.contains(fragment)) return true;
+        return false;
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.getAsBoolean()) return true;
+            Thread.sleep(10);
+        }
+        return condition.getAsBoolean();
+    }
+
+    private static void check(String description, boolean passed) {
+        System.out.println((passed ? "  PASS " : "  FAIL ") + description);
+        if (!passed) failures++;
+    }
+
+    private static void deleteRecursively(File dir) throws Exception {
+        try (var paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        if (dir.exists()) System.out.println("Could not delete " + dir.getPath());
+    }
+}
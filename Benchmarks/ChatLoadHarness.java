@@ -0,0 +1,457 @@
+package Benchmarks;
+
+import Models.Branch;
+import Models.Employee;
+import Models.Role;
+import Server.AdmissionController;
+import Server.ClientHandler;
+import Server.IdleSessionReaper;
+import Server.SessionResumption;
+import Server.ShutdownCoordinator;
+import Server.Utils.LatencyHistogram;
+import Services.*;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Headless load generator for the chat flow (REQUEST -> OFFER -> ACCEPT -> BEGIN -> messages -> END/LEAVE).
+ *
+ * Modes:
+ *   virtual  (default) one thread, simulated clock; the 60s offer/BEGIN and 120s solo timeouts fire in
+ *            simulated time, so hours of traffic run in seconds. Latencies are real CPU time per call.
+ *   realtime simulated users on a thread pool against a wall-clock ChatService (contention).
+ *   sockets  real TCP clients through ClientHandler; measures SEND -> peer terminal latency.
+ *
+ * Options (--name=value): mode, branches, sessions (per branch), requestRate (per second, whole network),
+ * messages (per chat), messageIntervalMs, acceptDelayMs, beginDelayMs, ignoreOfferRatio, noShowRatio,
+ * leaveRatio, duration (seconds), threads (realtime), pairs (sockets), seed.
+ * Chat data goes to a temporary directory (chat.data.dir), never to ./Data.
+ */
+public class ChatLoadHarness {
+
+    private static final Pattern CHAT_ID = Pattern.compile("ChatID: (\\S+?)\\.");
+
+    // -------------------- Options --------------------
+    private final Map<String, String> options = new HashMap<>();
+    private String option(String name, String fallback) { return options.getOrDefault(name, fallback); }
+    private int intOption(String name, int fallback) { return Integer.parseInt(option(name, String.valueOf(fallback))); }
+    private double doubleOption(String name, double fallback) { return Double.parseDouble(option(name, String.valueOf(fallback))); }
+
+    // -------------------- Measurements (microseconds) --------------------
+    private final Map<String, LatencyHistogram> latencyByOperation = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    private void count(String name) { counters.computeIfAbsent(name, _ -> new AtomicLong()).incrementAndGet(); }
+    private LatencyHistogram histogram(String operation) { return latencyByOperation.computeIfAbsent(operation, _ -> new LatencyHistogram()); }
+
+    private void timed(String operation, Runnable call) {
+        long start = System.nanoTime();
+        try {
+            call.run();
+        } catch (RuntimeException e) {
+            count(operation + " failed: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+            return;
+        }
+        histogram(operation).record((System.nanoTime() - start) / 1_000);
+    }
+
+    private interface ChatCall { void run() throws Exception; }
+
+    private void timedChecked(String operation, ChatCall call) {
+        timed(operation, () -> {
+            try {
+                call.run();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("chat.data.dir") == null)
+            System.setProperty("chat.data.dir", Files.createTempDirectory("chat-load").toString());
+
+        ChatLoadHarness harness = new ChatLoadHarness();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            harness.options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        System.out.println("Chat data directory: " + System.getProperty("chat.data.dir"));
+
+        switch (harness.option("mode", "virtual")) {
+            case "virtual" -> harness.runSimulation(true);
+            case "realtime" -> harness.runSimulation(false);
+            case "sockets" -> harness.runSockets();
+            default -> throw new IllegalArgumentException("Unknown mode: " + harness.option("mode", ""));
+        }
+        System.exit(0);
+    }
+
+    // -------------------- Simulated users (virtual / realtime) --------------------
+    private final class Simulation {
+        final ChatService chatService;
+        final ScheduledExecutorService timeline;
+        final LongSupplier clock;
+        final Random random;
+        final List<String> branches = new ArrayList<>();
+        final Map<String, String> branchBySession = new HashMap<>();
+        final Map<String, String> employeeBySession = new HashMap<>();
+        final Map<String, String> sessionByEmployee = new HashMap<>();
+        final Set<String> busySessions = ConcurrentHashMap.newKeySet();          // in a chat or waiting on a request
+        final Map<String, String> assigneeByChat = new ConcurrentHashMap<>();
+        final Map<String, String> requesterByChat = new ConcurrentHashMap<>();
+        final Set<String> endedChats = ConcurrentHashMap.newKeySet();
+
+        final int messagesPerChat = intOption("messages", 20);
+        final double messageIntervalMs = doubleOption("messageIntervalMs", 3_000);
+        final double acceptDelayMs = doubleOption("acceptDelayMs", 2_000);
+        final double beginDelayMs = doubleOption("beginDelayMs", 3_000);
+        final double ignoreOfferRatio = doubleOption("ignoreOfferRatio", 0.05);
+        final double noShowRatio = doubleOption("noShowRatio", 0.05);
+        final double leaveRatio = doubleOption("leaveRatio", 0.2);
+
+        Simulation(ChatService chatService, ScheduledExecutorService timeline, LongSupplier clock, long seed) {
+            this.chatService = chatService;
+            this.timeline = timeline;
+            this.clock = clock;
+            this.random = new Random(seed);
+        }
+
+        synchronized double nextDouble() { return random.nextDouble(); }
+        long exponential(double meanMs) { return (long) (-meanMs * Math.log(1.0 - nextDouble())); }
+        void later(double meanDelayMs, Runnable action) { timeline.schedule(action, exponential(meanDelayMs), TimeUnit.MILLISECONDS); }
+
+        void connectAll(int branchCount, int sessionsPerBranch) {
+            for (int b = 1; b <= branchCount; b++) {
+                String branchId = String.format("B%02d", b);
+                branches.add(branchId);
+                for (int k = 1; k <= sessionsPerBranch; k++) {
+                    String sessionId = "S-" + branchId + "-" + k;
+                    String employeeId = "E-" + branchId + "-" + k;
+                    branchBySession.put(sessionId, branchId);
+                    employeeBySession.put(sessionId, employeeId);
+                    sessionByEmployee.put(employeeId, sessionId);
+                    timed("connect", () -> chatService.connect(sessionId, branchId, employeeId, employeeId, notice -> onNotice(sessionId, notice)));
+                }
+            }
+        }
+
+        /** One new request from a random free employee to a random other branch. */
+        void raiseRequest() {
+            List<String> sessions = new ArrayList<>(branchBySession.keySet());
+            Collections.sort(sessions);
+            String requester = null;
+            for (int attempt = 0; attempt < 8 && requester == null; attempt++) {
+                String candidate = sessions.get((int) (nextDouble() * sessions.size()));
+                if (busySessions.add(candidate)) requester = candidate;
+            }
+            if (requester == null) { count("requests skipped (all busy)"); return; }
+
+            String sourceBranch = branchBySession.get(requester);
+            String targetBranch;
+            do targetBranch = branches.get((int) (nextDouble() * branches.size())); while (targetBranch.equals(sourceBranch));
+
+            String requesterSession = requester;
+            String target = targetBranch;
+            count("requests");
+            timed("request", () -> chatService.requestChatFromBranch(sourceBranch, employeeBySession.get(requesterSession), Role.CASHIER,
+                    target, "load", notice -> onRequesterNotice(requesterSession, notice)));
+        }
+
+        void onNotice(String sessionId, String notice) {
+            if (notice.startsWith("[OFFER]")) {
+                count("offers");
+                if (nextDouble() < ignoreOfferRatio) { count("offers ignored"); return; } // 60s offer timeout
+                later(acceptDelayMs, () -> accept(sessionId));
+            } else if (notice.startsWith("[NOTIFY] CHAT_ENDED ")) {
+                String chatId = notice.substring("[NOTIFY] CHAT_ENDED ".length()).trim();
+                busySessions.remove(sessionId);
+                if (sessionId.equals(assigneeByChat.get(chatId)) && endedChats.add(chatId)) count("chats ended");
+            }
+        }
+
+        void onRequesterNotice(String requesterSession, String notice) {
+            if (notice.contains("ACCEPTED] ChatID: ")) {
+                Matcher matcher = CHAT_ID.matcher(notice);
+                if (!matcher.find()) return;
+                String chatId = matcher.group(1);
+                requesterByChat.put(chatId, requesterSession);
+                if (nextDouble() < noShowRatio) { count("requester no-shows"); return; } // 60s BEGIN timeout
+                later(beginDelayMs, () -> begin(chatId, requesterSession));
+            } else if (notice.contains("was cancelled")) {
+                busySessions.remove(requesterSession);
+            }
+        }
+
+        void accept(String sessionId) {
+            timedChecked("accept", () -> {
+                String chatId = chatService.acceptOfferByAssignee(sessionId, message -> count("deliveries"));
+                busySessions.add(sessionId);
+                assigneeByChat.put(chatId, sessionId);
+            });
+        }
+
+        void begin(String chatId, String requesterSession) {
+            timedChecked("begin", () -> {
+                chatService.markRequesterAttached(chatId, employeeBySession.get(requesterSession), requesterSession,
+                        branchBySession.get(requesterSession), message -> count("deliveries"));
+                later(messageIntervalMs, () -> sendNext(chatId, 0));
+            });
+        }
+
+        void sendNext(String chatId, int sent) {
+            String requester = requesterByChat.get(chatId);
+            String assignee = assigneeByChat.get(chatId);
+            ChatService.ChatSession chatSession = chatService.getChatById(chatId);
+            if (chatSession == null || !chatSession.isActive() || requester == null || assignee == null) return;
+
+            if (sent >= messagesPerChat) {
+                if (nextDouble() < leaveRatio) {
+                    count("requester left (solo close)");
+                    timed("leave", () -> chatService.leaveChatAsUser(chatId, branchBySession.get(requester), requester));
+                    busySessions.remove(requester);
+                } else {
+                    timed("end", () -> chatService.endChat(chatId));
+                }
+                return;
+            }
+            String sender = (sent % 2 == 0) ? requester : assignee;
+            timedChecked("send", () -> chatService.sendMessage(chatId, sender, employeeBySession.get(sender), "message " + sent));
+            count("messages");
+            later(messageIntervalMs, () -> sendNext(chatId, sent + 1));
+        }
+    }
+
+    private void runSimulation(boolean virtual) throws Exception {
+        int branchCount = intOption("branches", 4);
+        int sessionsPerBranch = intOption("sessions", 5);
+        double requestRate = doubleOption("requestRate", 0.5);
+        long durationMs = intOption("duration", virtual ? 3_600 : 30) * 1_000L;
+        long seed = Long.parseLong(option("seed", "42"));
+
+        ScheduledExecutorService timeline;
+        LongSupplier clock;
+        ChatService chatService;
+        VirtualScheduler virtualScheduler = null;
+        if (virtual) {
+            virtualScheduler = new VirtualScheduler(System.currentTimeMillis());
+            timeline = virtualScheduler;
+            clock = virtualScheduler::now;
+            LongSupplier queueClock = clock;
+            chatService = new ChatService(() -> new FairChatRequestQueue(Collections.emptyMap(), FairChatRequestQueue.DEFAULT_AGING_MS, queueClock),
+                    null, null, clock, virtualScheduler);
+        } else {
+            timeline = Executors.newScheduledThreadPool(intOption("threads", 4));
+            clock = System::currentTimeMillis;
+            chatService = new ChatService();
+        }
+
+        Simulation simulation = new Simulation(chatService, timeline, clock, seed);
+        simulation.connectAll(branchCount, sessionsPerBranch);
+
+        // Poisson arrivals for the whole network
+        double meanGapMs = 1_000.0 / requestRate;
+        long startMs = clock.getAsLong();
+        long arrivalMs = startMs;
+        while (true) {
+            arrivalMs += simulation.exponential(meanGapMs);
+            if (arrivalMs - startMs > durationMs) break;
+            timeline.schedule(simulation::raiseRequest, arrivalMs - startMs, TimeUnit.MILLISECONDS);
+        }
+
+        long wallStart = System.nanoTime();
+        if (virtualScheduler != null) {
+            virtualScheduler.advanceTo(startMs + durationMs + 300_000L); // drain: let open chats finish and timeouts fire
+        } else {
+            Thread.sleep(durationMs + 10_000L);
+            timeline.shutdownNow();
+        }
+        double wallSeconds = (System.nanoTime() - wallStart) / 1e9;
+
+        System.out.printf("%n%s run: %d branches x %d sessions, %.2f requests/s for %ds%s%n",
+                virtual ? "Virtual-time" : "Real-time", branchCount, sessionsPerBranch, requestRate, durationMs / 1000,
+                virtual ? " (simulated, finished in " + String.format("%.2f", wallSeconds) + "s wall)" : "");
+        int freeAtEnd = 0;
+        for (String sessionId : simulation.branchBySession.keySet()) if (!simulation.busySessions.contains(sessionId)) freeAtEnd++;
+        counters.computeIfAbsent("sessions free at end", _ -> new AtomicLong()).set(freeAtEnd);
+        report(wallSeconds);
+        System.out.println("\nChatService metrics (" + (virtual ? "simulated" : "wall-clock") + " ms):");
+        System.out.println(chatService.getChatMetrics().formatMetrics());
+    }
+
+    // -------------------- Real sockets through ClientHandler --------------------
+    private final class SocketClient implements Closeable {
+        final Socket socket;
+        final PrintWriter out;
+        final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+
+        SocketClient(int port, String username, String password) throws IOException {
+            socket = new Socket("localhost", port);
+            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Thread reader = new Thread(() -> {
+                try {
+                    for (String line; (line = in.readLine()) != null; ) lines.add(line);
+                } catch (IOException ignored) {
+                    // socket closed at the end of the run
+                }
+            }, "load-client-" + username);
+            reader.setDaemon(true);
+            reader.start();
+            out.println(username);
+            out.println(password);
+            await("Login successful");
+        }
+
+        void send(String line) { out.println(line); }
+
+        String await(String fragment) throws IOException {
+            try {
+                while (true) {
+                    String line = lines.poll(70, TimeUnit.SECONDS);
+                    if (line == null) throw new IOException("Timed out waiting for '" + fragment + "'");
+                    if (line.contains(fragment)) return line;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.println("Exit");
+            socket.close();
+        }
+    }
+
+    private void runSockets() throws Exception {
+        int pairs = intOption("pairs", 8);
+        int messagesPerChat = intOption("messages", 50);
+
+        AuthService authService = new AuthService();
+        EmployeeService employeeService = new EmployeeService();
+        BranchService branchService = new BranchService();
+        ChatService chatService = new ChatService();
+        ProductService productService = new ProductService();
+        for (int p = 0; p < pairs; p++) {
+            for (String side : new String[] { "R", "A" }) {
+                String branchId = String.format("%s%02d", side, p);
+                branchService.addBranch(new Branch(branchId, "Load " + branchId));
+                int employeeNumber = 1 + p * 2 + (side.equals("A") ? 1 : 0);
+                Employee employee = new Employee("Load " + side + p, String.format("%09d", 100_000 + employeeNumber),
+                        "0500000000", "Bank-0", employeeNumber, branchId, Role.CASHIER, "load" + side + p, "pass");
+                employeeService.addEmployee(employee);
+                authService.register(employee, employee.getUserName(), employee.getPassword());
+            }
+        }
+
+        // Generous limits: the harness measures chat latency, not admission
+        AdmissionController admission = new AdmissionController(pairs * 2 + 16, pairs * 2 + 16, pairs * 2 + 16, 1_000L);
+        ShutdownCoordinator shutdown = new ShutdownCoordinator(); // no phases; only tracks the handlers
+        IdleSessionReaper reaper = new IdleSessionReaper(0); // the simulated clients send no heartbeats
+        SessionResumption resumption = new SessionResumption(0, 0); // connections are never resumed
+        CustomerService customerService = new CustomerService();
+        SaleService saleService = new SaleService(productService, customerService);
+        ServerSocket serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket clientSocket = serverSocket.accept();
+                    new Thread(new ClientHandler(clientSocket, authService, employeeService, productService, customerService,
+                            saleService, chatService, branchService, admission, shutdown, reaper, resumption)).start();
+                } catch (IOException e) {
+                    if (!serverSocket.isClosed()) e.printStackTrace();
+                }
+            }
+        }, "load-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        List<SocketClient[]> clientPairs = new ArrayList<>();
+        for (int p = 0; p < pairs; p++) {
+            SocketClient requester = new SocketClient(serverSocket.getLocalPort(), "loadR" + p, "pass");
+            SocketClient assignee = new SocketClient(serverSocket.getLocalPort(), "loadA" + p, "pass");
+            clientPairs.add(new SocketClient[] { requester, assignee });
+        }
+
+        long wallStart = System.nanoTime();
+        ExecutorService drivers = Executors.newFixedThreadPool(pairs);
+        List<Future<?>> results = new ArrayList<>();
+        for (int p = 0; p < pairs; p++) {
+            SocketClient requester = clientPairs.get(p)[0];
+            SocketClient assignee = clientPairs.get(p)[1];
+            String targetBranch = String.format("A%02d", p);
+            results.add(drivers.submit(() -> {
+                long start = System.nanoTime();
+                requester.send("REQUEST " + targetBranch);
+                assignee.await("[OFFER]");
+                histogram("socket request->offer").record((System.nanoTime() - start) / 1_000);
+
+                start = System.nanoTime();
+                assignee.send("ACCEPT");
+                Matcher matcher = CHAT_ID.matcher(requester.await("ACCEPTED] ChatID: "));
+                histogram("socket accept->notice").record((System.nanoTime() - start) / 1_000);
+                if (!matcher.find()) throw new IOException("No chat id in ACCEPTED notice");
+
+                start = System.nanoTime();
+                requester.send("BEGIN " + matcher.group(1));
+                assignee.await("Requester joined");
+                histogram("socket begin->peer").record((System.nanoTime() - start) / 1_000);
+
+                for (int m = 0; m < messagesPerChat; m++) {
+                    String tag = "load-" + m + "-" + System.nanoTime();
+                    start = System.nanoTime();
+                    requester.send("SEND " + tag);
+                    assignee.await(tag);
+                    histogram("socket send->peer").record((System.nanoTime() - start) / 1_000);
+                    count("messages");
+                }
+                requester.send("LEAVE_CHAT");
+                assignee.send("LEAVE_CHAT");
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                count("socket flows failed");
+                System.out.println("Flow failed: " + e.getCause().getMessage());
+            }
+        }
+        double wallSeconds = (System.nanoTime() - wallStart) / 1e9;
+        drivers.shutdownNow();
+        for (SocketClient[] pair : clientPairs) { pair[0].close(); pair[1].close(); }
+        serverSocket.close();
+
+        System.out.printf("%nSocket run: %d concurrent chats x %d messages%n", pairs, messagesPerChat);
+        report(wallSeconds);
+    }
+
+    // -------------------- Report --------------------
+    private void report(double wallSeconds) {
+        System.out.printf("%-26s | %-9s | %-9s | %-9s | %-9s | %-9s | %-10s%n", "Operation (us)", "Count", "p50", "p99", "p999", "max", "ops/s wall");
+        System.out.println("-------------------------------------------------------------------------------------------------");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(latencyByOperation).entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            System.out.printf("%-26s | %-9d | %-9d | %-9d | %-9d | %-9d | %-10.0f%n", entry.getKey(), h.getCount(),
+                    h.percentile(50), h.percentile(99), h.percentile(99.9), h.getMax(), h.getCount() / Math.max(wallSeconds, 1e-9));
+        }
+        System.out.println();
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(counters).entrySet())
+            System.out.printf("%-30s %d%n", entry.getKey(), entry.getValue().get());
+    }
+}
@@ -0,0 +1,107 @@
+package Benchmarks;
+
+import Services.ChatService;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allocation per chat message, legacy representation vs. the compact ChatMessage.
+ * Legacy: LocalDateTime + name/branch strings per message, String.format and charset encoding
+ * per recipient (what ClientHandler did on every delivery).
+ * Compact: epoch millis + dictionary ids, one rendered UTF-8 line shared by all recipients.
+ * Sender names are rebuilt per message, as they are when decoded from the journal or the broker.
+ * Usage: java Benchmarks.ChatMessageAllocationBenchmark [messages] [recipients]
+ */
+public class ChatMessageAllocationBenchmark {
+
+    /** Replica of the pre-compaction message and delivery path. */
+    private static final class LegacyMessage {
+        final String senderName;
+        final String senderBranch;
+        final String content;
+        final LocalDateTime timestamp;
+
+        LegacyMessage(String senderName, String senderBranch, String content) {
+            this.senderName = senderName;
+            this.senderBranch = senderBranch;
+            this.content = content;
+            this.timestamp = LocalDateTime.now();
+        }
+
+        byte[] deliver() {
+            String line = String.format("[NEW MSG][%s] %s (%s): %s",
+                    timestamp.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")), senderName, senderBranch, content);
+            return (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final String[] SENDERS = { "Dana Levi", "Yossi Cohen", "SYSTEM", "Noa Mizrahi" };
+    private static final String[] BRANCHES = { "B001", "B002", "B003" };
+    private static long sink = 0;
+
+    public static void main(String[] args) {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int recipients = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        // Warm-up so both paths are compiled before measuring
+        runLegacy(messages / 4, recipients, null);
+        runCompact(messages / 4, recipients, null);
+
+        long legacyAllocated = measureAllocated(() -> runLegacy(messages, recipients, null));
+        long compactAllocated = measureAllocated(() -> runCompact(messages, recipients, null));
+        long legacyRetained = measureRetained(list -> runLegacy(messages, 0, list));
+        long compactRetained = measureRetained(list -> runCompact(messages, 1, list));
+
+        System.out.printf("%d messages, %d recipients each%n", messages, recipients);
+        System.out.printf("%-10s | %-22s | %-22s%n", "Path", "Allocated B/message", "Retained B/message");
+        System.out.println("---------------------------------------------------------");
+        System.out.printf("%-10s | %-22d | %-22d%n", "legacy", legacyAllocated / messages, legacyRetained / messages);
+        System.out.printf("%-10s | %-22d | %-22d%n", "compact", compactAllocated / messages, compactRetained / messages);
+        System.out.println("(retained is heap growth while holding all messages, wire line included for compact)");
+        if (sink == 42) System.out.println();
+    }
+
+    private static void runLegacy(int messages, int recipients, List<Object> keep) {
+        for (int i = 0; i < messages; i++) {
+            LegacyMessage msg = new LegacyMessage(new String(SENDERS[i & 3]), new String(BRANCHES[i % 3]), "Do you have item 4711 in stock?");
+            for (int r = 0; r < recipients; r++) sink += msg.deliver().length;
+            if (keep != null) keep.add(msg);
+        }
+    }
+
+    private static void runCompact(int messages, int recipients, List<Object> keep) {
+        for (int i = 0; i < messages; i++) {
+            ChatService.ChatMessage msg = new ChatService.ChatMessage(new String(SENDERS[i & 3]), new String(BRANCHES[i % 3]), "Do you have item 4711 in stock?");
+            for (int r = 0; r < recipients; r++) sink += msg.getWireBytes().length;
+            if (keep != null) keep.add(msg);
+        }
+    }
+
+    private static long measureAllocated(Runnable work) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        work.run();
+        return threads.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    private static long measureRetained(java.util.function.Consumer<List<Object>> work) {
+        List<Object> keep = new ArrayList<>(1 << 20);
+        long before = usedHeapAfterGc();
+        work.accept(keep);
+        long after = usedHeapAfterGc();
+        sink += keep.size();
+        return after - before;
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
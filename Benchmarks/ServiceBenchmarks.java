@@ -0,0 +1,321 @@
+package Benchmarks;
+
+import Exceptions.CustomExceptions;
+import Models.*;
+import Server.Utils.FileUtils;
+import Services.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * JMH benchmarks for the service and persistence hot paths, parameterized by data size
+ * (products, customers, employees, JSON records and background chats scale with it):
+ *   productGetByIdAndBranch, productGetProductsByBranch, productFormatBranchTable, productRenderedBranchTable,
+ *   customerGetById, customerFindByPhonePrefix, customerFindByName, employeeGetByUsername, employeeRejectDuplicate,
+ *   saleSellProduct, fileParseProducts, fileSaveProducts, logsConvertToDoc, chatRequestAcceptEnd, chatSendMessage.
+ *
+ * Run through the jmh Maven profile: mvn -Pjmh verify -Djmh.args="ServiceBenchmarks.product -p size=1000".
+ * Compare runs by saving them with -rf json -rff before.json. Files are written to a temporary directory
+ * (chat.data.dir included), never to ./Data.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class ServiceBenchmarks {
+
+    private static final int BRANCHES = 10;
+    private static final int LOOKUPS = 1024; // power of two: lookups cycle with cursor & (LOOKUPS - 1)
+
+    /** Services filled with size records each, and random lookup keys into them. */
+    @State(Scope.Benchmark)
+    public static class Data {
+        @Param({ "100", "1000", "10000" })
+        int size;
+
+        ProductService productService;
+        CustomerService customerService;
+        EmployeeService employeeService;
+        SaleService saleService;
+        List<Product> products;
+
+        final String[] productIds = new String[LOOKUPS];
+        final String[] branchIds = new String[LOOKUPS];
+        final String[] customerIds = new String[LOOKUPS];
+        final String[] usernames = new String[LOOKUPS];
+        final Employee[] duplicates = new Employee[LOOKUPS]; // new username and id, taken employee number
+        int cursor;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            Random random = new Random(size);
+            int perBranch = Math.max(1, size / BRANCHES);
+
+            productService = new ProductService();
+            products = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                Product product = new Product("P" + (i / BRANCHES), "Item " + i, i % 2 == 0 ? "Clothing" : "Shoes",
+                        10 + i % 90, Integer.MAX_VALUE / 2, branchId(i % BRANCHES));
+                productService.addOrUpdateProduct(product, 0);
+                products.add(product);
+            }
+
+            customerService = new CustomerService();
+            for (int i = 0; i < size; i++)
+                customerService.addCustomer(new NewCustomer("Customer " + i, String.format("%09d", i), String.format("05%08d", i)));
+
+            employeeService = new EmployeeService();
+            for (int i = 0; i < size; i++)
+                employeeService.addEmployee(new Employee("Employee " + i, String.format("%09d", i), "0500000000", "Bank-" + i,
+                        i + 1, branchId(i % BRANCHES), Role.CASHIER, "user" + i, "pass" + i));
+
+            // Sales go to registered customers, so purchase totals grow and tier promotions happen along the way
+            saleService = new SaleService(productService, customerService);
+
+            for (int i = 0; i < LOOKUPS; i++) {
+                productIds[i] = "P" + random.nextInt(perBranch);
+                branchIds[i] = branchId(random.nextInt(BRANCHES));
+                customerIds[i] = String.format("%09d", random.nextInt(size));
+                int existing = random.nextInt(size);
+                usernames[i] = "user" + existing;
+                duplicates[i] = new Employee("Duplicate " + i, String.format("9%08d", i), "0500000000", "Bank-D", existing + 1,
+                        branchId(0), Role.CASHIER, "duplicate" + i, "pass");
+            }
+        }
+
+        /** Keeps the static sales list from growing across iterations of saleSellProduct. */
+        @Setup(Level.Iteration)
+        public void clearSales() {
+            SaleService.clearSales();
+        }
+
+        int next() {
+            return cursor++ & (LOOKUPS - 1);
+        }
+    }
+
+    /** Product and sales-log files of size records in a temporary directory. */
+    @State(Scope.Benchmark)
+    public static class DataFiles {
+        File workDir;
+        String productsFile;
+        String savedFile;
+        String branchLog;
+        String typeLog;
+        String docFile;
+
+        @Setup(Level.Trial)
+        public void setUp(Data data) throws IOException {
+            workDir = Files.createTempDirectory("service-bench").toFile();
+            productsFile = new File(workDir, "products.json").getAbsolutePath();
+            FileUtils.saveToFile(productsFile, data.products, FileUtils::productToJson);
+            savedFile = new File(workDir, "products-saved.json").getAbsolutePath();
+            branchLog = writeSalesLog(workDir, "sales_by_branch.json", data.size, i -> branchId(i % BRANCHES));
+            typeLog = writeSalesLog(workDir, "sales_by_productType.json", data.size, i -> i % 2 == 0 ? "Clothing" : "Shoes");
+            docFile = new File(workDir, "sales.docx").getAbsolutePath();
+        }
+    }
+
+    /** A chat service with size/10 (max 1000) open background chats and two dedicated sessions. */
+    @State(Scope.Benchmark)
+    public static class Chat {
+        @Param({ "100", "1000", "10000" })
+        int size;
+
+        ScheduledExecutorService scheduler;
+        ChatService chatService;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            if (System.getProperty("chat.data.dir") == null) // read when ChatService is first loaded
+                System.setProperty("chat.data.dir", Files.createTempDirectory("chat-bench").toString());
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "bench-chat-timers");
+                thread.setDaemon(true);
+                return thread;
+            });
+            chatService = new ChatService(FairChatRequestQueue::new, "BENCH" + size, null,
+                    System::currentTimeMillis, scheduler);
+
+            for (int i = 0; i < Math.min(1000, size / 10); i++) {
+                chatService.connect("bg-r-" + i, "BG-REQ", "E-BG-R-" + i, "Requester " + i, _ -> { });
+                chatService.connect("bg-a-" + i, "BG-ASG", "E-BG-A-" + i, "Assignee " + i, _ -> { });
+                chatService.requestChatFromBranch("BG-REQ", "E-BG-R-" + i, Role.CASHIER, "BG-ASG", "background", _ -> { });
+                String backgroundChatId = chatService.acceptOfferByAssignee("bg-a-" + i, _ -> { });
+                chatService.markRequesterAttached(backgroundChatId, "E-BG-R-" + i, "bg-r-" + i, "BG-REQ", _ -> { });
+            }
+            chatService.connect("req", "B-REQ", "E-REQ", "Requester", _ -> { });
+            chatService.connect("asg", "B-ASG", "E-ASG", "Assignee", _ -> { });
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /** The open chat of chatSendMessage; a fresh one per iteration, so the history does not keep growing. */
+    @State(Scope.Benchmark)
+    public static class OpenChat {
+        String chatId;
+
+        @Setup(Level.Iteration)
+        public void open(Chat chat) throws Exception {
+            chatId = openChat(chat.chatService);
+        }
+
+        @TearDown(Level.Iteration)
+        public void end(Chat chat) {
+            chat.chatService.endChat(chatId);
+        }
+    }
+
+    // -------------------- Products --------------------
+    @Benchmark
+    public Product productGetByIdAndBranch(Data data) {
+        int i = data.next();
+        return data.productService.getProductByIdAndBranch(data.productIds[i], data.branchIds[i]);
+    }
+
+    @Benchmark
+    public List<Product> productGetProductsByBranch(Data data) {
+        return data.productService.getProductsByBranch(data.branchIds[data.next()]);
+    }
+
+    @Benchmark
+    public String productFormatBranchTable(Data data) {
+        return data.productService.formatProductList(data.productService.getProductsByBranch(data.branchIds[data.next()]));
+    }
+
+    @Benchmark
+    public Object productRenderedBranchTable(Data data) {
+        return data.productService.renderedProductList(data.branchIds[data.next()]);
+    }
+
+    // -------------------- Customers --------------------
+    @Benchmark
+    public Customer customerGetById(Data data) {
+        return data.customerService.getCustomerById(data.customerIds[data.next()]);
+    }
+
+    @Benchmark
+    public List<Customer> customerFindByPhonePrefix(Data data) {
+        return data.customerService.findByPhonePrefix("05" + data.customerIds[data.next()].substring(1, 6), 20);
+    }
+
+    @Benchmark
+    public List<Customer> customerFindByName(Data data) {
+        return data.customerService.findByName("omer " + data.customerIds[data.next()].replaceFirst("^0+(?=.)", ""), 20);
+    }
+
+    // -------------------- Employees --------------------
+    @Benchmark
+    public Employee employeeGetByUsername(Data data) {
+        return data.employeeService.getEmployeeByUsername(data.usernames[data.next()]);
+    }
+
+    /** Rejected on the third key check (employee number), under the registration lock. */
+    @Benchmark
+    public Object employeeRejectDuplicate(Data data) {
+        try {
+            data.employeeService.addEmployee(data.duplicates[data.next()]);
+            throw new IllegalStateException("duplicate employee number was accepted");
+        } catch (CustomExceptions.EmployeeException e) {
+            return e;
+        }
+    }
+
+    // -------------------- Sales --------------------
+    @Benchmark
+    public Object saleSellProduct(Data data) throws Exception {
+        int i = data.next();
+        return data.saleService.sellProduct(data.customerService.getCustomerById(data.customerIds[i]),
+                data.productIds[i], data.branchIds[i], 1);
+    }
+
+    // -------------------- Persistence --------------------
+    @Benchmark
+    public List<Product> fileParseProducts(Data data, DataFiles files) throws Exception {
+        List<Product> parsed = new ArrayList<>(data.size);
+        for (String json : FileUtils.readJsonObjectsFromFile(files.productsFile)) parsed.add(FileUtils.parseProductFromJson(json));
+        return parsed;
+    }
+
+    @Benchmark
+    public String fileSaveProducts(Data data, DataFiles files) {
+        FileUtils.saveToFile(files.savedFile, data.products, FileUtils::productToJson);
+        return files.savedFile;
+    }
+
+    @Benchmark
+    public String logsConvertToDoc(DataFiles files) throws IOException {
+        LogsService.convertToDoc(files.branchLog, files.typeLog, files.docFile);
+        return files.docFile;
+    }
+
+    // -------------------- Chat --------------------
+    @Benchmark
+    public String chatRequestAcceptEnd(Chat chat) throws Exception {
+        String chatId = openChat(chat.chatService);
+        chat.chatService.endChat(chatId);
+        return chatId;
+    }
+
+    @Benchmark
+    public String chatSendMessage(Chat chat, OpenChat openChat) throws Exception {
+        chat.chatService.sendMessage(openChat.chatId, "req", "Requester", "Do you have item 4711 in stock?");
+        return openChat.chatId;
+    }
+
+    private static String openChat(ChatService chatService) throws Exception {
+        chatService.requestChatFromBranch("B-REQ", "E-REQ", Role.CASHIER, "B-ASG", "price check", _ -> { });
+        String chatId = chatService.acceptOfferByAssignee("asg", _ -> { });
+        chatService.markRequesterAttached(chatId, "E-REQ", "req", "B-REQ", _ -> { });
+        return chatId;
+    }
+
+    /** Writes a grouped sales log in the SAVE_SALES layout with the given number of records. */
+    private static String writeSalesLog(File workDir, String fileName, int records, Function<Integer, String> groupOf) throws IOException {
+        Map<String, List<Integer>> groups = new TreeMap<>();
+        for (int i = 0; i < records; i++) groups.computeIfAbsent(groupOf.apply(i), _ -> new ArrayList<>()).add(i);
+
+        StringBuilder json = new StringBuilder("{\n");
+        int groupIndex = 0;
+        for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+            json.append("  \"").append(group.getKey()).append("\": [\n");
+            List<Integer> indexes = group.getValue();
+            for (int j = 0; j < indexes.size(); j++) {
+                int i = indexes.get(j);
+                json.append("    {\n")
+                        .append("      \"productId\": \"P").append(i / BRANCHES).append("\",\n")
+                        .append("      \"productName\": \"Item ").append(i).append("\",\n")
+                        .append("      \"quantity\": 1,\n")
+                        .append("      \"finalPrice\": ").append(10 + i % 90).append(".0,\n")
+                        .append("      \"saleTime\": \"2024-01-01 12:00\"\n")
+                        .append("    }").append(j < indexes.size() - 1 ? "," : "").append("\n");
+            }
+            json.append("  ]").append(++groupIndex < groups.size() ? "," : "").append("\n");
+        }
+        json.append("}\n");
+
+        File file = new File(workDir, fileName);
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(json.toString());
+        }
+        return file.getAbsolutePath();
+    }
+
+    private static String branchId(int index) {
+        return String.format("B%03d", index + 1);
+    }
+}
@@ -0,0 +1,141 @@
+package Benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.*;
+
+/**
+ * Discrete-event scheduler with a simulated millisecond clock.
+ * Nothing runs on its own: the driver calls runNext()/advanceTo() and due tasks run on the
+ * caller's thread in (due time, submission order). Hand the same instance to ChatService and to
+ * the load generator so chat timeouts and simulated users share one timeline.
+ */
+public class VirtualScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+    private final PriorityQueue<VirtualTask<?>> tasks = new PriorityQueue<>();
+    private long nowMs;
+    private long sequence = 0;
+    private boolean shutdown = false;
+
+    private final class VirtualTask<V> extends FutureTask<V> implements ScheduledFuture<V> {
+        final long periodMs; // 0 = one-shot
+        long dueMs;
+        final long order;
+
+        VirtualTask(Callable<V> callable, long dueMs, long periodMs) {
+            super(callable);
+            this.dueMs = dueMs;
+            this.periodMs = periodMs;
+            this.order = sequence++;
+        }
+
+        @Override
+        public void run() {
+            if (periodMs == 0) super.run();
+            else if (runAndReset()) reschedule(this);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueMs - now(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            VirtualTask<?> that = (VirtualTask<?>) other;
+            int byDue = Long.compare(dueMs, that.dueMs);
+            return byDue != 0 ? byDue : Long.compare(order, that.order);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (VirtualScheduler.this) { tasks.remove(this); }
+            return super.cancel(mayInterruptIfRunning);
+        }
+    }
+
+    public VirtualScheduler(long startMs) {
+        this.nowMs = startMs;
+    }
+
+    public synchronized long now() { return nowMs; }
+
+    public synchronized int pending() { return tasks.size(); }
+
+    /** Due time of the next task, or Long.MAX_VALUE when idle. */
+    public synchronized long nextDueMs() {
+        VirtualTask<?> head = tasks.peek();
+        return head == null ? Long.MAX_VALUE : head.dueMs;
+    }
+
+    /** Moves the clock to the next task and runs it; false when nothing is scheduled. */
+    public boolean runNext() {
+        VirtualTask<?> next;
+        synchronized (this) {
+            next = tasks.poll();
+            if (next == null) return false;
+            nowMs = Math.max(nowMs, next.dueMs);
+        }
+        next.run();
+        return true;
+    }
+
+    /** Runs every task due up to targetMs, then leaves the clock at targetMs. */
+    public void advanceTo(long targetMs) {
+        while (nextDueMs() <= targetMs) runNext();
+        synchronized (this) { nowMs = Math.max(nowMs, targetMs); }
+    }
+
+    private synchronized <V> VirtualTask<V> enqueue(Callable<V> callable, long delayMs, long periodMs) {
+        if (shutdown) throw new RejectedExecutionException("VirtualScheduler is shut down");
+        VirtualTask<V> task = new VirtualTask<>(callable, nowMs + Math.max(0, delayMs), periodMs);
+        tasks.add(task);
+        return task;
+    }
+
+    private synchronized void reschedule(VirtualTask<?> task) {
+        if (shutdown) return;
+        task.dueMs += task.periodMs;
+        tasks.add(task);
+    }
+
+    // -------------------- ScheduledExecutorService --------------------
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return enqueue(Executors.callable(command), unit.toMillis(delay), 0);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return enqueue(callable, unit.toMillis(delay), 0);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        return enqueue(Executors.callable(command), unit.toMillis(initialDelay), Math.max(1, unit.toMillis(period)));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        return scheduleAtFixedRate(command, initialDelay, delay, unit); // tasks take no simulated time
+    }
+
+    @Override
+    public void execute(Runnable command) { schedule(command, 0, TimeUnit.MILLISECONDS); }
+
+    @Override
+    public synchronized void shutdown() { shutdown = true; }
+
+    @Override
+    public synchronized List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> pending = new ArrayList<>(tasks);
+        tasks.clear();
+        return pending;
+    }
+
+    @Override public synchronized boolean isShutdown() { return shutdown; }
+    @Override public synchronized boolean isTerminated() { return shutdown && tasks.isEmpty(); }
+    @Override public boolean awaitTermination(long timeout, TimeUnit unit) { return isTerminated(); }
+}
@@ -3,10 +3,23 @@ package Client;
 import java.io.*;
 import java.net.Socket;
 import java.util.Scanner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class ClientApp {
     private final String host;
     private final int port;
+    // Heartbeat so the server's idle reaper knows this terminal is still there (-Dclient.heartbeatSec, 0 = off)
+    private static final long HEARTBEAT_SECONDS = Long.getLong("client.heartbeatSec", 60L);
+    // After a dropped connection: reconnect and resume the session with the token sent at login
+    private static final int RECONNECT_ATTEMPTS = Integer.getInteger("client.reconnectAttempts", 20);
+    private static final long RECONNECT_DELAY_MS = 3_000L;
+    private static final String RESUME_TOKEN_PREFIX = "[SESSION] RESUME_TOKEN ";
+
+    private volatile PrintWriter out;     // writer of the current connection
+    private volatile String resumeToken;  // null while not logged in
+    private volatile boolean quitting = false;
 
     // Constructor
     public ClientApp(String host, int port) {
@@ -15,35 +28,34 @@ public class ClientApp {
     }
 
     public void start() {
-        try (Socket socket = new Socket(host, port);
-                BufferedReader in = new BufferedReader(
-                        new InputStreamReader(socket.getInputStream()));
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                Scanner scanner = new Scanner(System.in)) {
-
+        try (Scanner scanner = new Scanner(System.in)) {
+            Socket socket = new Socket(host, port);
+            out = new PrintWriter(socket.getOutputStream(), true);
             System.out.println("Connected to " + host + ":" + port);
 
-            Thread reader = new Thread(() -> {
-                try {
-                    String line;
-                    while ((line = in.readLine()) != null) {
-                        System.out.println(line);
-                    }
-                } catch (IOException e) {
-                    // connection closed
-                }
-            });
+            Thread reader = new Thread(() -> readLoop(socket));
             reader.start();
 
-            while (true) {
+            ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            });
+            if (HEARTBEAT_SECONDS > 0) {
+                heartbeat.scheduleAtFixedRate(() -> out.println("PING"), HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+            }
+
+            while (reader.isAlive()) {
                 String userInput = scanner.nextLine();
-                if ("Quit".equalsIgnoreCase(userInput)) {
-                    out.println("Quit");
+                if ("Quit".equalsIgnoreCase(userInput) || "Exit".equalsIgnoreCase(userInput)) {
+                    quitting = true;
+                    out.println("Exit");
                     break;
                 }
                 out.println(userInput);
             }
 
+            heartbeat.shutdownNow();
             reader.join();
             System.out.println("Client closed.");
         } catch (IOException | InterruptedException e) {
@@ -51,6 +63,54 @@ public class ClientApp {
         }
     }
 
+    /** Prints server output; when the connection drops while logged in, reconnects and resumes the session. */
+    private void readLoop(Socket firstSocket) {
+        Socket current = firstSocket;
+        while (current != null) {
+            try (Socket socket = current;
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.equals("PONG")) continue; // heartbeat reply
+                    if (line.startsWith(RESUME_TOKEN_PREFIX)) {
+                        resumeToken = line.substring(RESUME_TOKEN_PREFIX.length());
+                        continue;
+                    }
+                    if (line.startsWith("ERROR: Unknown or expired resume token") || line.startsWith("You have been logged out")
+                            || line.startsWith("[NOTIFY] SERVER_SHUTDOWN")) {
+                        resumeToken = null;
+                    }
+                    System.out.println(line);
+                }
+            } catch (IOException e) {
+                // connection closed
+            }
+            if (quitting || resumeToken == null) return;
+            current = reconnect();
+        }
+    }
+
+    /** @return the new connection, already asked to resume, or null when the server stays unreachable */
+    private Socket reconnect() {
+        System.out.println("Connection lost. Reconnecting...");
+        for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS && !quitting; attempt++) {
+            try {
+                Thread.sleep(RECONNECT_DELAY_MS);
+                Socket socket = new Socket(host, port);
+                out = new PrintWriter(socket.getOutputStream(), true);
+                out.println("RESUME " + resumeToken);
+                System.out.println("Reconnected to " + host + ":" + port);
+                return socket;
+            } catch (IOException e) {
+                // server not reachable yet
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+        System.out.println("Could not reconnect. Press Enter to exit.");
+        return null;
+    }
+
     public static void main(String[] args) {
         ClientApp client = new ClientApp("localhost", 3000);
         client.start();
@@ -0,0 +1,161 @@
+package Server;
+
+import Server.Utils.MetricsRegistry;
+import Services.ChatService;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Read-only HTTP endpoint for monitoring, separate from the terminal protocol:
+ *   /health    200 while the process is up
+ *   /ready     200 once the data files are loaded, 503 before
+ *   /sessions  connected and idle chat sessions per branch (JSON)
+ *   /queues    chat requests waiting per target branch (JSON)
+ *   /metrics   MetricsRegistry plus per-branch chat gauges, Prometheus text format
+ * Served by its own small daemon pool, so scrapes never take a client-handler thread.
+ * Enabled with -Dadmin.http.port=<port> (binds to -Dadmin.http.host, default localhost).
+ */
+public class AdminHttpServer {
+
+    private static final int POOL_THREADS = 2;
+
+    private final HttpServer httpServer;
+    private final ExecutorService pool;
+    private final ChatService chatService;
+    private final BooleanSupplier ready;
+
+    public AdminHttpServer(String host, int port, ChatService chatService, BooleanSupplier ready) throws IOException {
+        this.chatService = chatService;
+        this.ready = ready;
+        this.httpServer = HttpServer.create(new InetSocketAddress(host, port), 0);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(POOL_THREADS, r -> {
+            Thread thread = new Thread(r, "admin-http-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpServer.setExecutor(pool);
+
+        httpServer.createContext("/health", get(_ -> new Response(200, "text/plain", "OK\n")));
+        httpServer.createContext("/ready", get(_ -> ready.getAsBoolean()
+                ? new Response(200, "text/plain", "READY\n")
+                : new Response(503, "text/plain", "LOADING\n")));
+        httpServer.createContext("/sessions", get(_ -> new Response(200, "application/json", sessionsJson())));
+        httpServer.createContext("/queues", get(_ -> new Response(200, "application/json",
+                "{ \"waitingByBranch\": " + toJson(chatService.queueDepthByBranch()) + " }\n")));
+        httpServer.createContext("/metrics", get(_ -> new Response(200, "text/plain; version=0.0.4", metricsText())));
+    }
+
+    public int getPort() { return httpServer.getAddress().getPort(); }
+
+    public void start() {
+        httpServer.start();
+        System.out.println("Admin HTTP endpoint listening on " + httpServer.getAddress());
+    }
+
+    public void stop() {
+        httpServer.stop(0);
+        pool.shutdown();
+        try {
+            pool.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // -------------------- Endpoints --------------------
+    private String sessionsJson() {
+        Map<String, Integer> connected = chatService.countConnectedByBranch();
+        int total = 0;
+        for (int count : connected.values()) total += count;
+        return "{ \"total\": " + total + ", \"connectedByBranch\": " + toJson(connected)
+                + ", \"idleByBranch\": " + toJson(chatService.countIdleByBranch()) + " }\n";
+    }
+
+    private String metricsText() {
+        StringBuilder metricsSB = new StringBuilder(MetricsRegistry.global().toPrometheus());
+        metricsSB.append("# TYPE sms_up gauge\nsms_up 1\n");
+        metricsSB.append("# TYPE sms_ready gauge\nsms_ready ").append(ready.getAsBoolean() ? 1 : 0).append('\n');
+        appendBranchGauge(metricsSB, "sms_chat_branch_sessions_connected", chatService.countConnectedByBranch());
+        appendBranchGauge(metricsSB, "sms_chat_branch_sessions_idle", chatService.countIdleByBranch());
+        appendBranchGauge(metricsSB, "sms_chat_branch_queue_depth", chatService.queueDepthByBranch());
+        return metricsSB.toString();
+    }
+
+    private static void appendBranchGauge(StringBuilder metricsSB, String name, Map<String, Integer> valueByBranch) {
+        metricsSB.append("# TYPE ").append(name).append(" gauge\n");
+        for (Map.Entry<String, Integer> entry : valueByBranch.entrySet()) {
+            metricsSB.append(name).append("{branch=\"").append(escapeLabel(entry.getKey())).append("\"} ")
+                    .append(entry.getValue()).append('\n');
+        }
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String toJson(Map<String, Integer> valueByKey) {
+        StringBuilder jsonSB = new StringBuilder("{");
+        String separator = " ";
+        for (Map.Entry<String, Integer> entry : valueByKey.entrySet()) {
+            jsonSB.append(separator).append('"').append(escapeLabel(entry.getKey())).append("\": ").append(entry.getValue());
+            separator = ", ";
+        }
+        return jsonSB.append(valueByKey.isEmpty() ? "}" : " }").toString();
+    }
+
+    // -------------------- Plumbing --------------------
+    private static final class Response {
+        final int status;
+        final String contentType;
+        final String body;
+
+        Response(int status, String contentType, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    private interface Endpoint {
+        Response handle(HttpExchange exchange);
+    }
+
+    /** GET/HEAD only; anything else gets 405. Request timings go to the metrics registry. */
+    private static HttpHandler get(Endpoint endpoint) {
+        return exchange -> {
+            long start = System.nanoTime();
+            try (exchange) {
+                String method = exchange.getRequestMethod();
+                Response response = method.equals("GET") || method.equals("HEAD")
+                        ? endpoint.handle(exchange)
+                        : new Response(405, "text/plain", "Method Not Allowed\n");
+                byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", response.contentType + "; charset=utf-8");
+                if (method.equals("HEAD")) {
+                    exchange.sendResponseHeaders(response.status, -1);
+                } else {
+                    exchange.sendResponseHeaders(response.status, body.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(body);
+                    }
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Admin HTTP error on " + exchange.getRequestURI() + " -> " + e.getMessage());
+            }
+            MetricsRegistry.global().recordSince("admin.http" + exchange.getHttpContext().getPath().replace('/', '.'), start);
+        };
+    }
+}
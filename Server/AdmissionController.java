@@ -0,0 +1,136 @@
+package Server;
+
+import Server.Utils.MetricsRegistry;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission control for client connections and commands.
+ * A connection is admitted only while the server is below its session limit and the remote address
+ * below its per-IP limit; otherwise it is told why and closed straight away, before any thread is started.
+ * Commands from admitted sessions share a fixed number of in-flight permits; a command that cannot get
+ * one within a short wait is answered with a busy error instead of queueing behind the others.
+ *
+ * Limits come from system properties (see fromSystemProperties) and every rejection is counted in the
+ * metrics registry under admission.*.
+ */
+public class AdmissionController {
+
+    private final int maxSessions;
+    private final int maxSessionsPerIp;
+    private final int maxInFlightCommands;
+    private final long commandWaitMs;
+
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final Map<InetAddress, Integer> sessionsByAddress = new ConcurrentHashMap<>();
+    private final Semaphore commandPermits;
+    private volatile boolean closed = false; // shutdown: nothing new is admitted
+
+    public AdmissionController(int maxSessions, int maxSessionsPerIp, int maxInFlightCommands, long commandWaitMs) {
+        this.maxSessions = maxSessions;
+        this.maxSessionsPerIp = maxSessionsPerIp;
+        this.maxInFlightCommands = maxInFlightCommands;
+        this.commandWaitMs = commandWaitMs;
+        this.commandPermits = new Semaphore(maxInFlightCommands);
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        metrics.gauge("admission.sessions", sessions::get);
+        metrics.gauge("admission.commands.inflight", () -> maxInFlightCommands - commandPermits.availablePermits());
+    }
+
+    /**
+     * -Dserver.maxSessions (default 500), -Dserver.maxSessionsPerIp (50),
+     * -Dserver.maxInFlightCommands (64), -Dserver.commandWaitMs (200).
+     */
+    public static AdmissionController fromSystemProperties() {
+        return new AdmissionController(
+                Integer.getInteger("server.maxSessions", 500),
+                Integer.getInteger("server.maxSessionsPerIp", 50),
+                Integer.getInteger("server.maxInFlightCommands", 64),
+                Long.getLong("server.commandWaitMs", 200L));
+    }
+
+    // -------------------- Sessions --------------------
+    /**
+     * Reserves a session slot for the address.
+     * @return null when admitted (release with releaseSession), otherwise the message for the client
+     */
+    public String tryAdmitSession(InetAddress address) {
+        if (closed) {
+            MetricsRegistry.global().increment("admission.connections.rejected.shutdown");
+            return "ERROR: Server is shutting down. Please try again later.";
+        }
+        if (sessions.incrementAndGet() > maxSessions) {
+            sessions.decrementAndGet();
+            MetricsRegistry.global().increment("admission.connections.rejected.capacity");
+            return "ERROR: Server is at capacity (" + maxSessions + " sessions). Please try again later.";
+        }
+        if (sessionsByAddress.merge(address, 1, Integer::sum) > maxSessionsPerIp) {
+            releaseAddress(address);
+            sessions.decrementAndGet();
+            MetricsRegistry.global().increment("admission.connections.rejected.per_ip");
+            return "ERROR: Too many connections from " + address.getHostAddress() + " (limit " + maxSessionsPerIp + "). Please try again later.";
+        }
+        MetricsRegistry.global().increment("admission.connections.admitted");
+        return null;
+    }
+
+    public void releaseSession(InetAddress address) {
+        releaseAddress(address);
+        sessions.decrementAndGet();
+    }
+
+    private void releaseAddress(InetAddress address) {
+        sessionsByAddress.computeIfPresent(address, (_, count) -> count <= 1 ? null : count - 1);
+    }
+
+    public int getSessionCount() { return sessions.get(); }
+
+    // -------------------- Commands --------------------
+    /** @return true if the command may run; the caller must then call releaseCommand */
+    public boolean tryAcquireCommand() {
+        if (closed) return false;
+        try {
+            if (commandPermits.tryAcquire(commandWaitMs, TimeUnit.MILLISECONDS)) return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        MetricsRegistry.global().increment("admission.commands.rejected");
+        return false;
+    }
+
+    public void releaseCommand() {
+        commandPermits.release();
+    }
+
+    // -------------------- Shutdown --------------------
+    /** Turns away every new session and command from now on. */
+    public void stopAdmitting() {
+        closed = true;
+    }
+
+    /**
+     * Waits for the commands already running to finish (call after stopAdmitting).
+     * @return true if all finished within the timeout
+     */
+    public boolean awaitIdle(long timeoutMs) {
+        try {
+            return commandPermits.tryAcquire(maxInFlightCommands, timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public int getInFlightCommands() { return maxInFlightCommands - commandPermits.availablePermits(); }
+
+    public String busyMessage() {
+        if (closed) return "ERROR: Server is shutting down; no new commands are accepted.";
+        return "ERROR: Server is busy (" + maxInFlightCommands + " commands in progress). Please retry.";
+    }
+}
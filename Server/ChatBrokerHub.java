@@ -0,0 +1,93 @@
+package Server;
+
+import Services.ChatBroker;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local stand-in for a message broker: chat nodes connect with a TcpChatBroker, introduce
+ * themselves with HELLO and the hub forwards every line to its destination node (or to every
+ * other node for broadcasts). No persistence: messages to a node that is not connected are dropped.
+ */
+public class ChatBrokerHub {
+
+    private final ServerSocket serverSocket;
+    private final Map<String, PrintWriter> writersByNode = new ConcurrentHashMap<>();
+
+    public ChatBrokerHub(int port) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+    }
+
+    public int getPort() { return serverSocket.getLocalPort(); }
+
+    /** Accepts node connections until close() is called. */
+    public void start() {
+        System.out.println("Chat broker hub listening on port " + getPort());
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket nodeSocket = serverSocket.accept();
+                new Thread(() -> serveNode(nodeSocket), "chat-hub-node").start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) e.printStackTrace();
+            }
+        }
+    }
+
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.out.println("Error closing chat broker hub -> " + e.getMessage());
+        }
+    }
+
+    private void serveNode(Socket nodeSocket) {
+        String nodeId = null;
+        try (nodeSocket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(nodeSocket.getInputStream(), StandardCharsets.UTF_8))) {
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(nodeSocket.getOutputStream(), StandardCharsets.UTF_8), true);
+            String helloLine = in.readLine();
+            ChatBroker.Message hello = helloLine == null ? null : ChatBroker.Message.decode(helloLine);
+            if (hello == null || !hello.getType().equals("HELLO")) return;
+            nodeId = hello.getFrom();
+            writersByNode.put(nodeId, out);
+            System.out.println("Chat node connected: " + nodeId);
+
+            String line;
+            while ((line = in.readLine()) != null) route(nodeId, line);
+        } catch (IOException e) {
+            System.out.println("Chat node connection closed: " + nodeId + " -> " + e.getMessage());
+        } finally {
+            if (nodeId != null) writersByNode.remove(nodeId);
+        }
+    }
+
+    private void route(String fromNode, String line) {
+        ChatBroker.Message message = ChatBroker.Message.decode(line);
+        if (message == null) return;
+        if (message.getTo() != null) {
+            write(writersByNode.get(message.getTo()), line);
+            return;
+        }
+        for (Map.Entry<String, PrintWriter> entry : writersByNode.entrySet()) {
+            if (!entry.getKey().equals(fromNode)) write(entry.getValue(), line);
+        }
+    }
+
+    private static void write(PrintWriter out, String line) {
+        if (out == null) return;
+        synchronized (out) {
+            out.println(line);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 3100;
+        new ChatBrokerHub(port).start();
+    }
+}
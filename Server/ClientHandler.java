@@ -1,17 +1,23 @@
 package Server;
 
 import Exceptions.CustomExceptions;
+import Server.Utils.ChatSearchIndex;
+import Server.Utils.CommandTracing;
 import Server.Utils.FileUtils;
+import Server.Utils.MetricsRegistry;
+import Server.Utils.RenderCache;
 import Models.*;
 import Services.*;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * Handles client sessions and commands in the Store Management System.
@@ -19,6 +25,8 @@ import java.util.function.Consumer;
  */
 public class ClientHandler implements Runnable {
     private final PrintWriter out;
+    private final Writer outBuffer;      // lock shared with out; guards raw chat writes
+    private final OutputStream rawOut;
     private final Socket clientSocket ;
     private final AuthService authService;
     private final EmployeeService employeeService;
@@ -27,15 +35,65 @@ public class ClientHandler implements Runnable {
     private final SaleService saleService;
     private final ChatService chatService;
     private final BranchService branchService;
+    private final AdmissionController admission;
+    private final ShutdownCoordinator shutdown;
+    private final IdleSessionReaper reaper;
+    private IdleSessionReaper.Lease idleLease;
+    private final SessionResumption resumption;
+    private SessionResumption.Outbox outbox;       // pushed chat lines of the current login; moves with it on RESUME
+    private volatile boolean endedForGood = false; // Exit or idle expiry: the session is not kept for a resume
 
     private static final String ACTION_LOG_FILE = "Logs/actions.log";
+    private static final int SEARCH_PAGE_SIZE = 10;
+    private static final int FIND_CUSTOMER_LIMIT = 20;
+
+    /**
+     * Every command with its roles, minimum argument count and handler; commands are timed under their own
+     * name in the metrics, anything else is recorded as UNKNOWN.
+     */
+    private static final Set<Role> ADMIN = EnumSet.of(Role.ADMIN);
+    private static final Set<Role> MANAGERS = EnumSet.of(Role.ADMIN, Role.SHIFT_MANAGER);
+    private static final Set<Role> ALL = CommandRegistry.ALL_ROLES;
+    private static final CommandRegistry<ClientHandler> COMMANDS = new CommandRegistry<ClientHandler>()
+            .register("MENU", ALL, 0, (handler, _) -> handler.showMenu())
+            .register("ADD_EMPLOYEE", ADMIN, 9, ClientHandler::addEmployeeCommand)
+            .register("SHOW_EMPLOYEES", ADMIN, 0, "Only ADMIN can view all employees.", ClientHandler::showEmployees)
+            .register("SHOW_PRODUCTS", ALL, 0, ClientHandler::showProducts)
+            .register("SELL", ALL, 3, ClientHandler::sellProductCommand)
+            .register("PURCHASE_PRODUCT", ALL, 6, ClientHandler::purchaseProductCommand)
+            .register("SAVE_SALES", ADMIN, 0, "Only ADMIN can save sales logs.", (handler, _) -> handler.saveSalesLogs())
+            .register("VIEW_SALES_LOGS", ADMIN, 0, "Only ADMIN can view sales logs.", (handler, _) -> handler.viewSalesLogs())
+            .register("ADD_CUSTOMER", ALL, 4, ClientHandler::addCustomerCommand)
+            .register("SHOW_CUSTOMERS", ALL, 0, ClientHandler::showCustomers)
+            .register("FIND_CUSTOMER", ALL, 1, ClientHandler::findCustomerCommand)
+            .register("BRANCH_ROSTER", ALL, 0, ClientHandler::branchRosterCommand)
+            .register("LOGS_TO_WORD", ADMIN, 0, "Only ADMIN can convert logs to Word.", (handler, _) -> handler.logsToWordCommand())
+            // Chat Commands
+            .register("REQUEST", ALL, 1, ClientHandler::handleRequestChat)
+            .register("ACCEPT", ALL, 0, (handler, _) -> handler.handleAcceptChatOffer())
+            .register("BEGIN", ALL, 1, ClientHandler::handleJoinChatRequester)
+            .register("JOIN", ALL, 1, ClientHandler::handleJoinExistingChat)
+            .register("SEND", ALL, 1, (handler, parts) -> handler.handleSendMsg(String.join(" ", parts)))
+            .register("CHAT_HISTORY", ALL, 0, (handler, _) -> handler.handleShowChatHistory())
+            .register("LEAVE_CHAT", ALL, 0, ClientHandler::handleLeaveChat)
+            .register("LIVE_CHATS", ALL, 0, (handler, _) -> handler.handleListJoinableChats())
+            .register("END_CHAT", ALL, 0, ClientHandler::handleEndChat)
+            .register("LIST_CHATS", MANAGERS, 0, "Only ADMIN or SHIFT_MANAGER can list all chats.", (handler, _) -> handler.listChatsCommand())
+            .register("ARCHIVED_CHAT", MANAGERS, 1, "Only ADMIN or SHIFT_MANAGER can view archived chats.", ClientHandler::archivedChatCommand)
+            .register("EXPORT_CHAT_HISTORY", ADMIN, 0, "Only ADMIN can export chat history.", (handler, _) -> handler.exportChatHistoryCommand())
+            .register("SEARCH_CHATS", MANAGERS, 1, "Only ADMIN or SHIFT_MANAGER can search chat history.", ClientHandler::searchChatsCommand)
+            .register("QUEUE_STATS", MANAGERS, 0, "Only ADMIN or SHIFT_MANAGER can view chat queue statistics.", (handler, _) -> handler.queueStatsCommand())
+            .register("CHAT_METRICS", ADMIN, 0, "Only ADMIN can view chat metrics.", (handler, _) -> handler.chatMetricsCommand())
+            .register("STATS", ADMIN, 0, "Only ADMIN can view server statistics.", (handler, _) -> handler.statsCommand())
+            .register("SHUTDOWN", ADMIN, 0, "Only ADMIN can shut down the server.", ClientHandler::shutdownCommand)
+            .register("LOGOUT", ALL, 0, (handler, _) -> handler.logoutCommand());
 
     private Employee loggedInEmployee;
-    private String currentUsername;
-    private String currentChatId = null;
+    private volatile AuthService.Session authSession; // this connection's login; null between logins
+    private volatile String currentChatId = null; // also cleared by chat notices from other threads
 
     /** NEW: persist this TCP session’s server-side sessionId (for ChatService presence & idle pool). */
-    private String currentSessionId = null;
+    private volatile String currentSessionId = null;
     private final Map<String, Consumer<ChatService.ChatMessage>> chatListeners = new ConcurrentHashMap<>();
     private enum RequesterJoinPolicy { BLOCK, AUTO_LEAVE, AUTO_END_BOTH }
     private static final RequesterJoinPolicy REQUESTER_JOIN_POLICY = RequesterJoinPolicy.BLOCK; // pick your default
@@ -48,9 +106,15 @@ public class ClientHandler implements Runnable {
                          CustomerService customerService,
                          SaleService saleService,
                          ChatService chatService,
-                         BranchService branchService) throws IOException {
+                         BranchService branchService,
+                         AdmissionController admission,
+                         ShutdownCoordinator shutdown,
+                         IdleSessionReaper reaper,
+                         SessionResumption resumption) throws IOException {
         this.clientSocket = clientSocket;
-        this.out = new PrintWriter(clientSocket.getOutputStream(), true);
+        this.rawOut = clientSocket.getOutputStream();
+        this.outBuffer = new BufferedWriter(new OutputStreamWriter(rawOut, StandardCharsets.UTF_8));
+        this.out = new PrintWriter(outBuffer, true);
         this.authService = authService;
         this.employeeService = employeeService;
         this.productService = productService;
@@ -58,10 +122,16 @@ public class ClientHandler implements Runnable {
         this.saleService = saleService;
         this.chatService = chatService;
         this.branchService = branchService;
+        this.admission = admission;
+        this.shutdown = shutdown;
+        this.reaper = reaper;
+        this.resumption = resumption;
     }
 
     @Override
     public void run() {
+        shutdown.register(this);
+        idleLease = reaper.track(this);
         try (
                 BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
                 PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)
@@ -73,17 +143,137 @@ public class ClientHandler implements Runnable {
         } catch (IOException e) {
             System.err.println("IO ERROR: " + e.getMessage());
         } finally {
-            if (currentUsername != null) authService.logout(currentUsername);
-            try {
+            // A dropped connection keeps its session for a resume; otherwise end it unless another connection took it over
+            AuthService.Session session = authSession;
+            boolean parked = session != null && !endedForGood && !shutdown.isShuttingDown()
+                    && resumption.park(session.getToken(), this, this::endParkedSession);
+            if (!parked && (session == null || resumption.unregister(session.getToken(), this))) {
+                authService.logout(session);
                 if (currentSessionId != null) chatService.disconnect(currentSessionId);
+            }
+            MetricsRegistry.global().increment("server.connections.closed");
+            try {
                 clientSocket.close();
             } catch (IOException ex) {
                 ex.printStackTrace();
             }
+            shutdown.unregister(this);
+            reaper.release(idleLease);
             out.println("Client disconnected.");
         }
     }
 
+    // Shutdown hooks (called from the shutdown thread)
+    /** Pushes a notice to the client between responses, like a chat message. */
+    public void notifyShutdown(String notice) {
+        writePushed(notice);
+    }
+
+    /** Closes the socket; the blocked read in run() fails and the handler cleans up as on a normal disconnect. */
+    public void closeConnection() {
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            System.out.println("Error closing client socket -> " + e.getMessage());
+        }
+    }
+
+    /**
+     * Called by the reaper when the client has sent nothing, not even a heartbeat, for longer than the idle
+     * timeout. Frees the login and the chat presence right away and closes the socket; no notice is written,
+     * since the peer is presumed gone and a write to it could block the reaper.
+     */
+    public void expireIdle(long idleSeconds) {
+        endedForGood = true;
+        AuthService.Session session = authSession;
+        if (session != null && !resumption.unregister(session.getToken(), this)) { // already resumed elsewhere
+            closeConnection();
+            return;
+        }
+        String who = session == null ? "(not logged in)" : session.getUsername();
+        System.out.println("Idle session reaped: " + who + " at " + clientSocket.getRemoteSocketAddress() + " after " + idleSeconds + "s");
+        if (session != null) logAction("SESSION EXPIRED: " + who + " after " + idleSeconds + "s without activity");
+        authService.logout(session);
+        String sessionId = currentSessionId;
+        if (sessionId != null) chatService.disconnect(sessionId);
+        closeConnection();
+    }
+
+    /**
+     * Reads the next line from the client and renews the idle lease. PING heartbeats are answered with
+     * PONG here, so they keep the session alive at the login prompt as well as between commands.
+     */
+    private String readClientLine(BufferedReader in, PrintWriter out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            idleLease.touch();
+            if (!line.trim().equalsIgnoreCase("PING")) break;
+            MetricsRegistry.global().increment("session.heartbeats");
+            out.println("PONG");
+        }
+        return line;
+    }
+
+    // Session resumption
+    /** Called by SessionResumption.park under its lock: chat lines are buffered and no new chats are offered. */
+    void detachForPark() {
+        outbox.detach();
+        if (currentChatId == null && currentSessionId != null) chatService.setIdle(currentSessionId, false);
+    }
+
+    /** A parked session nobody resumed: the cleanup a disconnect does, one grace period later. */
+    private void endParkedSession() {
+        System.out.println("Session not resumed, logging out: " + authSession.getUsername());
+        authService.logout(authSession);
+        if (currentSessionId != null) chatService.disconnect(currentSessionId);
+    }
+
+    /**
+     * RESUME <token> at the login prompt: takes over the session, with its chat, from the connection that
+     * dropped and replays the chat lines it missed.
+     */
+    private boolean resume(String token, PrintWriter out) {
+        ClientHandler previous = resumption.claim(token, this);
+        if (previous == null) {
+            out.println("ERROR: Unknown or expired resume token. Please log in.");
+            return false;
+        }
+        int replayed = previous.outbox.attach(this, () -> {
+            loggedInEmployee = previous.loggedInEmployee;
+            authSession = previous.authSession;
+            currentSessionId = previous.currentSessionId;
+            currentChatId = previous.currentChatId;
+            chatListeners.putAll(previous.chatListeners);
+            outbox = previous.outbox;
+            out.println("Session resumed. Hello again, " + loggedInEmployee.getFullName() +
+                    (currentChatId == null ? "" : " - you are still in chat " + currentChatId) + ".");
+        });
+        previous.closeConnection(); // when the old connection is half-open and has not noticed the drop yet
+        if (currentChatId == null) chatService.setIdle(currentSessionId, true);
+        logAction("SESSION RESUMED: " + authSession.getUsername() + " (" + replayed + " missed lines replayed)");
+        out.println("Type " + bold("Menu") + " to see available commands, or " + bold("Exit") + " to exit.");
+        return true;
+    }
+
+    /** Chat notices for the session; runs under its outbox lock on whichever handler holds the session. */
+    void onChatNotify(String msg) {
+        if (msg != null && msg.startsWith("[NOTIFY] CHAT_ENDED ")) {
+            String endedId = msg.substring("[NOTIFY] CHAT_ENDED ".length()).trim();
+            if (endedId.equals(currentChatId)) {
+                currentChatId = null;
+            }
+        } else {
+            outbox.push("" + msg);
+        }
+    }
+
+    /** Writes a line between responses, like a chat message. */
+    void writePushed(String line) {
+        synchronized (outBuffer) {
+            out.println(line);
+        }
+    }
+
     // Log of action
     private void logAction(String action) {
         File logsDir = new File("logs");
@@ -95,7 +285,8 @@ public class ClientHandler implements Runnable {
         String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
         String finalLine = "[" + timestamp + "] " + action;
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(ACTION_LOG_FILE, true))) {
+        try (var _ = CommandTracing.stage(CommandTracing.LOGGING, ACTION_LOG_FILE);
+             BufferedWriter writer = new BufferedWriter(new FileWriter(ACTION_LOG_FILE, true))) {
             writer.write(finalLine + "\n");
         } catch (IOException e) {
             System.err.println("ERROR: Could not write to actions.log - " + e.getMessage());
@@ -111,23 +302,25 @@ public class ClientHandler implements Runnable {
 
         while (attempts < MAX_ATTEMPTS) {
             out.println("Please enter your username:");
-            String username = in.readLine();
+            String username = readClientLine(in, out);
             if (username == null) return false;
+            if (username.trim().toUpperCase().startsWith("RESUME ")) {
+                if (resume(username.trim().substring("RESUME ".length()).trim(), out)) return true;
+                attempts++;
+                continue;
+            }
 
             out.println("Please enter your password:");
-            String password = in.readLine();
+            String password = readClientLine(in, out);
             if (password == null) return false;
 
             try {
-                Employee loggedInEmployee = authService.login(username.trim(), password.trim());
-                if (loggedInEmployee == null) {
-                    out.println("ERROR: Invalid credentials or user already logged in.");
-                    attempts++;
-                    continue;
-                }
+                AuthService.Session session = authService.login(username.trim(), password.trim(),
+                        String.valueOf(clientSocket.getRemoteSocketAddress()));
+                Employee loggedInEmployee = session.getEmployee();
 
                 this.loggedInEmployee = loggedInEmployee;
-                this.currentUsername = username;
+                this.authSession = session;
                 out.println("Login successful! Hello, " + loggedInEmployee.getFullName() +
                         " (Role: " + loggedInEmployee.getRole() + ", Branch: " + loggedInEmployee.getBranchId() + ")");
                 this.currentSessionId = UUID.randomUUID().toString();
@@ -135,20 +328,13 @@ public class ClientHandler implements Runnable {
                 out.println("Type "+ bold("Menu") + " to see available commands, or " +bold("Exit") + " to exit.");
 
                 String branchId = loggedInEmployee.getBranchId();
+                this.outbox = resumption.newOutbox(this);
                 chatService.connect(this.currentSessionId, branchId, loggedInEmployee.getEmployeeId(),
                     loggedInEmployee.getFullName() + " (" + loggedInEmployee.getRole() + ", " + branchId + ")",
-
-                    msg -> {
-                        if (msg != null && msg.startsWith("[NOTIFY] CHAT_ENDED ")) {
-                            String endedId = msg.substring("[NOTIFY] CHAT_ENDED ".length()).trim();
-                            if (endedId.equals(currentChatId)) {
-                                currentChatId = null;
-                            }
-                        } else {
-                            out.println("" + msg);
-                        }
-                    }
+                    outbox::notify
                 );
+                resumption.register(session.getToken(), this);
+                if (resumption.isEnabled()) out.println("[SESSION] RESUME_TOKEN " + session.getToken());
 
                 return true;
 
@@ -166,67 +352,90 @@ public class ClientHandler implements Runnable {
     // Command Handling
     private boolean handleCommands(BufferedReader in, PrintWriter out) throws IOException {
         String line;
-        while ((line = in.readLine()) != null) {
+        while ((line = readClientLine(in, out)) != null) {
             line = line.trim();
             if (line.equalsIgnoreCase("Exit")) {
+                endedForGood = true;
                 out.println("Goodbye!");
                 return false;
             }
 
-            try {
-                String response = handleCommand(line);
+            String[] parts = line.split(" ");
+            CommandRegistry.Command<ClientHandler> command = COMMANDS.lookup(parts[0]);
+            if (command != null && command.getName().equals("END_CHAT") && parts.length == 1 && currentChatId != null) {
+                // Asked here, before the command takes an in-flight permit: the user may take a while to answer
+                String answer = askSaveChatHistory(in, out);
+                if (answer == null) return false;
+                parts = new String[] { parts[0], answer };
+            }
+            String commandName = command != null ? command.getName() : line.isEmpty() ? "EMPTY" : "UNKNOWN";
+            String metricName = command != null ? command.getMetricName() : "command." + commandName;
+            long start = System.nanoTime();
+            CommandTracing.CommandEvent commandEvent = CommandTracing.beginCommand(commandName,
+                    String.valueOf(loggedInEmployee.getRole()), loggedInEmployee.getBranchId());
+            String outcome = "OK";
+            String response;
+            if (!admission.tryAcquireCommand()) {
+                outcome = "REJECTED";
+                response = admission.busyMessage();
+            } else {
+                try {
+                    response = handleCommand(command, parts);
+                    if (response.startsWith("ERROR")) outcome = "ERROR";
+                } catch (CustomExceptions.ProductException | CustomExceptions.EmployeeException |
+                         CustomExceptions.CustomerException e) {
+                    outcome = "ERROR";
+                    response = "ERROR: " + e.getMessage();
+                } catch (Exception e) {
+                    outcome = "ERROR";
+                    response = "ERROR: Unexpected error occurred - " + e.getMessage();
+                } finally {
+                    admission.releaseCommand(); // held while the command runs, not while a slow client reads
+                }
+            }
+            try (var _ = CommandTracing.stage(CommandTracing.RESPONSE_WRITE)) {
                 out.println(response);
-                if (response.contains("Returning to login screen")) return true;
-            } catch (CustomExceptions.ProductException | CustomExceptions.EmployeeException |
-                     CustomExceptions.CustomerException e) {
-                out.println("ERROR: " + e.getMessage());
-            } catch (Exception e) {
-                out.println("ERROR: Unexpected error occurred - " + e.getMessage());
+            } finally {
+                if (outcome.equals("ERROR")) MetricsRegistry.global().increment(metricName + ".errors");
+                MetricsRegistry.global().recordSince(metricName, start);
+                CommandTracing.endCommand(commandEvent, outcome);
+                idleLease.touch(); // a long-running command is not silence
             }
+            if (response.contains("Returning to login screen")) return true;
         }
         return false;
     }
 
-    private String handleCommand(String line) throws CustomExceptions.ProductException, CustomExceptions.EmployeeException, CustomExceptions.CustomerException {
-        if (line.isEmpty()) return "";
-
-        if (line.toUpperCase().startsWith("SEND")) return handleSendMsg(line);
-
-        String[] parts = line.split(" ");
-        String command = parts[0].toUpperCase().replace(" ", "_");
+    /**
+     * Reads through readClientLine like every other client read, so heartbeats arriving at the prompt are
+     * answered rather than taken as an answer, and the idle lease keeps being renewed.
+     * @return "yes" or "no", or null if the connection closed before an answer
+     */
+    private String askSaveChatHistory(BufferedReader in, PrintWriter out) throws IOException {
+        out.println("Do you want to save the chat history? (" + bold( "yes") + "/" + bold("no") + "):");
+        String answer;
+        while ((answer = readClientLine(in, out)) != null) {
+            answer = answer.trim();
+            if (answer.equalsIgnoreCase("yes") || answer.equalsIgnoreCase("no")) return answer.toLowerCase();
+            out.println("Please answer yes or no.");
+        }
+        return null;
+    }
 
-        return switch (command) {
-            case "MENU" -> showMenu();
-            case "ADD_EMPLOYEE" -> addEmployeeCommand(parts);
-            case "SHOW_EMPLOYEES" -> showEmployees();
-            case "SHOW_PRODUCTS" -> showProducts();
-            case "SELL" -> sellProductCommand(parts);
-            case "PURCHASE_PRODUCT" -> purchaseProductCommand(parts);
-            case "SAVE_SALES" -> saveSalesLogs();
-            case "VIEW_SALES_LOGS" -> viewSalesLogs();
-            case "ADD_CUSTOMER" -> addCustomerCommand(parts);
-            case "SHOW_CUSTOMERS" -> showCustomers();
-            case "LOGS_TO_WORD" -> logsToWordCommand();
+    private String handleCommand(CommandRegistry.Command<ClientHandler> command, String[] parts) throws CustomExceptions.ProductException, CustomExceptions.EmployeeException, CustomExceptions.CustomerException {
+        if (command == null) {
+            if (parts[0].isEmpty()) return "";
+            return "Unknown command: " + parts[0].toUpperCase() + ". Type "+ bold("Menu") + " to see available commands.";
+        }
+        return COMMANDS.execute(command, this, loggedInEmployee.getRole(), parts);
+    }
 
-            // Chat Commands
-            case "REQUEST" -> handleRequestChat(parts);
-            case "ACCEPT" -> handleAcceptChatOffer(parts);
-            case "BEGIN" -> handleJoinChatRequester(parts);
-            case "JOIN" -> handleJoinExistingChat(parts);
-            case "CHAT_HISTORY" -> handleShowChatHistory();
-            case "LEAVE_CHAT" -> handleLeaveChat(parts);
-            case "LIVE_CHATS" -> handleListJoinableChats();
-            case "END_CHAT" -> handleEndChat();
-            case "LIST_CHATS" -> listChatsCommand();
-            case "LOGOUT" -> {
-                authService.logout(currentUsername);
-                loggedInEmployee = null;
-                currentUsername = null;
-                yield "You have been logged out. Returning to login screen...";
-            }
-            case "Exit" -> "Goodbye!";
-            default -> "Unknown command: " + command + ". Type "+ bold("Menu") + " to see available commands.";
-        };
+    private String logoutCommand() {
+        resumption.unregister(authSession.getToken(), this);
+        authService.logout(authSession);
+        loggedInEmployee = null;
+        authSession = null;
+        return "You have been logged out. Returning to login screen...";
     }
 
     // Menu
@@ -234,17 +443,23 @@ public class ClientHandler implements Runnable {
         StringBuilder menuSB = new StringBuilder(bold("--- COMMAND MENU ---\n"));
 
         if (loggedInEmployee.getRole() == Role.ADMIN) {
-            menuSB.append("SHOW_EMPLOYEES - display all employees\n");
-            menuSB.append("SHOW_CUSTOMERS - display all customers\n");
-            menuSB.append("SHOW_PRODUCTS - display all products\n");
+            menuSB.append("SHOW_EMPLOYEES [branch:<Id>] [role:<Role>] - display employees\n");
+            menuSB.append("SHOW_CUSTOMERS [type:<Type>] [phone:<Prefix>] [name:<Text>] - display customers\n");
+            menuSB.append("FIND_CUSTOMER <PhonePrefix | Name...> - find customers by phone prefix or part of the name\n");
+            menuSB.append("SHOW_PRODUCTS [branch:<Id>] [category:<Category>] - display products\n");
+            menuSB.append("BRANCH_ROSTER <BranchId> - employees of a branch and who is online\n");
+            menuSB.append("  (SHOW_* take page:<N> [size:<N>] for one page; without page: the full list is streamed)\n");
             menuSB.append("ADD_EMPLOYEE <FullName> <Id> <Phone> <BankAccount> <EmpNum> <Branch> <Role> <Username> <Password>\n");
             menuSB.append("ADD_CUSTOMER <Name> <Id> <Phone> <Type> (NEW, RETURNING, VIP)\n");
             menuSB.append("SAVE_SALES - save sales logs to JSON\n");
             menuSB.append("VIEW_SALES_LOGS - view saved logs\n");
             menuSB.append("LOGS_TO_WORD - convert logs to Word doc\n");
         } else {
-            menuSB.append("SHOW_PRODUCTS - display products in your branch\n");
-            menuSB.append("SHOW_CUSTOMERS - display all customers\n");
+            menuSB.append("SHOW_PRODUCTS [category:<Category>] - display products in your branch\n");
+            menuSB.append("BRANCH_ROSTER - employees of your branch and who is online\n");
+            menuSB.append("SHOW_CUSTOMERS [type:<Type>] [phone:<Prefix>] [name:<Text>] - display customers\n");
+            menuSB.append("  (SHOW_* take page:<N> [size:<N>] for one page; without page: the full list is streamed)\n");
+            menuSB.append("FIND_CUSTOMER <PhonePrefix | Name...> - find customers by phone prefix or part of the name\n");
             menuSB.append("ADD_CUSTOMER <Name> <Id> <Phone> <Type> (NEW, RETURNING, VIP)\n");
             menuSB.append("SELL <ProductId> <Quantity> <CustomerId>\n");
             menuSB.append("PURCHASE_PRODUCT <ProductId> <ProductName> <Category> <Price> <Quantity> <Branch>\n");
@@ -259,9 +474,18 @@ public class ClientHandler implements Runnable {
         menuSB.append("SEND <message...> - send a message to your current chat.\n");
         menuSB.append("CHAT_HISTORY - print the current chat history.\n");
         menuSB.append("LEAVE_CHAT - leave; if one side remains, the room auto-closes after 2 minutes.\n");
-        menuSB.append("END_CHAT - end the chat for everyone (you’ll be asked whether to save history).\n");
+        menuSB.append("END_CHAT [yes|no] - end the chat for everyone and save its history or not (asked if omitted).\n");
         if (loggedInEmployee.getRole() == Role.ADMIN || loggedInEmployee.getRole() == Role.SHIFT_MANAGER) {
             menuSB.append("LIST_CHATS - (ADMIN/SHIFT_MANAGER) list all active chats.\n");
+            menuSB.append("ARCHIVED_CHAT <ChatId> - (ADMIN/SHIFT_MANAGER) show a saved chat from the archive.\n");
+            menuSB.append("QUEUE_STATS - (ADMIN/SHIFT_MANAGER) chat queue depth and wait-time percentiles per branch.\n");
+            menuSB.append("SEARCH_CHATS <words...> [branch:<Id>] [from:<name>] [date:<yyyy-MM-dd>] [page:<N>] - (ADMIN/SHIFT_MANAGER) search saved chats.\n");
+        }
+        if (loggedInEmployee.getRole() == Role.ADMIN) {
+            menuSB.append("EXPORT_CHAT_HISTORY - (ADMIN) export the chat archive to chat_history.json.\n");
+            menuSB.append("CHAT_METRICS - (ADMIN) chat lifecycle counters and latency percentiles per branch.\n");
+            menuSB.append("STATS - (ADMIN) server counters, rates, gauges and command latency percentiles.\n");
+            menuSB.append("SHUTDOWN [DrainSeconds] - (ADMIN) stop the server gracefully; running commands get DrainSeconds to finish.\n");
         }
         menuSB.append("====================");
 
@@ -269,26 +493,25 @@ public class ClientHandler implements Runnable {
     }
 
     // Reuse Functions
-    // 1. Validate permissions and parameters
-    private String validateCommand(Role requiredRole, String[] parts, int minParams) {
-        if (requiredRole != null && loggedInEmployee.getRole() != requiredRole) {
-            return "ERROR: Only " + requiredRole + " can execute this command.";
-        }
-        if (parts.length < minParams) {
-            return "ERROR: Not all parameters provided. Expected at least " + (minParams - 1) +
-                    " parameters after the command.";
-        }
-        return null;
+    // 1. Standardize chat message format (rendered once per message, see ChatMessage.getWireBytes)
+    private String formatChatMessage(ChatService.ChatMessage msg) {
+        return msg.getRenderedLine();
     }
 
-    // 2. Standardize chat message format
-    private String formatChatMessage(ChatService.ChatMessage msg) {
-        return String.format("[NEW MSG][%s] %s (%s): %s",
-                msg.getTimestamp().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")),
-                msg.getSenderName(), msg.getSenderBranch(), msg.getContent());
+    // Chat delivery: writes the message's shared pre-encoded line, in order with everything printed on out
+    void deliverChatMessage(ChatService.ChatMessage msg) {
+        synchronized (outBuffer) {
+            try {
+                out.flush();
+                rawOut.write(msg.getWireBytes());
+                rawOut.flush();
+            } catch (IOException e) {
+                System.out.println("Error writing chat message to client: " + e.getMessage());
+            }
+        }
     }
 
-    // 3. Active chat validation
+    // 2. Active chat validation
     private ChatService.ChatSession getActiveChat(String chatId) throws CustomExceptions.ChatException {
         ChatService.ChatSession chatSession = chatService.getChatById(chatId);
         if (chatSession == null || !chatSession.isActive())
@@ -298,9 +521,6 @@ public class ClientHandler implements Runnable {
 
     // Employee commands
     private String addEmployeeCommand(String[] parts) {
-        String validationError = validateCommand(Role.ADMIN, parts, 10);
-        if (validationError != null) return validationError;
-
         int currentIndex = 1;
         StringBuilder nameBuilder = new StringBuilder();
         while (currentIndex < parts.length && !parts[currentIndex].matches("\\d+")) {
@@ -322,26 +542,17 @@ public class ClientHandler implements Runnable {
 
             Employee newEmp = new Employee(fullName, id, phone, bankAcc, empNum, branch, newEmpRole, newUsername, newPassword);
 
-            employeeService.addEmployee(newEmp);
-            authService.register(newEmp, newUsername, newPassword);
-
-            FileUtils.saveToFile(ServerApp.EMPLOYEES_FILE, employeeService.listAllEmployees(), e -> String.format(
-                    """
-                            {
-                              "fullName": "%s",
-                              "employeeId": "%s",
-                              "phoneNumber": "%s",
-                              "accountNumber": "%s",
-                              "employeeNumber": %d,
-                              "branchId": "%s",
-                              "role": "%s",
-                              "userName": "%s",
-                              "password": "%s"
-                            }
-                            """,
-                    e.getFullName(), e.getEmployeeId(), e.getPhoneNumber(), e.getAccountNumber(),
-                    e.getEmployeeNumber(), e.getBranchId(), e.getRole(), e.getUserName(), e.getPassword()
-            ));
+            try (var _ = CommandTracing.stage(CommandTracing.MUTATION)) {
+                employeeService.addEmployee(newEmp);
+                try {
+                    authService.register(newEmp, newUsername, newPassword);
+                } catch (CustomExceptions.EmployeeException e) {
+                    employeeService.removeEmployee(newEmp); // no employee without a login
+                    throw e;
+                }
+            }
+
+            FileUtils.saveToFile(ServerApp.EMPLOYEES_FILE, employeeService.listAllEmployees(), FileUtils::employeeToJson);
 
             logAction(String.format("ADD EMPLOYEE: [%s, Role=%s] added new employee '%s' (ID=%s, Branch=%s, Role=%s)",
                     loggedInEmployee.getFullName(), loggedInEmployee.getRole(),
@@ -358,39 +569,41 @@ public class ClientHandler implements Runnable {
 
     // Sell & Purchase
     private String sellProductCommand(String[] parts) {
-        String validationError = validateCommand(null, parts, 4);
-        if (validationError != null) return validationError;
-
         try {
             String productId = parts[1];
             int quantity = Integer.parseInt(parts[2]);
             String customerId = parts[3];
 
-            Customer customer = customerService.getCustomerById(customerId);
+            Customer customer;
+            Product product = null;
+            try (var _ = CommandTracing.stage(CommandTracing.LOOKUP)) {
+                customer = customerService.getCustomerById(customerId);
+                if (customer != null) product = productService.getProductByIdAndBranch(productId, loggedInEmployee.getBranchId());
+            }
             if (customer == null) return "ERROR: No customer found with Id " + customerId;
-
-            Product product = productService.getProductByIdAndBranch(productId, loggedInEmployee.getBranchId());
             if (product == null) return "ERROR: Product not found in your branch.";
 
-            double finalPrice = saleService.sellProduct(customer, productId, loggedInEmployee.getBranchId(), quantity);
-            FileUtils.saveToFile(ServerApp.PRODUCTS_FILE, productService.getAllProducts(), p -> String.format(
-                    """
-                            {
-                              "productId": "%s",
-                              "productName": "%s",
-                              "category": "%s",
-                              "price": %.2f,
-                              "quantityInStock": %d,
-                              "branchId": "%s"
-                            }
-                            """, p.getProductId(), p.getProductName(), p.getCategory(), p.getPrice(), p.getQuantityInStock(), p.getBranch()
-            ));
+            SaleService.SaleResult sale;
+            try (var _ = CommandTracing.stage(CommandTracing.MUTATION)) {
+                sale = saleService.sellProduct(customer, productId, loggedInEmployee.getBranchId(), quantity);
+            }
+            FileUtils.saveToFile(ServerApp.PRODUCTS_FILE, productService.getAllProducts(), FileUtils::productToJson);
 
             logAction(String.format("SELL: Employee '%s' sold product '%s' quantity=%d to customer '%s'",
                     loggedInEmployee.getFullName(), productId, quantity, customer.getCustomerName()));
 
-            return String.format("Transaction completed! Sold %d units of '%s' to %s. Final price: %.2f",
-                    quantity, product.getProductName(), customer.getCustomerName(), finalPrice);
+            String response = String.format("Transaction completed! Sold %d units of '%s' to %s. Final price: %.2f",
+                    quantity, product.getProductName(), customer.getCustomerName(), sale.getFinalPrice());
+
+            Customer promoted = sale.getPromotedCustomer();
+            if (promoted != null) {
+                FileUtils.saveToFile(ServerApp.CUSTOMERS_FILE, customerService.listAllCustomers(), FileUtils::customerToJson);
+                logAction(String.format("TIER UPGRADE: customer '%s' (ID=%s) %s -> %s after %d visits, total spend %.2f",
+                        promoted.getCustomerName(), customerId, customer.getCustomerType(), promoted.getCustomerType(),
+                        saleService.getVisits(customerId), saleService.getTotalSpend(customerId)));
+                response += String.format("%nCustomer upgraded to %s!", promoted.getCustomerType());
+            }
+            return response;
 
         } catch (NumberFormatException e) {
             return "ERROR: Quantity must be an integer.";
@@ -400,9 +613,6 @@ public class ClientHandler implements Runnable {
     }
 
     private String purchaseProductCommand(String[] parts) throws CustomExceptions.ProductException {
-        String validationError = validateCommand(null, parts, 7);
-        if (validationError != null) return validationError;
-
         try {
             String productId = parts[1];
             String productName = parts[2];
@@ -414,15 +624,22 @@ public class ClientHandler implements Runnable {
             if (!loggedInEmployee.getBranchId().equalsIgnoreCase(branch))
                 return "ERROR: You can't purchase products for a different branch.";
 
-            Product existing = productService.getProductByIdAndBranch(productId, branch);
+            Product existing;
+            try (var _ = CommandTracing.stage(CommandTracing.LOOKUP)) {
+                existing = productService.getProductByIdAndBranch(productId, branch);
+            }
             if (existing != null) {
-                productService.addOrUpdateProduct(existing, quantity);
+                try (var _ = CommandTracing.stage(CommandTracing.MUTATION)) {
+                    productService.addOrUpdateProduct(existing, quantity);
+                }
                 logAction(String.format("PURCHASE: Employee '%s' added %d to product '%s'",
                         loggedInEmployee.getFullName(), quantity, productId));
                 return "Product stock updated. New total: " + existing.getQuantityInStock();
             } else {
                 Product newProduct = new Product(productId, productName, category, price, quantity, branch);
-                productService.addOrUpdateProduct(newProduct, 0);
+                try (var _ = CommandTracing.stage(CommandTracing.MUTATION)) {
+                    productService.addOrUpdateProduct(newProduct, 0);
+                }
                 logAction(String.format("PURCHASE: Employee '%s' created new product '%s' (id=%s) qty=%d",
                         loggedInEmployee.getFullName(), productName, productId, quantity));
                 return "Product created: " + productName + " (Id=" + productId + ") with stock " + quantity;
@@ -434,11 +651,6 @@ public class ClientHandler implements Runnable {
 
     // Customers
     private String addCustomerCommand(String[] parts) {
-        String validationError = validateCommand(null, parts, 5);
-        if (validationError != null) {
-            return validationError;
-        }
-
         try {
             int index = 1;
             StringBuilder nameBuilder = new StringBuilder();
@@ -470,23 +682,11 @@ public class ClientHandler implements Runnable {
             if (customer == null) {
                 return "ERROR: Unknown customer type: " + type + ". Allowed: NEW, RETURNING, VIP";
             }
-            customerService.addCustomer(customer);
-
-            FileUtils.saveToFile(
-                    ServerApp.CUSTOMERS_FILE,
-                    customerService.listAllCustomers(),
-                    c -> String.format(
-                            """
-                                    {
-                                      "fullName": "%s",
-                                      "customerId": "%s",
-                                      "phoneNumber": "%s",
-                                      "type": "%s"
-                                    }
-                                    """,
-                            c.getCustomerName(), c.getCustomerId(), c.getPhoneNumber(), c.getCustomerType()
-                    )
-            );
+            try (var _ = CommandTracing.stage(CommandTracing.MUTATION)) {
+                customerService.addCustomer(customer);
+            }
+
+            FileUtils.saveToFile(ServerApp.CUSTOMERS_FILE, customerService.listAllCustomers(), FileUtils::customerToJson);
 
             logAction(String.format("ADD CUSTOMER: [%s, Role=%s] added new customer '%s' (ID=%s, Type=%s)",
                     loggedInEmployee.getFullName(), loggedInEmployee.getRole(), fullName, customerId, type));
@@ -501,38 +701,181 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    // Show methods
-    private String showEmployees() {
-        if (loggedInEmployee.getRole() != Role.ADMIN)
-            return "ERROR: Only ADMIN can view all employees.";
+    // Show methods (filters come from the service indexes; see Listing for paging and streaming)
+    private String showEmployees(String[] parts) {
+        Listing listing;
+        try {
+            listing = Listing.parse(parts, Set.of("branch", "role"));
+        } catch (IllegalArgumentException e) {
+            return "ERROR: " + e.getMessage();
+        }
+        Role role = null;
+        if (listing.filter("role") != null) {
+            try {
+                role = Role.valueOf(listing.filter("role").toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return "ERROR: Unknown role: " + listing.filter("role") + ". Allowed: " + Arrays.toString(Role.values());
+            }
+        }
+        Role roleFilter = role;
+
+        String branch = listing.filter("branch");
+        List<Employee> employees = branch != null ? employeeService.getEmployeesByBranch(branch) : employeeService.listAllEmployees();
+        return listing.render(employees, roleFilter == null ? null : employee -> employee.getRole() == roleFilter,
+                employeeService.formatEmployeeHeader(), employeeService::formatEmployeeRow, out, outBuffer,
+                listing.hasFilters() ? "No employees match." : "No employees found.");
+    }
+
+    private String showProducts(String[] parts) {
+        Listing listing;
+        try {
+            listing = Listing.parse(parts, Set.of("branch", "category"));
+        } catch (IllegalArgumentException e) {
+            return "ERROR: " + e.getMessage();
+        }
+
+        String branch = listing.filter("branch");
+        if (loggedInEmployee.getRole() != Role.ADMIN) {
+            if (branch != null && !branch.equalsIgnoreCase(loggedInEmployee.getBranchId()))
+                return "ERROR: You can only view products in your branch.";
+            branch = loggedInEmployee.getBranchId();
+        }
+        String category = listing.filter("category");
+
+        if (category == null && listing.isStreamed()) {
+            RenderCache.Rendered rendered = productService.renderedProductList(branch);
+            if (rendered != null) return writeRendered(rendered);
+        }
+
+        // Walk the smaller index list and test the other filter on its rows
+        List<Product> products;
+        Predicate<Product> predicate = null;
+        if (branch != null && category != null) {
+            List<Product> inBranch = productService.getProductsByBranch(branch);
+            List<Product> inCategory = productService.getProductsByCategory(category);
+            String branchId = branch;
+            products = inBranch.size() <= inCategory.size() ? inBranch : inCategory;
+            predicate = product -> product.getBranch().equalsIgnoreCase(branchId) && product.getCategory().equalsIgnoreCase(category);
+        } else if (branch != null) {
+            products = productService.getProductsByBranch(branch);
+        } else if (category != null) {
+            products = productService.getProductsByCategory(category);
+        } else {
+            products = productService.getAllProducts();
+        }
+
+        String empty = listing.hasFilters() ? "No products match."
+                : branch != null ? "No products found for branch " + branch : "No products found.";
+        return listing.render(products, predicate, productService.formatProductHeader(), productService::formatProductRow,
+                out, outBuffer, empty);
+    }
 
-        List<Employee> allEmployees = employeeService.listAllEmployees();
-        if (allEmployees.isEmpty()) return "No employees found.";
+    private String showCustomers(String[] parts) {
+        Listing listing;
+        try {
+            listing = Listing.parse(parts, Set.of("type", "phone", "name"));
+        } catch (IllegalArgumentException e) {
+            return "ERROR: " + e.getMessage();
+        }
+        String type = listing.filter("type");
+        String phone = listing.filter("phone");
+        String name = listing.filter("name");
+        if (type != null && !type.matches("(?i)NEW|RETURNING|VIP"))
+            return "ERROR: Unknown customer type: " + type + ". Allowed: NEW, RETURNING, VIP";
+        if (name != null && name.length() < CustomerService.MIN_NAME_QUERY)
+            return "ERROR: Give at least " + CustomerService.MIN_NAME_QUERY + " letters of the name.";
+
+        if (!listing.hasFilters() && listing.isStreamed()) {
+            RenderCache.Rendered rendered = customerService.renderedCustomerList();
+            if (rendered != null) return writeRendered(rendered);
+        }
 
-        return employeeService.formatEmployeeList(allEmployees);
+        // Most selective index first (phone prefix, then name, then type); the rest are tested per row
+        Iterable<Customer> customers;
+        if (phone != null) customers = customerService.customersByPhonePrefix(phone);
+        else if (name != null) customers = customerService.findByName(name, Integer.MAX_VALUE);
+        else if (type != null) customers = customerService.customersByType(type);
+        else customers = customerService.customersSnapshot();
+
+        Predicate<Customer> predicate = null;
+        if (listing.hasFilters()) {
+            String lowerName = name == null ? null : name.toLowerCase();
+            predicate = customer -> (type == null || customer.getCustomerType().equalsIgnoreCase(type))
+                    && (lowerName == null || customer.getCustomerName().toLowerCase().contains(lowerName));
+        }
+        return listing.render(customers, predicate, customerService.formatCustomerHeader(), customerService::formatCustomerRow,
+                out, outBuffer, listing.hasFilters() ? "No customers match." : "No customers found.");
     }
 
-    private String showProducts() {
-        List<Product> productsToShow = loggedInEmployee.getRole() == Role.ADMIN
-                ? productService.getAllProducts()
-                : productService.getProductsByBranch(loggedInEmployee.getBranchId());
+    // Cached listing: the pre-rendered bytes go straight to the socket, in order with chat deliveries
+    private String writeRendered(RenderCache.Rendered rendered) {
+        synchronized (outBuffer) {
+            try {
+                out.flush();
+                rawOut.write(rendered.bytes);
+                rawOut.flush();
+            } catch (IOException e) {
+                return "ERROR: Failed to write the listing - " + e.getMessage();
+            }
+        }
+        return Listing.rowsLine(rendered.rows);
+    }
 
-        if (productsToShow.isEmpty()) return "No products found for branch " + loggedInEmployee.getBranchId();
-        return productService.formatProductList(productsToShow);
+    private String branchRosterCommand(String[] parts) {
+        String ownBranch = loggedInEmployee.getBranchId();
+        String branchId = parts.length > 1 ? parts[1].toUpperCase() : ownBranch;
+        if (loggedInEmployee.getRole() != Role.ADMIN && !branchId.equalsIgnoreCase(ownBranch))
+            return "ERROR: You can only view the roster of your own branch (" + ownBranch + ").";
+        if (!branchService.branchExists(branchId))
+            return "ERROR: Branch " + branchId + " does not exist.";
+
+        List<Employee> roster = employeeService.getEmployeesByBranch(branchId);
+        if (roster.isEmpty()) return "No employees in branch " + branchId + ".";
+        roster.sort(Comparator.comparing(Employee::getRole).thenComparing(Employee::getFullName));
+
+        StringBuilder rosterSB = new StringBuilder(bold("--- Roster of " + branchId + " ---\n"));
+        rosterSB.append(String.format("%-20s | %-10s | %-15s | %-12s | %-8s\n", "Name", "EmpNum", "Role", "Phone", "Status"));
+        rosterSB.append("-----------------------------------------------------------------------------\n");
+        int online = 0;
+        for (Employee employee : roster) {
+            boolean loggedIn = authService.isLoggedIn(employee.getUserName());
+            if (loggedIn) online++;
+            rosterSB.append(String.format("%-20s | %-10d | %-15s | %-12s | %-8s\n", employee.getFullName(),
+                    employee.getEmployeeNumber(), employee.getRole(), employee.getPhoneNumber(), loggedIn ? "online" : "offline"));
+        }
+        rosterSB.append(roster.size()).append(roster.size() == 1 ? " employee, " : " employees, ").append(online).append(" online.");
+        return rosterSB.toString();
     }
 
-    private String showCustomers() {
-        List<Customer> allCustomers = customerService.listAllCustomers();
-        if (allCustomers.isEmpty()) return "No customers found.";
+    // Digits search the phone index (a full 9-digit Id also matches exactly); anything else the name index
+    private String findCustomerCommand(String[] parts) {
+        String query = String.join(" ", Arrays.copyOfRange(parts, 1, parts.length)).trim();
+
+        List<Customer> matches;
+        try (var _ = CommandTracing.stage(CommandTracing.LOOKUP)) {
+            if (query.matches("\\d+")) {
+                if (query.length() < 3) return "ERROR: Give at least 3 digits of the phone number.";
+                matches = new ArrayList<>();
+                Customer byId = query.length() == 9 ? customerService.getCustomerById(query) : null;
+                if (byId != null) matches.add(byId);
+                for (Customer customer : customerService.findByPhonePrefix(query, FIND_CUSTOMER_LIMIT)) {
+                    if (customer != byId && matches.size() < FIND_CUSTOMER_LIMIT) matches.add(customer);
+                }
+            } else {
+                if (query.length() < CustomerService.MIN_NAME_QUERY)
+                    return "ERROR: Give at least " + CustomerService.MIN_NAME_QUERY + " letters of the name.";
+                matches = customerService.findByName(query, FIND_CUSTOMER_LIMIT);
+            }
+        }
 
-        return customerService.formatCustomerList(allCustomers);
+        if (matches.isEmpty()) return "No customers match '" + query + "'.";
+        String list = customerService.formatCustomerList(matches);
+        return matches.size() < FIND_CUSTOMER_LIMIT ? list
+                : list + "Showing the first " + FIND_CUSTOMER_LIMIT + " matches; refine the search to narrow them down.";
     }
+
     // Sales Logs
     private String logsToWordCommand() {
-        if (loggedInEmployee.getRole() != Role.ADMIN) {
-            return "ERROR: Only ADMIN can convert logs to Word.";
-        }
-
         File logsDir = new File("logs");
         if (!logsDir.exists()) {
             return "No logs/ folder found. Please run SAVE_SALES first.";
@@ -561,10 +904,6 @@ public class ClientHandler implements Runnable {
     }
 
     private String saveSalesLogs() {
-        if (loggedInEmployee.getRole() != Role.ADMIN) {
-            return "ERROR: Only ADMIN can save sales logs.";
-        }
-
         List<SaleService.SaleRecord> allSales = SaleService.getAllSales();
         if (allSales.isEmpty()) {
             return "No sales to log.";
@@ -617,6 +956,7 @@ public class ClientHandler implements Runnable {
                 saleSB.append("    {\n");
                 saleSB.append("      \"productId\": \"").append(sr.getProductId()).append("\",\n");
                 saleSB.append("      \"productName\": \"").append(sr.getProductName()).append("\",\n");
+                saleSB.append("      \"customerId\": \"").append(sr.getCustomerId()).append("\",\n");
                 saleSB.append("      \"quantity\": ").append(sr.getQuantity()).append(",\n");
                 saleSB.append("      \"finalPrice\": ").append(sr.getFinalPrice()).append(",\n");
                 saleSB.append("      \"saleTime\": \"").append(sr.getSaleTime().format(dtf)).append("\"\n");
@@ -633,10 +973,6 @@ public class ClientHandler implements Runnable {
     }
 
     private String viewSalesLogs() {
-        if (loggedInEmployee.getRole() != Role.ADMIN) {
-            return "ERROR: Only ADMIN can view sales logs.";
-        }
-
         File logsDir = new File("logs");
         if (!logsDir.exists() || !logsDir.isDirectory()) {
             return "No logs/ folder found. Try SAVE_SALES first.";
@@ -666,9 +1002,6 @@ public class ClientHandler implements Runnable {
     // Chat Commands
     // request chat from a Branch (enqueue to target-branch queue; auto-assign if capacity exists)
     private String handleRequestChat(String[] parts) {
-        String err = validateCommand(null, parts, 2);
-        if (err != null) return err;
-
         String targetBranch = parts[1];
         String userBranch = loggedInEmployee.getBranchId();
 
@@ -687,10 +1020,11 @@ public class ClientHandler implements Runnable {
             chatService.requestChatFromBranch(
                     userBranch,
                     loggedInEmployee.getEmployeeId(), // explicit requester (employee)
+                    loggedInEmployee.getRole(),       // drives request priority
                     targetBranch,
                     note,
                     // Requester-specific notify callback (for this command only)
-                    msg -> out.println(" " + msg)
+                    msg -> outbox.push(" " + msg)
             );
             if(!anyoneOnline)
                 return "[QUEUED] No employees currently online in branch " + targetBranch + ". Your request will be delivered when someone connects.";
@@ -704,14 +1038,11 @@ public class ClientHandler implements Runnable {
     }
 
     // accept chat offer (assignee in target branch attaches + becomes busy)
-    private String handleAcceptChatOffer(String[] parts) {
-        String err = validateCommand(null, parts, 1); // no chatId needed anymore
-        if (err != null) return err;
-
+    private String handleAcceptChatOffer() {
         if (currentSessionId == null) return "ERROR: Session not initialized. Please re-login.";
 
         try {
-            Consumer<ChatService.ChatMessage> listener = m -> out.println(formatChatMessage(m));
+            Consumer<ChatService.ChatMessage> listener = outbox::deliver;
             String chatId = chatService.acceptOfferByAssignee(currentSessionId, listener);
             chatListeners.put(chatId, listener);
             currentChatId = chatId;
@@ -724,9 +1055,6 @@ public class ClientHandler implements Runnable {
 
     // JOIN as REQUESTER (marks the requester UI as attached for the 60s rule)
     private String handleJoinChatRequester(String[] parts) {
-        String err = validateCommand(null, parts, 2);
-        if (err != null) return err;
-
         String chatId = parts[1];
         if (currentSessionId == null) return "ERROR: Session not initialized. Please re-login.";
 
@@ -753,7 +1081,7 @@ public class ClientHandler implements Runnable {
         try {
             getActiveChat(chatId);
             // one terminal listener for requester
-            Consumer<ChatService.ChatMessage> listener = chatListeners.computeIfAbsent(chatId, _ -> m -> out.println(formatChatMessage(m)));
+            Consumer<ChatService.ChatMessage> listener = chatListeners.computeIfAbsent(chatId, _ -> outbox::deliver);
             chatService.markRequesterAttached(chatId,
                 loggedInEmployee.getEmployeeId(), // explicit requester (employee)
                 currentSessionId,                  // requesterSessionId
@@ -783,9 +1111,6 @@ public class ClientHandler implements Runnable {
     
     // rejoining existing chat (if you know the chatId; e.g. re-join after disconnect)
     private String handleJoinExistingChat(String[] parts) {
-        String err = validateCommand(null, parts, 2);
-        if (err != null) return err;
-
         String chatId = parts[1];
         
         // Optional: block multiple simultaneous chats for the same terminal
@@ -796,7 +1121,7 @@ public class ClientHandler implements Runnable {
         try {
             // one listener for this terminal
             Consumer<ChatService.ChatMessage> listener =
-                    chatListeners.computeIfAbsent(chatId, _ -> m -> out.println(formatChatMessage(m)));
+                    chatListeners.computeIfAbsent(chatId, _ -> outbox::deliver);
             chatService.joinExistingChatAuthorized(chatId, loggedInEmployee.getEmployeeId(), loggedInEmployee.getRole(),
                     loggedInEmployee.getBranchId(), currentSessionId, listener);
             ChatService.ChatSession chatSession = getActiveChat(chatId);
@@ -836,9 +1161,6 @@ public class ClientHandler implements Runnable {
     // SEND MSG
     private String handleSendMsg(String line) {
         String[] parts = line.split(" ", 2);
-        String err = validateCommand(null, parts, 2);
-        if (err != null) return "[ERROR] " + err;
-
         if (currentChatId == null)
             return "[ERROR] You are not currently in a chat.";
 
@@ -883,49 +1205,30 @@ public class ClientHandler implements Runnable {
     }
 
     // END CHAT (optional save -> unregister listener -> end room for everyone)
-    private String handleEndChat() {
+    private String handleEndChat(String[] parts) {
         if (currentChatId == null) return "[ERROR] You are not currently in a chat.";
+        if (parts.length < 2 || !(parts[1].equalsIgnoreCase("yes") || parts[1].equalsIgnoreCase("no")))
+            return "[ERROR] Usage: " + bold("END_CHAT yes") + " or " + bold("END_CHAT no") + " (save the chat history or not).";
 
-        boolean saved = false;
-
+        boolean saved = parts[1].equalsIgnoreCase("yes");
+        if (saved) {
+            chatService.saveChatHistory(currentChatId);
+            out.println("Chat history saved. Chat will end now.");
+        } else {
+            out.println("Chat will end without saving.");
+        }
         try {
-            BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            out.println("Do you want to save the chat history? (" + bold( "yes") + "/" + bold("no") + "):");
-
-            String response;
-            while (true) {
-                response = in.readLine();
-                if (response == null) continue;
-
-                if (response.equalsIgnoreCase("yes")) {
-                    chatService.saveChatHistory(currentChatId);
-                    out.println("Chat history saved. Chat will end now.");
-                    saved = true;
-                    break;
-                } else if (response.equalsIgnoreCase("no")) {
-                    out.println("Chat will end without saving.");
-                    break;
-                } else {
-                    out.println("Please answer yes or no.");
-                }
-            }
-            try{
-                ChatService.ChatSession chatSession = getActiveChat(currentChatId);
-                String endedBy = loggedInEmployee.getFullName() + " (" + loggedInEmployee.getRole().name() + ", " + loggedInEmployee.getBranchId() + ")";
-
-                chatSession.addMessage(new ChatService.ChatMessage("SYSTEM", loggedInEmployee.getBranchId(), "Chat ended by " + endedBy + "\nType " + bold("Menu") + " to see available commands, or " +bold("Exit") + " to exit."));
-                logAction(String.format("Chat %s ended by %s (Branch=%s). saved=%s",
-                    currentChatId, loggedInEmployee.getFullName(), loggedInEmployee.getBranchId(), saved));
-                chatListeners.remove(currentChatId);
-                chatService.endChat(currentChatId);
-            } 
-            catch (CustomExceptions.ChatException e) {
-                    return "[ERROR] " + e.getMessage();
-            } 
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-            return "Error handling chat end: " + e.getMessage();
+            ChatService.ChatSession chatSession = getActiveChat(currentChatId);
+            String endedBy = loggedInEmployee.getFullName() + " (" + loggedInEmployee.getRole().name() + ", " + loggedInEmployee.getBranchId() + ")";
+
+            chatSession.addMessage(new ChatService.ChatMessage("SYSTEM", loggedInEmployee.getBranchId(), "Chat ended by " + endedBy + "\nType " + bold("Menu") + " to see available commands, or " +bold("Exit") + " to exit."));
+            logAction(String.format("Chat %s ended by %s (Branch=%s). saved=%s",
+                currentChatId, loggedInEmployee.getFullName(), loggedInEmployee.getBranchId(), saved));
+            chatListeners.remove(currentChatId);
+            chatService.endChat(currentChatId);
+        }
+        catch (CustomExceptions.ChatException e) {
+            return "[ERROR] " + e.getMessage();
         }
 
         currentChatId = null;
@@ -952,9 +1255,6 @@ public class ClientHandler implements Runnable {
     }
 
     private String listChatsCommand() {
-        if (loggedInEmployee.getRole() != Role.ADMIN && loggedInEmployee.getRole() != Role.SHIFT_MANAGER)
-            return "ERROR: Only ADMIN or SHIFT_MANAGER can list all chats.";
-
         Collection<ChatService.ChatSession> allChats = chatService.listAllChats();
         if (allChats.isEmpty()) return "No active chats.";
 
@@ -967,4 +1267,68 @@ public class ClientHandler implements Runnable {
         return list.toString();
     }
 
+    private String archivedChatCommand(String[] parts) {
+        List<String> records = chatService.findArchivedChats(parts[1]);
+        if (records.isEmpty()) return "No archived chat found with Id " + parts[1];
+        return String.join("\n", records);
+    }
+
+    private String searchChatsCommand(String[] parts) {
+        int page = 1;
+        StringBuilder query = new StringBuilder();
+        for (int i = 1; i < parts.length; i++) {
+            if (parts[i].toLowerCase().startsWith("page:")) {
+                try { page = Math.max(1, Integer.parseInt(parts[i].substring(5))); }
+                catch (NumberFormatException e) { return "ERROR: Page must be a positive integer."; }
+            } else {
+                query.append(parts[i]).append(' ');
+            }
+        }
+
+        ChatSearchIndex.SearchPage result = chatService.searchChatHistory(query.toString(), page, SEARCH_PAGE_SIZE);
+        if (result.getTotalHits() == 0) return "No archived messages match: " + query.toString().trim();
+
+        StringBuilder searchSB = new StringBuilder(String.format("Found %d matching messages (page %d/%d):\n",
+                result.getTotalHits(), result.getPage(), result.getTotalPages()));
+        for (ChatSearchIndex.Hit hit : result.getHits()) {
+            searchSB.append(String.format("%-10s | %-10s | %s\n", hit.getChatId(), hit.getDate(), hit.getSnippet()));
+        }
+        if (result.getPage() < result.getTotalPages())
+            searchSB.append("Use ").append(bold("page:" + (result.getPage() + 1))).append(" for more results.");
+        return searchSB.toString();
+    }
+
+    private String queueStatsCommand() {
+        return chatService.formatQueueStats();
+    }
+
+    private String chatMetricsCommand() {
+        return chatService.getChatMetrics().formatMetrics();
+    }
+
+    private String statsCommand() {
+        return MetricsRegistry.global().formatStats();
+    }
+
+    private String shutdownCommand(String[] parts) {
+        long drainMs = 0;
+        if (parts.length > 1) {
+            try {
+                drainMs = Long.parseLong(parts[1]) * 1000L;
+            } catch (NumberFormatException e) {
+                return "ERROR: Drain time must be a number of seconds.";
+            }
+        }
+        if (!shutdown.requestShutdown("ADMIN " + loggedInEmployee.getFullName(), drainMs))
+            return "ERROR: Shutdown already in progress.";
+        logAction("Server shutdown requested by ADMIN " + loggedInEmployee.getFullName());
+        return "SUCCESS!: Server is shutting down. Running commands have " + shutdown.getDrainMs() / 1000 + "s to finish.";
+    }
+
+    private String exportChatHistoryCommand() {
+        int exported = chatService.exportChatHistory();
+        logAction("Chat history exported by ADMIN " + loggedInEmployee.getFullName() + " (" + exported + " chats)");
+        return "SUCCESS!: exported " + exported + " archived chats to chat_history.json.";
+    }
+
 }
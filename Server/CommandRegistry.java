@@ -0,0 +1,106 @@
+package Server;
+
+import Exceptions.CustomExceptions;
+import Models.Role;
+import Server.Utils.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The client commands: each is registered once with the roles allowed to run it, the number of arguments it
+ * needs and its handler. Registration also fills the permission matrix, one BitSet of command indexes per
+ * role, so dispatching a line is a map lookup by name plus a bit test, and no handler repeats a role check.
+ * Rules that depend on the arguments (e.g. "only your own branch") stay in the handlers.
+ * Every command carries its metric name; denials are counted under command.<NAME>.denied.
+ *
+ * Commands are registered in a static initializer and the registry is read-only afterwards.
+ * @param <T> the object the handlers run on (the client's ClientHandler)
+ */
+public final class CommandRegistry<T> {
+
+    @FunctionalInterface
+    public interface Handler<T> {
+        /** @param parts the line split on spaces; parts[0] is the command name */
+        String handle(T context, String[] parts)
+                throws CustomExceptions.ProductException, CustomExceptions.EmployeeException, CustomExceptions.CustomerException;
+    }
+
+    public static final class Command<T> {
+        private final int index;
+        private final String name;
+        private final String metricName;
+        private final int minArgs;
+        private final String deniedMessage;
+        private final Handler<T> handler;
+
+        private Command(int index, String name, int minArgs, String deniedMessage, Handler<T> handler) {
+            this.index = index;
+            this.name = name;
+            this.metricName = "command." + name;
+            this.minArgs = minArgs;
+            this.deniedMessage = deniedMessage;
+            this.handler = handler;
+        }
+
+        public String getName() { return name; }
+        public String getMetricName() { return metricName; }
+    }
+
+    public static final Set<Role> ALL_ROLES = EnumSet.allOf(Role.class);
+
+    private final Map<String, Command<T>> commandsByName = new HashMap<>();
+    private final List<Command<T>> commands = new ArrayList<>();
+    private final Map<Role, BitSet> permissions = new EnumMap<>(Role.class);
+
+    public CommandRegistry() {
+        for (Role role : Role.values()) permissions.put(role, new BitSet());
+    }
+
+    /** Registers a command; a denied call gets "Only <roles> can execute this command." */
+    public CommandRegistry<T> register(String name, Set<Role> roles, int minArgs, Handler<T> handler) {
+        String roleNames = roles.stream().map(Role::name).collect(Collectors.joining(" or "));
+        return register(name, roles, minArgs, "Only " + roleNames + " can execute this command.", handler);
+    }
+
+    /** @param deniedMessage what a role outside roles is told, without the "ERROR: " prefix */
+    public CommandRegistry<T> register(String name, Set<Role> roles, int minArgs, String deniedMessage, Handler<T> handler) {
+        String key = name.toUpperCase(Locale.ROOT);
+        if (commandsByName.containsKey(key)) throw new IllegalArgumentException("Command registered twice: " + key);
+        Command<T> command = new Command<>(commands.size(), key, minArgs, deniedMessage, handler);
+        commands.add(command);
+        commandsByName.put(key, command);
+        for (Role role : roles) permissions.get(role).set(command.index);
+        return this;
+    }
+
+    /** @return the command, or null if there is none by that name (case-insensitive) */
+    public Command<T> lookup(String name) {
+        return commandsByName.get(name.toUpperCase(Locale.ROOT));
+    }
+
+    public boolean isAllowed(Command<T> command, Role role) {
+        return permissions.get(role).get(command.index);
+    }
+
+    /** Checks the role and the argument count, then runs the handler. */
+    public String execute(Command<T> command, T context, Role role, String[] parts)
+            throws CustomExceptions.ProductException, CustomExceptions.EmployeeException, CustomExceptions.CustomerException {
+        if (!isAllowed(command, role)) {
+            MetricsRegistry.global().increment(command.metricName + ".denied");
+            return "ERROR: " + command.deniedMessage;
+        }
+        if (parts.length - 1 < command.minArgs) {
+            return "ERROR: Not all parameters provided. Expected at least " + command.minArgs + " parameters after the command.";
+        }
+        return command.handler.handle(context, parts);
+    }
+}
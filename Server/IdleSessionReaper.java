@@ -0,0 +1,116 @@
+package Server;
+
+import Server.Utils.MetricsRegistry;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ends connections that have been silent for longer than the idle timeout, e.g. a terminal that dropped
+ * off the network without closing its socket and would otherwise keep its login, its chat presence and
+ * its handler thread forever.
+ *
+ * Every connection holds a Lease. Reading a line from the client (a command or a PING heartbeat) only
+ * writes the lease's last-activity time; the lease sits in a DelayQueue ordered by the deadline it had
+ * when it was queued. The reaper thread sleeps until the earliest deadline, and a lease that turns out to
+ * have been active meanwhile is simply queued again at lastActivity + timeout. So the reaper wakes about
+ * once per timeout per connection, touching a lease costs nothing, and a sweep looks only at the leases
+ * that are due, however many connections are open.
+ *
+ * -Dsession.idleTimeoutSec sets the timeout (default 300); 0 turns reaping off.
+ * Reaps are counted in the metrics registry as session.reaped.
+ */
+public class IdleSessionReaper {
+
+    /** One connection's activity record; touch() on every line read from the client. */
+    public static final class Lease implements Delayed {
+        private final ClientHandler handler;
+        private volatile long lastActivityNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        private long deadlineNanos; // only changed while the lease is out of the queue
+
+        private Lease(ClientHandler handler) {
+            this.handler = handler;
+        }
+
+        public void touch() { lastActivityNanos = System.nanoTime(); }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(deadlineNanos, ((Lease) other).deadlineNanos);
+        }
+    }
+
+    private final long idleTimeoutNanos;
+    private final DelayQueue<Lease> deadlines = new DelayQueue<>();
+    private final AtomicInteger activeLeases = new AtomicInteger();
+
+    public IdleSessionReaper(long idleTimeoutSeconds) {
+        this.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(idleTimeoutSeconds);
+        MetricsRegistry.global().gauge("session.leases", activeLeases::get);
+        if (isEnabled()) {
+            Thread thread = new Thread(this::reapLoop, "idle-session-reaper");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** -Dsession.idleTimeoutSec (default 300, 0 = never reap). */
+    public static IdleSessionReaper fromSystemProperties() {
+        return new IdleSessionReaper(Long.getLong("session.idleTimeoutSec", 300L));
+    }
+
+    public boolean isEnabled() { return idleTimeoutNanos > 0; }
+
+    public long getIdleTimeoutSeconds() { return TimeUnit.NANOSECONDS.toSeconds(idleTimeoutNanos); }
+
+    /** Starts watching a connection; release the lease when the connection ends. */
+    public Lease track(ClientHandler handler) {
+        Lease lease = new Lease(handler);
+        activeLeases.incrementAndGet();
+        if (isEnabled()) {
+            lease.deadlineNanos = lease.lastActivityNanos + idleTimeoutNanos;
+            deadlines.add(lease);
+        }
+        return lease;
+    }
+
+    /** The lease stays queued until its deadline and is dropped then, so releasing is O(1). */
+    public void release(Lease lease) {
+        if (lease != null && lease.released.compareAndSet(false, true)) activeLeases.decrementAndGet();
+    }
+
+    private void reapLoop() {
+        while (true) {
+            Lease lease;
+            try {
+                lease = deadlines.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (lease.released.get()) continue;
+
+            long idleNanos = System.nanoTime() - lease.lastActivityNanos;
+            if (idleNanos < idleTimeoutNanos) {
+                lease.deadlineNanos = lease.lastActivityNanos + idleTimeoutNanos;
+                deadlines.add(lease);
+                continue;
+            }
+            MetricsRegistry.global().increment("session.reaped");
+            try {
+                lease.handler.expireIdle(TimeUnit.NANOSECONDS.toSeconds(idleNanos));
+            } catch (RuntimeException e) {
+                System.out.println("Error reaping idle session -> " + e.getMessage());
+            }
+            release(lease);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package Server;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Paging and streaming for the SHOW_* listings.
+ * Arguments are key:value tokens: page:<N> and size:<N> select one page (default size 50, max 500),
+ * any other key must be one of the command's filters. Without page: the whole listing is streamed:
+ * rows are formatted and written to the client in chunks of 256, so memory stays bounded no matter
+ * how large the registry is, and only the last chunk comes back as the command's response.
+ */
+public final class Listing {
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 500;
+    private static final int STREAM_CHUNK_ROWS = 256;
+
+    private final Map<String, String> filters = new HashMap<>();
+    private int page = 0; // 0 = stream everything
+    private int pageSize = DEFAULT_PAGE_SIZE;
+
+    private Listing() { }
+
+    /**
+     * Parses the arguments after the command name.
+     * @throws IllegalArgumentException with a message for the client on a bad or unknown argument
+     */
+    public static Listing parse(String[] parts, Set<String> filterKeys) {
+        Listing listing = new Listing();
+        for (int i = 1; i < parts.length; i++) {
+            int colon = parts[i].indexOf(':');
+            if (colon <= 0 || colon == parts[i].length() - 1)
+                throw new IllegalArgumentException("Arguments must look like key:value, got '" + parts[i] + "'.");
+            String key = parts[i].substring(0, colon).toLowerCase();
+            String value = parts[i].substring(colon + 1);
+            switch (key) {
+                case "page" -> listing.page = positive(key, value);
+                case "size" -> listing.pageSize = Math.min(MAX_PAGE_SIZE, positive(key, value));
+                default -> {
+                    if (!filterKeys.contains(key))
+                        throw new IllegalArgumentException("Unknown filter '" + key + "'. Allowed: " + String.join(", ", new TreeSet<>(filterKeys)) + ", page, size.");
+                    listing.filters.put(key, value);
+                }
+            }
+        }
+        if (listing.page == 0 && listing.pageSize != DEFAULT_PAGE_SIZE) listing.page = 1; // size: alone means the first page
+        return listing;
+    }
+
+    private static int positive(String key, String value) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number > 0) return number;
+        } catch (NumberFormatException e) {
+            // fall through to the error below
+        }
+        throw new IllegalArgumentException("The value of " + key + ": must be a positive integer.");
+    }
+
+    public String filter(String key) { return filters.get(key); }
+
+    public boolean hasFilters() { return !filters.isEmpty(); }
+
+    /** True when the whole listing is wanted (no page:), i.e. it may be served from a render cache. */
+    public boolean isStreamed() { return page == 0; }
+
+    /** The closing line of a streamed listing. */
+    public static String rowsLine(int total) {
+        return total + (total == 1 ? " row." : " rows.");
+    }
+
+    /**
+     * Writes the rows that pass the predicate (null = all).
+     * Paged: returns the requested page with a page line. Streamed: writes full chunks to out while
+     * holding lock (the lock ordering chat deliveries on this connection) and returns the rest.
+     */
+    public <T> String render(Iterable<T> rows, Predicate<T> predicate, String header, Function<T, String> formatRow,
+                             PrintWriter out, Object lock, String emptyMessage) {
+        return page > 0
+                ? renderPage(rows, predicate, header, formatRow, emptyMessage)
+                : stream(rows, predicate, header, formatRow, out, lock, emptyMessage);
+    }
+
+    private <T> String renderPage(Iterable<T> rows, Predicate<T> predicate, String header, Function<T, String> formatRow,
+                                  String emptyMessage) {
+        long first = (long) (page - 1) * pageSize;
+        StringBuilder pageSB = new StringBuilder(header);
+        int total = 0;
+        for (T row : rows) {
+            if (predicate != null && !predicate.test(row)) continue;
+            if (total >= first && total < first + pageSize) pageSB.append(formatRow.apply(row));
+            total++;
+        }
+        if (total == 0) return emptyMessage;
+
+        int totalPages = (total + pageSize - 1) / pageSize;
+        if (page > totalPages) return "ERROR: Page " + page + " is past the end (" + totalPages + " pages).";
+        pageSB.append(String.format("Page %d/%d (%d rows).", page, totalPages, total));
+        if (page < totalPages) pageSB.append(" Use page:").append(page + 1).append(" for more.");
+        return pageSB.toString();
+    }
+
+    private <T> String stream(Iterable<T> rows, Predicate<T> predicate, String header, Function<T, String> formatRow,
+                              PrintWriter out, Object lock, String emptyMessage) {
+        StringBuilder chunkSB = new StringBuilder(header);
+        int total = 0;
+        int inChunk = 0;
+        for (T row : rows) {
+            if (predicate != null && !predicate.test(row)) continue;
+            chunkSB.append(formatRow.apply(row));
+            total++;
+            if (++inChunk == STREAM_CHUNK_ROWS) {
+                synchronized (lock) {
+                    out.print(chunkSB);
+                    out.flush();
+                }
+                chunkSB.setLength(0);
+                inChunk = 0;
+            }
+        }
+        if (total == 0) return emptyMessage;
+        return chunkSB.append(rowsLine(total)).toString();
+    }
+}
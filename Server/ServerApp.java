@@ -1,11 +1,15 @@
 package Server;
 import Exceptions.CustomExceptions;
 import Server.Utils.FileUtils;
+import Server.Utils.MetricsRegistry;
 
 // Standard library
 import java.io.*;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 // Models
 import Models.Branch;
@@ -23,8 +27,8 @@ public class ServerApp {
     private final EmployeeService employeeService = new EmployeeService();
     private final ProductService productService = new ProductService();
     private final CustomerService customerService = new CustomerService();
-    SaleService saleService = new SaleService(productService);
-    private final ChatService chatService = new ChatService();
+    SaleService saleService = new SaleService(productService, customerService, PURCHASES_FILE);
+    private final ChatService chatService = createChatService();
     private final BranchService branchService = new BranchService();
 
     // File paths for reading/writing JSON on startup or updates
@@ -32,9 +36,31 @@ public class ServerApp {
     public static final String EMPLOYEES_FILE = "Data/employees.json";
     public static final String PRODUCTS_FILE = "Data/products.json";
     public static final String CUSTOMERS_FILE = "Data/customers.json";
+    private static final String PURCHASES_FILE = "Data/purchase_journal.log"; // per-customer visit and spend totals
+    private static final String CHAT_METRICS_FILE = "Logs/chat_metrics.json";
+    private static final long CHAT_METRICS_DUMP_MS = 60_000L;
+    private static final String SERVER_METRICS_FILE = "Logs/server_metrics.json";
+    private static final long SERVER_METRICS_DUMP_MS = Long.getLong("metrics.dump.ms", 60_000L); // 0 disables the dump
+
+    private volatile boolean dataLoaded = false; // readiness for the admin endpoint
+
+    // Admission control (-Dserver.acceptBacklog and the limits read by AdmissionController)
+    private static final int ACCEPT_BACKLOG = Integer.getInteger("server.acceptBacklog", 50);
+    private final AdmissionController admission = AdmissionController.fromSystemProperties();
+
+    // Idle expiry (-Dsession.idleTimeoutSec); clients keep their sessions alive with PING heartbeats
+    private final IdleSessionReaper reaper = IdleSessionReaper.fromSystemProperties();
+    // Resume after a dropped connection (-Dsession.resumeGraceSec, -Dsession.resumeBufferSize)
+    private final SessionResumption resumption = SessionResumption.fromSystemProperties();
+
+    // Graceful shutdown (SIGTERM or ADMIN SHUTDOWN); -Dserver.shutdownDrainMs bounds the drain phase
+    private static final long DISCONNECT_WAIT_MS = 2_000L;
+    private final ShutdownCoordinator shutdown = new ShutdownCoordinator();
+    private volatile ServerSocket serverSocket;
 
     public ServerApp(int port) throws CustomExceptions.BranchException, CustomExceptions.EmployeeException, CustomExceptions.CustomerException, CustomExceptions.ProductException {
         this.port = port;
+        startAdminHttpServer();
 
         // Load branches
         for (String branchJson : FileUtils.readJsonObjectsFromFile(BRANCHES_FILE)) {
@@ -63,38 +89,188 @@ public class ServerApp {
             if (currCustomer != null) customerService.addCustomer(currCustomer);
         }
 
+        chatService.startMetricsDump(CHAT_METRICS_FILE, CHAT_METRICS_DUMP_MS);
+        authService.registerGauges();
+        MetricsRegistry metrics = MetricsRegistry.global();
+        metrics.gauge("server.connections.active", () ->
+                metrics.counter("server.connections.accepted").sum() - metrics.counter("server.connections.closed").sum());
+        metrics.startReporting(SERVER_METRICS_FILE, SERVER_METRICS_DUMP_MS);
+
+        addShutdownPhases();
+        shutdown.installSignalHook();
+
+        dataLoaded = true;
         System.out.println("Server initialized successfully. Data loaded from JSON files.");
     }
 
+    /**
+     * Shutdown order: stop taking connections and commands, warn the clients, let running commands finish,
+     * end chats while their participants are still connected, disconnect everyone, then write the final
+     * snapshot and metrics once nothing can change them any more.
+     */
+    private void addShutdownPhases() {
+        shutdown.addPhase("stop accepting", () -> {
+            admission.stopAdmitting();
+            ServerSocket socket = serverSocket;
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        shutdown.addPhase("notify clients", () -> {
+            for (ClientHandler handler : shutdown.getClients())
+                handler.notifyShutdown("[NOTIFY] SERVER_SHUTDOWN The server is shutting down. Please finish your work and log out.");
+        });
+        shutdown.addPhase("drain commands", () -> {
+            if (!admission.awaitIdle(shutdown.getDrainMs()))
+                throw new IllegalStateException(admission.getInFlightCommands() + " command(s) still running after " + shutdown.getDrainMs() + " ms");
+        });
+        shutdown.addPhase("end chats", () -> System.out.println("Chats ended: " + chatService.endAllChats()));
+        shutdown.addPhase("disconnect clients", () -> {
+            List<ClientHandler> clients = shutdown.getClients();
+            for (ClientHandler handler : clients) handler.closeConnection();
+            long deadline = System.currentTimeMillis() + DISCONNECT_WAIT_MS;
+            while (!shutdown.getClients().isEmpty() && System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            System.out.println("Clients disconnected: " + (clients.size() - shutdown.getClients().size()) + "/" + clients.size());
+        });
+        shutdown.addPhase("final snapshot", () -> {
+            FileUtils.saveToFile(EMPLOYEES_FILE, employeeService.listAllEmployees(), FileUtils::employeeToJson);
+            FileUtils.saveToFile(PRODUCTS_FILE, productService.getAllProducts(), FileUtils::productToJson);
+            FileUtils.saveToFile(CUSTOMERS_FILE, customerService.listAllCustomers(), FileUtils::customerToJson);
+            chatService.close();
+            saleService.close();
+        });
+        shutdown.addPhase("final metrics", () -> {
+            chatService.getChatMetrics().dumpToFile(CHAT_METRICS_FILE);
+            MetricsRegistry.global().dumpToFile(SERVER_METRICS_FILE);
+        });
+    }
+
+    /**
+     * Starts the monitoring endpoint when -Dadmin.http.port is set; it comes up before the data
+     * files are loaded so /ready can report the loading phase.
+     */
+    private void startAdminHttpServer() {
+        Integer adminPort = Integer.getInteger("admin.http.port");
+        if (adminPort == null) return;
+        try {
+            AdminHttpServer adminHttpServer = new AdminHttpServer(System.getProperty("admin.http.host", "localhost"), adminPort,
+                    chatService, () -> dataLoaded && !shutdown.isShuttingDown());
+            adminHttpServer.start();
+            shutdown.addPhase("stop admin endpoint", adminHttpServer::stop);
+        } catch (IOException e) {
+            System.out.println("Error starting admin HTTP endpoint on port " + adminPort + " -> " + e.getMessage());
+        }
+    }
+
+    /**
+     * Standalone chat unless started with -Dchat.node=<id> -Dchat.broker=<host:port>,
+     * in which case chats are routed across all nodes connected to that ChatBrokerHub.
+     */
+    private static ChatService createChatService() {
+        String nodeId = System.getProperty("chat.node");
+        String brokerAddress = System.getProperty("chat.broker");
+        if (nodeId == null || brokerAddress == null) return new ChatService();
+
+        int separator = brokerAddress.lastIndexOf(':');
+        String host = separator < 0 ? "localhost" : brokerAddress.substring(0, separator);
+        int brokerPort = Integer.parseInt(brokerAddress.substring(separator + 1));
+        System.out.println("Chat node " + nodeId + " using broker " + host + ":" + brokerPort);
+        return new ChatService(FairChatRequestQueue::new, nodeId, new TcpChatBroker(host, brokerPort));
+    }
+
     /**
      * Start listening for incoming connections.
+     * Connections beyond the admission limits are answered with an error and closed on the accept
+     * thread; admitted ones get their own handler thread.
      */
     public void start() {
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        try (ServerSocket serverSocket = new ServerSocket(port, ACCEPT_BACKLOG)) {
+            this.serverSocket = serverSocket;
             System.out.println("Server listening on port " + port);
 
-            while (true) {
+            while (!shutdown.isShuttingDown()) {
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("Client connected: " + clientSocket.getInetAddress());
-                ClientHandler handler = new ClientHandler(
-                    clientSocket, 
-                    authService, 
-                    employeeService, 
-                    productService, 
-                    customerService, 
-                    saleService, 
-                    chatService, 
-                    branchService);
-                new Thread(handler).start();
+                long acceptedAt = System.nanoTime();
+                MetricsRegistry.global().increment("server.connections.accepted");
+                InetAddress address = clientSocket.getInetAddress();
+
+                String rejection = admission.tryAdmitSession(address);
+                if (rejection != null) {
+                    rejectConnection(clientSocket, rejection);
+                    continue;
+                }
+
+                System.out.println("Client connected: " + address);
+                try {
+                    ClientHandler handler = new ClientHandler(
+                        clientSocket,
+                        authService,
+                        employeeService,
+                        productService,
+                        customerService,
+                        saleService,
+                        chatService,
+                        branchService,
+                        admission,
+                        shutdown,
+                        reaper,
+                        resumption);
+                    new Thread(() -> {
+                        try {
+                            handler.run();
+                        } finally {
+                            admission.releaseSession(address);
+                        }
+                    }, "client-" + address.getHostAddress()).start();
+                } catch (IOException e) {
+                    admission.releaseSession(address);
+                    MetricsRegistry.global().increment("server.connections.closed");
+                    System.out.println("Error setting up client " + address + " -> " + e.getMessage());
+                    closeQuietly(clientSocket);
+                }
+                MetricsRegistry.global().recordSince("server.accept.handoff", acceptedAt);
             }
 
         } catch (IOException e) {
-            e.printStackTrace();
+            if (!shutdown.isShuttingDown()) e.printStackTrace(); // closing the socket is how shutdown stops accept()
+        }
+    }
+
+    /** Tells the client why it was turned away; one short line, so the write lands in the socket buffer. */
+    private static void rejectConnection(Socket clientSocket, String message) {
+        MetricsRegistry.global().increment("server.connections.closed");
+        System.out.println("Client rejected: " + clientSocket.getInetAddress() + " -> " + message);
+        try {
+            clientSocket.getOutputStream().write((message + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+            clientSocket.getOutputStream().flush();
+        } catch (IOException e) {
+            System.out.println("Error writing rejection to client -> " + e.getMessage());
+        }
+        closeQuietly(clientSocket);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.out.println("Error closing client socket -> " + e.getMessage());
         }
     }
 
     public static void main(String[] args) throws CustomExceptions.BranchException, CustomExceptions.EmployeeException, CustomExceptions.CustomerException, CustomExceptions.ProductException {
-        ServerApp server = new ServerApp(3000);
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 3000; // one port per node when running several
+        ServerApp server = new ServerApp(port);
         server.start();
     }
 }
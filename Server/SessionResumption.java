@@ -0,0 +1,191 @@
+package Server;
+
+import Server.Utils.MetricsRegistry;
+import Services.ChatService;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps logged-in sessions alive across a dropped connection.
+ * Each login is registered under its resume token (the AuthService session token). When the socket drops
+ * without Exit or LOGOUT, the handler parks the session here instead of logging out: the login, the current
+ * chat and the chat listeners stay in place for the grace period, and chat traffic for the session goes into
+ * its Outbox. A new connection that sends RESUME <token> at the login prompt takes the session over and gets
+ * the missed lines replayed; a session nobody claims is ended when the grace period runs out.
+ * RESUME also takes over a session whose old connection has not noticed the drop yet (a half-open socket),
+ * so a reconnect never runs into "already logged in".
+ *
+ * -Dsession.resumeGraceSec (default 120, 0 = no resumption), -Dsession.resumeBufferSize (lines kept per
+ * parked session, default 100; older lines are dropped first). Counted under session.resume.*.
+ */
+public class SessionResumption {
+
+    /**
+     * Everything pushed to one session outside command responses: chat messages and chat notices.
+     * Writes go to the handler the session is attached to, or into a bounded buffer while it is parked.
+     * The chat listeners of the session point here rather than at a handler, so they survive a resume.
+     */
+    public static final class Outbox {
+        private final int capacity;
+        private final ArrayDeque<String> missed = new ArrayDeque<>();
+        private int dropped = 0;
+        private ClientHandler target;
+        private boolean attached = true;
+
+        Outbox(ClientHandler target, int capacity) {
+            this.target = target;
+            this.capacity = capacity;
+        }
+
+        /** Chat listener entry point. */
+        public synchronized void deliver(ChatService.ChatMessage msg) {
+            if (attached) target.deliverChatMessage(msg);
+            else buffer(msg.getRenderedLine());
+        }
+
+        /** ChatService direct-notify entry point; the handler owning the session decides what to show. */
+        public synchronized void notify(String line) {
+            target.onChatNotify(line);
+        }
+
+        /** Writes a line to the client, or keeps it for the replay while the session is parked. */
+        public synchronized void push(String line) {
+            if (attached) target.writePushed(line);
+            else buffer(line);
+        }
+
+        private void buffer(String line) {
+            if (missed.size() == capacity) {
+                missed.pollFirst();
+                dropped++;
+            }
+            missed.addLast(line);
+        }
+
+        synchronized void detach() { attached = false; }
+
+        /**
+         * Moves the session to a new handler: adopt runs first (under this lock, so nothing is pushed in
+         * between), then the buffered lines are written to the new connection.
+         * @return the number of lines replayed
+         */
+        synchronized int attach(ClientHandler handler, Runnable adopt) {
+            adopt.run();
+            target = handler;
+            attached = true;
+            int replayed = missed.size();
+            if (dropped > 0) handler.writePushed("[INFO] " + dropped + " older chat line(s) were dropped while you were away.");
+            while (!missed.isEmpty()) handler.writePushed(missed.pollFirst());
+            dropped = 0;
+            return replayed;
+        }
+    }
+
+    private static final class Entry {
+        ClientHandler owner;
+        ScheduledFuture<?> expiry; // set while parked
+
+        Entry(ClientHandler owner) {
+            this.owner = owner;
+        }
+    }
+
+    private final long graceSeconds;
+    private final int bufferSize;
+    private final Map<String, Entry> entries = new HashMap<>(); // guarded by this
+    private final ScheduledExecutorService expiries = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "session-resume-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int parked = 0; // guarded by this
+
+    public SessionResumption(long graceSeconds, int bufferSize) {
+        this.graceSeconds = graceSeconds;
+        this.bufferSize = bufferSize;
+        MetricsRegistry.global().gauge("session.resume.parked", this::getParkedCount);
+    }
+
+    /** -Dsession.resumeGraceSec (default 120, 0 = off), -Dsession.resumeBufferSize (default 100). */
+    public static SessionResumption fromSystemProperties() {
+        return new SessionResumption(Long.getLong("session.resumeGraceSec", 120L),
+                Integer.getInteger("session.resumeBufferSize", 100));
+    }
+
+    public boolean isEnabled() { return graceSeconds > 0; }
+
+    public long getGraceSeconds() { return graceSeconds; }
+
+    public synchronized int getParkedCount() { return parked; }
+
+    Outbox newOutbox(ClientHandler handler) { return new Outbox(handler, bufferSize); }
+
+    /** Makes a fresh login resumable under its token. */
+    public synchronized void register(String token, ClientHandler handler) {
+        if (isEnabled()) entries.put(token, new Entry(handler));
+    }
+
+    /**
+     * Forgets the session when it ends for good (Exit, LOGOUT, idle expiry).
+     * @return false if another connection has taken the session over, i.e. the caller must not end it
+     */
+    public synchronized boolean unregister(String token, ClientHandler handler) {
+        Entry entry = entries.get(token);
+        if (entry == null) return true;
+        if (entry.owner != handler) return false;
+        entries.remove(token);
+        return true;
+    }
+
+    /**
+     * Keeps the session of a dropped connection for the grace period; onExpire ends it if nobody resumes it.
+     * @return false if the session is not the handler's to park (taken over, or resumption is off)
+     */
+    public synchronized boolean park(String token, ClientHandler handler, Runnable onExpire) {
+        Entry entry = entries.get(token);
+        if (entry == null || entry.owner != handler) return false;
+        handler.detachForPark();
+        parked++;
+        entry.expiry = expiries.schedule(() -> expire(token, entry, onExpire), graceSeconds, TimeUnit.SECONDS);
+        MetricsRegistry.global().increment("session.resume.kept");
+        return true;
+    }
+
+    private void expire(String token, Entry entry, Runnable onExpire) {
+        synchronized (this) {
+            if (entries.get(token) != entry || entry.expiry == null) return; // resumed meanwhile
+            entries.remove(token);
+            parked--;
+        }
+        MetricsRegistry.global().increment("session.resume.expired");
+        onExpire.run();
+    }
+
+    /**
+     * Hands the session to a new connection.
+     * @return the handler that held it (parked, or still attached to a connection that has not noticed the
+     *         drop yet), or null if the token is unknown or its grace period has run out
+     */
+    public synchronized ClientHandler claim(String token, ClientHandler handler) {
+        Entry entry = token == null ? null : entries.get(token);
+        if (entry == null) {
+            MetricsRegistry.global().increment("session.resume.rejected");
+            return null;
+        }
+        if (entry.expiry != null) {
+            entry.expiry.cancel(false);
+            entry.expiry = null;
+            parked--;
+        }
+        ClientHandler previous = entry.owner;
+        entry.owner = handler;
+        MetricsRegistry.global().increment("session.resume.ok");
+        return previous;
+    }
+}
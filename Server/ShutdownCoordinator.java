@@ -0,0 +1,121 @@
+package Server;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the server's shutdown sequence exactly once, whichever trigger comes first: the JVM shutdown hook
+ * (SIGTERM / Ctrl+C) or the ADMIN SHUTDOWN command.
+ * Phases run in the order they were added and each one is timed; a phase that fails is reported and the
+ * next one still runs, so a broken socket never costs the final snapshot. The timing report is printed
+ * and appended to Logs/shutdown.log.
+ */
+public class ShutdownCoordinator {
+
+    private static final String SHUTDOWN_LOG_FILE = "Logs/shutdown.log";
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final List<String> phaseNames = new ArrayList<>();
+    private final List<Runnable> phases = new ArrayList<>();
+    private final Set<ClientHandler> clients = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile long drainMs = Long.getLong("server.shutdownDrainMs", 10_000L);
+
+    /** Adds a phase; all phases must be added before the first trigger. */
+    public synchronized void addPhase(String name, Runnable phase) {
+        phaseNames.add(name);
+        phases.add(phase);
+    }
+
+    // -------------------- Connected clients --------------------
+    public void register(ClientHandler handler) { clients.add(handler); }
+    public void unregister(ClientHandler handler) { clients.remove(handler); }
+    public List<ClientHandler> getClients() { return new ArrayList<>(clients); }
+
+    public boolean isShuttingDown() { return started.get(); }
+
+    /** How long in-flight commands may take to finish (-Dserver.shutdownDrainMs, default 10000). */
+    public long getDrainMs() { return drainMs; }
+
+    // -------------------- Triggers --------------------
+    /** Runs the sequence when the JVM is asked to stop (SIGTERM, SIGINT). */
+    public void installSignalHook() {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> runShutdown("signal"), "shutdown-hook"));
+    }
+
+    /**
+     * Starts the sequence on its own thread and exits the process when it is done; the caller (a client
+     * handler) returns at once so its own command can finish and be drained like the others.
+     * @param drainMs overrides the drain deadline when positive
+     * @return false if a shutdown is already in progress
+     */
+    public boolean requestShutdown(String reason, long drainMs) {
+        if (started.get()) return false;
+        if (drainMs > 0) this.drainMs = drainMs;
+        Thread thread = new Thread(() -> {
+            runShutdown(reason);
+            System.exit(0); // the shutdown hook then finds the sequence done and returns
+        }, "server-shutdown");
+        thread.start();
+        return true;
+    }
+
+    /** Runs every phase once; a second caller waits for the first run to finish. */
+    public void runShutdown(String reason) {
+        if (!started.compareAndSet(false, true)) {
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        StringBuilder reportSB = new StringBuilder();
+        reportSB.append("Shutdown started at ").append(LocalDateTime.now().format(TIME_FORMAT))
+                .append(" (").append(reason).append(")\n");
+        reportSB.append(String.format("%-22s | %-9s | %s%n", "Phase", "Time (ms)", "Result"));
+        reportSB.append("-".repeat(60)).append("\n");
+        System.out.println("Server shutting down (" + reason + ")...");
+
+        long totalStart = System.nanoTime();
+        try {
+            List<String> names;
+            List<Runnable> steps;
+            synchronized (this) {
+                names = new ArrayList<>(phaseNames);
+                steps = new ArrayList<>(phases);
+            }
+            for (int i = 0; i < steps.size(); i++) {
+                long phaseStart = System.nanoTime();
+                String result = "OK";
+                try {
+                    steps.get(i).run();
+                } catch (RuntimeException e) {
+                    result = "FAILED -> " + e.getMessage();
+                }
+                reportSB.append(String.format("%-22s | %9.1f | %s%n", names.get(i), (System.nanoTime() - phaseStart) / 1e6, result));
+            }
+            reportSB.append("-".repeat(60)).append("\n");
+            reportSB.append(String.format("%-22s | %9.1f |%n", "Total", (System.nanoTime() - totalStart) / 1e6));
+
+            System.out.print(reportSB);
+            try (FileWriter writer = new FileWriter(SHUTDOWN_LOG_FILE, true)) {
+                writer.write(reportSB.append("\n").toString());
+            } catch (IOException e) {
+                System.out.println("Error writing to file: " + SHUTDOWN_LOG_FILE + " -> " + e.getMessage());
+            }
+        } finally {
+            finished.countDown();
+        }
+    }
+}
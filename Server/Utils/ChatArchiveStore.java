@@ -0,0 +1,304 @@
+package Server.Utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only archive of finished chats.
+ * Each chat is one record (the same JSON object layout as chat_history.json) appended to a
+ * size-capped segment file; a side index (chatId, date, time, branches, segment, offset, length)
+ * is appended to index.log and kept in memory, so past chats are read with a single seek.
+ */
+public class ChatArchiveStore {
+
+    private static final long MAX_SEGMENT_BYTES = 8L * 1024 * 1024;
+    private static final String INDEX_FILE = "index.log";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final Pattern MESSAGE_BRANCH = Pattern.compile("\\(([A-Z]{1,3}\\d{2,3})\\):");
+
+    // -------------------- Index Entry --------------------
+    public static final class Entry {
+        private final int ordinal;
+        private final String chatId;
+        private final String date;
+        private final String time;
+        private final List<String> branches;
+        private final int segment;
+        private final long offset;
+        private final int length;
+
+        Entry(int ordinal, String chatId, String date, String time, List<String> branches, int segment, long offset, int length) {
+            this.ordinal = ordinal;
+            this.chatId = chatId;
+            this.date = date;
+            this.time = time;
+            this.branches = branches;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int getOrdinal() { return ordinal; }
+        public String getChatId() { return chatId; }
+        public String getDate() { return date; }
+        public String getTime() { return time; }
+        public List<String> getBranches() { return branches; }
+    }
+
+    // -------------------- State --------------------
+    private final File directory;
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, List<Entry>> entriesByChatId = new HashMap<>();
+    private final NavigableMap<String, List<Entry>> entriesByDate = new TreeMap<>();
+    private final Map<String, List<Entry>> entriesByBranch = new HashMap<>();
+
+    private int currentSegment = 0;
+    private long currentSegmentSize = 0;
+
+    public ChatArchiveStore(String directoryPath) {
+        this.directory = new File(directoryPath);
+        if (!directory.exists() && !directory.mkdirs()) {
+            System.out.println("Error creating archive directory: " + directoryPath);
+        }
+        loadIndex();
+    }
+
+    // -------------------- Public API --------------------
+    public synchronized boolean isEmpty() { return entries.isEmpty(); }
+    public synchronized int size() { return entries.size(); }
+
+    /**
+     * Appends one finished chat to the current segment and records it in the index.
+     * @return the new index entry, or null if the write failed
+     */
+    public synchronized Entry append(String chatId, String date, String time, Collection<String> branches, String recordJson) {
+        long start = System.nanoTime();
+        byte[] recordBytes = (recordJson + "\n").getBytes(StandardCharsets.UTF_8);
+        if (currentSegmentSize > 0 && currentSegmentSize + recordBytes.length > MAX_SEGMENT_BYTES) {
+            currentSegment++;
+            currentSegmentSize = 0;
+        }
+
+        File segmentFile = segmentFile(currentSegment);
+        long offset;
+        try (FileOutputStream fos = new FileOutputStream(segmentFile, true)) {
+            offset = fos.getChannel().size(); // from the file: a failed earlier write may have left a partial record
+            fos.write(recordBytes);
+        } catch (IOException e) {
+            System.out.println("Error writing to file: " + segmentFile.getPath() + " -> " + e.getMessage());
+            MetricsRegistry.global().increment("persistence.archive.errors");
+            currentSegmentSize = segmentFile.length(); // count the bytes a partial write left behind
+            return null;
+        }
+        currentSegmentSize = offset + recordBytes.length;
+
+        Entry entry = new Entry(entries.size(), chatId, date, time, List.copyOf(new LinkedHashSet<>(branches)),
+                currentSegment, offset, recordBytes.length - 1);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, INDEX_FILE), true), StandardCharsets.UTF_8)) {
+            writer.write(formatIndexLine(entry));
+        } catch (IOException e) {
+            System.out.println("Error writing to file: " + INDEX_FILE + " -> " + e.getMessage());
+            MetricsRegistry.global().increment("persistence.archive.errors");
+            return null;
+        }
+        addToIndex(entry);
+        MetricsRegistry.global().recordSince("persistence.archive.append", start);
+        return entry;
+    }
+
+    public synchronized List<Entry> findByChatId(String chatId) {
+        return List.copyOf(entriesByChatId.getOrDefault(chatId, Collections.emptyList()));
+    }
+
+    public synchronized List<Entry> findByDate(String date) {
+        return List.copyOf(entriesByDate.getOrDefault(date, Collections.emptyList()));
+    }
+
+    /** Entries whose date falls within [fromDate, toDate] (ISO yyyy-MM-dd, inclusive). */
+    public synchronized List<Entry> findByDateRange(String fromDate, String toDate) {
+        List<Entry> result = new ArrayList<>();
+        for (List<Entry> list : entriesByDate.subMap(fromDate, true, toDate, true).values()) result.addAll(list);
+        return result;
+    }
+
+    public synchronized List<Entry> findByBranch(String branchId) {
+        return List.copyOf(entriesByBranch.getOrDefault(branchId, Collections.emptyList()));
+    }
+
+    public synchronized Entry getByOrdinal(int ordinal) {
+        return (ordinal >= 0 && ordinal < entries.size()) ? entries.get(ordinal) : null;
+    }
+
+    /** Reads the archived JSON object of an entry with a single positioned read. */
+    public String read(Entry entry) {
+        File segmentFile = segmentFile(entry.segment);
+        try (RandomAccessFile raf = new RandomAccessFile(segmentFile, "r")) {
+            byte[] buffer = new byte[entry.length];
+            raf.seek(entry.offset);
+            raf.readFully(buffer);
+            return new String(buffer, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.out.println("Error reading file: " + segmentFile.getPath() + " -> " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Sequentially reads every archived record in archive order (one open file per segment). */
+    public void forEachRecord(BiConsumer<Entry, String> consumer) {
+        List<Entry> snapshot;
+        synchronized (this) { snapshot = new ArrayList<>(entries); }
+
+        RandomAccessFile raf = null;
+        int openSegment = -1;
+        try {
+            for (Entry entry : snapshot) {
+                if (entry.segment != openSegment) {
+                    if (raf != null) raf.close();
+                    raf = new RandomAccessFile(segmentFile(entry.segment), "r");
+                    openSegment = entry.segment;
+                }
+                byte[] buffer = new byte[entry.length];
+                raf.seek(entry.offset);
+                raf.readFully(buffer);
+                consumer.accept(entry, new String(buffer, StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading archive segment " + openSegment + " -> " + e.getMessage());
+        } finally {
+            if (raf != null) try { raf.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /** Extracts the message lines ("Name (BranchId): text") from an archived JSON object. */
+    public static List<String> parseMessages(String recordJson) {
+        List<String> messages = new ArrayList<>();
+        int start = recordJson.indexOf("\"messages\"");
+        if (start < 0) return messages;
+        start = recordJson.indexOf('[', start);
+        if (start < 0) return messages;
+
+        StringBuilder current = null;
+        for (int i = start + 1; i < recordJson.length(); i++) {
+            char c = recordJson.charAt(i);
+            if (current == null) {
+                if (c == ']') break;
+                if (c == '"') current = new StringBuilder();
+            } else if (c == '\\' && i + 1 < recordJson.length()) {
+                char next = recordJson.charAt(++i);
+                switch (next) {
+                    case 'n' -> current.append('\n');
+                    case 'r' -> current.append('\r');
+                    case 't' -> current.append('\t');
+                    case 'b' -> current.append('\b');
+                    case 'f' -> current.append('\f');
+                    case 'u' -> {
+                        if (i + 4 < recordJson.length()) {
+                            current.append((char) Integer.parseInt(recordJson.substring(i + 1, i + 5), 16));
+                            i += 4;
+                        }
+                    }
+                    default -> current.append(next);
+                }
+            } else if (c == '"') {
+                messages.add(current.toString());
+                current = null;
+            } else {
+                current.append(c);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Writes every archived chat, in archive order, to a JSON array in the chat_history.json layout.
+     * @return number of exported chats
+     */
+    public int exportToJson(String filePath) {
+        List<Entry> snapshot;
+        synchronized (this) { snapshot = new ArrayList<>(entries); }
+
+        List<String> records = new ArrayList<>(snapshot.size());
+        for (Entry entry : snapshot) {
+            String record = read(entry);
+            if (record != null) records.add(record);
+        }
+        FileUtils.saveToFile(filePath, records, s -> s);
+        return records.size();
+    }
+
+    /**
+     * One-time migration of an existing chat_history.json array into the archive.
+     * Branches are recovered from the "Name (BranchId): text" message lines.
+     * @return number of imported chats
+     */
+    public synchronized int importLegacyFile(String legacyFilePath) {
+        int imported = 0;
+        for (String json : FileUtils.readJsonObjectsFromFile(legacyFilePath)) {
+            String record = json.trim();
+            if (record.startsWith(",")) record = record.substring(1).trim();
+            String chatId = FileUtils.extractJsonStringValue(record, "chatId");
+            if (chatId == null) continue;
+
+            Set<String> branches = new LinkedHashSet<>();
+            Matcher matcher = MESSAGE_BRANCH.matcher(record);
+            while (matcher.find()) branches.add(matcher.group(1));
+
+            String date = FileUtils.extractJsonStringValue(record, "date");
+            String time = FileUtils.extractJsonStringValue(record, "time");
+            if (append(chatId, date == null ? "" : date, time == null ? "" : time, branches, record) != null) imported++;
+        }
+        return imported;
+    }
+
+    // -------------------- Internal Helpers --------------------
+    private File segmentFile(int segment) {
+        return new File(directory, String.format("%s%05d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private void addToIndex(Entry entry) {
+        entries.add(entry);
+        entriesByChatId.computeIfAbsent(entry.chatId, _ -> new ArrayList<>()).add(entry);
+        entriesByDate.computeIfAbsent(entry.date, _ -> new ArrayList<>()).add(entry);
+        for (String branch : entry.branches) {
+            entriesByBranch.computeIfAbsent(branch, _ -> new ArrayList<>()).add(entry);
+        }
+    }
+
+    private static String formatIndexLine(Entry entry) {
+        return entry.chatId + "\t" + entry.date + "\t" + entry.time + "\t" + String.join(",", entry.branches)
+                + "\t" + entry.segment + "\t" + entry.offset + "\t" + entry.length + "\n";
+    }
+
+    /** Loads index.log; a torn last line (crash mid-append) or a record past the segment end is dropped. */
+    private void loadIndex() {
+        File indexFile = new File(directory, INDEX_FILE);
+        if (indexFile.exists()) {
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length != 7) continue;
+                    try {
+                        List<String> branches = fields[3].isEmpty() ? List.of() : List.of(fields[3].split(","));
+                        int segment = Integer.parseInt(fields[4]);
+                        long offset = Long.parseLong(fields[5]);
+                        int length = Integer.parseInt(fields[6]);
+                        if (offset + length > segmentFile(segment).length()) continue;
+                        addToIndex(new Entry(entries.size(), fields[0], fields[1], fields[2], branches, segment, offset, length));
+                    } catch (NumberFormatException ignored) {}
+                }
+            } catch (IOException e) {
+                System.out.println("Error reading file: " + indexFile.getPath() + " -> " + e.getMessage());
+            }
+        }
+
+        // Resume appending after the last existing segment
+        while (segmentFile(currentSegment + 1).exists()) currentSegment++;
+        currentSegmentSize = segmentFile(currentSegment).length();
+    }
+}
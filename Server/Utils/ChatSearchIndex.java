@@ -0,0 +1,226 @@
+package Server.Utils;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index over archived chat messages.
+ * Every message is one document; content words plus "branch:", "sender:" and "date:" field terms
+ * map to ascending posting lists of document ids. Queries AND all terms by intersecting the
+ * postings (smallest list first), so cost depends on the rarest term, not on the archive size.
+ * Only the page being returned is read back from the archive to build snippets.
+ */
+public class ChatSearchIndex {
+
+    private static final Pattern MESSAGE_LINE = Pattern.compile("^(.*?) \\(([A-Za-z0-9]*)\\): (.*)$", Pattern.DOTALL);
+    private static final int SNIPPET_RADIUS = 40;
+
+    // -------------------- Value Types --------------------
+    public static final class Hit {
+        private final String chatId;
+        private final String date;
+        private final String snippet;
+
+        Hit(String chatId, String date, String snippet) {
+            this.chatId = chatId;
+            this.date = date;
+            this.snippet = snippet;
+        }
+
+        public String getChatId() { return chatId; }
+        public String getDate() { return date; }
+        public String getSnippet() { return snippet; }
+    }
+
+    public static final class SearchPage {
+        private final int totalHits;
+        private final int page;
+        private final int pageSize;
+        private final List<Hit> hits;
+
+        SearchPage(int totalHits, int page, int pageSize, List<Hit> hits) {
+            this.totalHits = totalHits;
+            this.page = page;
+            this.pageSize = pageSize;
+            this.hits = hits;
+        }
+
+        public int getTotalHits() { return totalHits; }
+        public int getPage() { return page; }
+        public int getTotalPages() { return (totalHits + pageSize - 1) / pageSize; }
+        public List<Hit> getHits() { return hits; }
+    }
+
+    /** Growable ascending int array used for posting lists and per-document columns. */
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int get(int index) { return values[index]; }
+
+        boolean contains(int value) { return Arrays.binarySearch(values, 0, size, value) >= 0; }
+    }
+
+    // -------------------- State --------------------
+    private final ChatArchiveStore archive;
+    private final Map<String, IntList> postingsByTerm = new HashMap<>();
+    private final IntList docArchiveOrdinal = new IntList();
+    private final IntList docMessageIndex = new IntList();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public ChatSearchIndex(ChatArchiveStore archive) {
+        this.archive = archive;
+    }
+
+    // -------------------- Indexing --------------------
+    /** Rebuilds the index from every record already in the archive (used once at startup). */
+    public void rebuildFromArchive() {
+        archive.forEachRecord((entry, record) -> indexChat(entry, ChatArchiveStore.parseMessages(record)));
+    }
+
+    /** Indexes the messages of one newly archived chat. */
+    public void indexChat(ChatArchiveStore.Entry entry, List<String> messageLines) {
+        lock.writeLock().lock();
+        try {
+            String dateTerm = "date:" + entry.getDate();
+            for (int messageIndex = 0; messageIndex < messageLines.size(); messageIndex++) {
+                String line = messageLines.get(messageIndex);
+                int docId = docArchiveOrdinal.size;
+                docArchiveOrdinal.add(entry.getOrdinal());
+                docMessageIndex.add(messageIndex);
+
+                Set<String> terms = new HashSet<>();
+                terms.add(dateTerm);
+                Matcher matcher = MESSAGE_LINE.matcher(line);
+                if (matcher.matches()) {
+                    for (String word : tokenize(matcher.group(1))) terms.add("sender:" + word);
+                    terms.add("branch:" + matcher.group(2).toLowerCase());
+                    terms.addAll(tokenize(matcher.group(3)));
+                } else {
+                    terms.addAll(tokenize(line));
+                }
+                for (String term : terms) postingsByTerm.computeIfAbsent(term, _ -> new IntList()).add(docId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // -------------------- Querying --------------------
+    /**
+     * Runs an AND query and returns one page of hits, newest first.
+     * Query words match message content; "branch:B001", "from:name" / "sender:name" and
+     * "date:yyyy-MM-dd" restrict by field.
+     * @param page 1-based page number
+     */
+    public SearchPage search(String query, int page, int pageSize) {
+        List<String> terms = parseQuery(query);
+        if (terms.isEmpty()) return new SearchPage(0, page, pageSize, List.of());
+
+        int[] matches;
+        int[][] hitRefs;
+        lock.readLock().lock();
+        try {
+            List<IntList> postings = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                IntList list = postingsByTerm.get(term);
+                if (list == null) return new SearchPage(0, page, pageSize, List.of());
+                postings.add(list);
+            }
+            postings.sort(Comparator.comparingInt(list -> list.size));
+            matches = intersect(postings);
+
+            int from = Math.max(0, (page - 1) * pageSize);
+            int to = Math.min(matches.length, from + pageSize);
+            hitRefs = new int[Math.max(0, to - from)][];
+            for (int i = from; i < to; i++) {
+                int docId = matches[i];
+                hitRefs[i - from] = new int[] { docArchiveOrdinal.get(docId), docMessageIndex.get(docId) };
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Hit> hits = new ArrayList<>(hitRefs.length);
+        Set<String> contentTerms = new HashSet<>();
+        for (String term : terms) if (term.indexOf(':') < 0) contentTerms.add(term);
+        for (int[] ref : hitRefs) {
+            ChatArchiveStore.Entry entry = archive.getByOrdinal(ref[0]);
+            if (entry == null) continue;
+            String record = archive.read(entry);
+            List<String> messages = record == null ? List.of() : ChatArchiveStore.parseMessages(record);
+            String line = ref[1] < messages.size() ? messages.get(ref[1]) : "";
+            hits.add(new Hit(entry.getChatId(), entry.getDate(), snippet(line, contentTerms)));
+        }
+        return new SearchPage(matches.length, page, pageSize, hits);
+    }
+
+    /** Intersects ascending posting lists (smallest first) and returns doc ids newest first. */
+    private static int[] intersect(List<IntList> postings) {
+        IntList smallest = postings.getFirst();
+        int[] result = new int[smallest.size];
+        int count = 0;
+        for (int i = smallest.size - 1; i >= 0; i--) {
+            int docId = smallest.get(i);
+            boolean inAll = true;
+            for (int p = 1; p < postings.size() && inAll; p++) inAll = postings.get(p).contains(docId);
+            if (inAll) result[count++] = docId;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static List<String> parseQuery(String query) {
+        List<String> terms = new ArrayList<>();
+        if (query == null) return terms;
+        for (String part : query.trim().split("\\s+")) {
+            if (part.isEmpty()) continue;
+            String lower = part.toLowerCase();
+            if (lower.startsWith("branch:") || lower.startsWith("date:")) {
+                terms.add(lower);
+            } else if (lower.startsWith("from:") || lower.startsWith("sender:")) {
+                for (String word : tokenize(lower.substring(lower.indexOf(':') + 1))) terms.add("sender:" + word);
+            } else {
+                terms.addAll(tokenize(lower));
+            }
+        }
+        return terms;
+    }
+
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                current.append(Character.toLowerCase(c));
+            } else if (!current.isEmpty()) {
+                tokens.add(current.toString());
+                current.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    private static String snippet(String line, Set<String> contentTerms) {
+        String lower = line.toLowerCase();
+        int position = -1;
+        for (String term : contentTerms) {
+            int found = lower.indexOf(term);
+            if (found >= 0 && (position < 0 || found < position)) position = found;
+        }
+        if (position < 0 || line.length() <= 2 * SNIPPET_RADIUS) {
+            return line.length() <= 2 * SNIPPET_RADIUS ? line : line.substring(0, 2 * SNIPPET_RADIUS) + "...";
+        }
+        int start = Math.max(0, position - SNIPPET_RADIUS);
+        int end = Math.min(line.length(), position + SNIPPET_RADIUS);
+        return (start > 0 ? "..." : "") + line.substring(start, end) + (end < line.length() ? "..." : "");
+    }
+}
@@ -0,0 +1,101 @@
+package Server.Utils;
+
+import jdk.jfr.*;
+
+/**
+ * Java Flight Recorder events for client commands and the stages inside them.
+ * A CommandEvent spans one command from parsing to the response write; StageEvents (lookup, mutation,
+ * persistence, logging, response write) nested in it carry the same command, role and branch, taken from
+ * the command running on the current thread (one thread per client). When no recording is active the
+ * events are not committed and cost a few nanoseconds.
+ *
+ * Record:  java -XX:StartFlightRecording=filename=server.jfr,settings=profile Server.ServerApp
+ * Analyze: jfr print --events storemanagement.CommandStage server.jfr   (or JDK Mission Control)
+ */
+public final class CommandTracing {
+
+    public static final String LOOKUP = "lookup";
+    public static final String MUTATION = "mutation";
+    public static final String PERSISTENCE = "persistence";
+    public static final String LOGGING = "logging";
+    public static final String RESPONSE_WRITE = "response write";
+
+    @Name("storemanagement.Command")
+    @Label("Command")
+    @Description("One client command, from parsing to the response write")
+    @Category({"Store Management", "Commands"})
+    @StackTrace(false)
+    public static class CommandEvent extends Event {
+        @Label("Command") public String command;
+        @Label("Role") public String role;
+        @Label("Branch") public String branch;
+        @Label("Outcome") public String outcome;
+    }
+
+    @Name("storemanagement.CommandStage")
+    @Label("Command Stage")
+    @Description("A stage of a client command: lookup, mutation, persistence, logging or response write")
+    @Category({"Store Management", "Commands"})
+    @StackTrace(false)
+    public static class StageEvent extends Event implements AutoCloseable {
+        @Label("Command") public String command;
+        @Label("Stage") public String stage;
+        @Label("Target") @Description("File or resource touched by the stage") public String target;
+        @Label("Role") public String role;
+        @Label("Branch") public String branch;
+
+        /** Ends the stage; committed only while a recording has the event enabled. */
+        @Override
+        public void close() {
+            end();
+            if (shouldCommit()) commit();
+        }
+    }
+
+    private static final ThreadLocal<CommandEvent> CURRENT_COMMAND = new ThreadLocal<>();
+
+    private CommandTracing() { }
+
+    /** Starts the command event and makes it the context for stages on this thread. */
+    public static CommandEvent beginCommand(String command, String role, String branch) {
+        CommandEvent event = new CommandEvent();
+        if (event.isEnabled()) {
+            event.command = command;
+            event.role = role;
+            event.branch = branch;
+        }
+        event.begin();
+        CURRENT_COMMAND.set(event);
+        return event;
+    }
+
+    public static void endCommand(CommandEvent event, String outcome) {
+        CURRENT_COMMAND.remove();
+        event.end();
+        if (event.shouldCommit()) {
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    /** Use with try-with-resources; outside a command (e.g. start-up) the command field is empty. */
+    public static StageEvent stage(String stage) {
+        return stage(stage, null);
+    }
+
+    public static StageEvent stage(String stage, String target) {
+        StageEvent event = new StageEvent();
+        if (event.isEnabled()) {
+            CommandEvent command = CURRENT_COMMAND.get();
+            event.stage = stage;
+            event.target = target;
+            if (command != null) {
+                event.command = command.command;
+                event.role = command.role;
+                event.branch = command.branch;
+            }
+        }
+        event.begin();
+        return event;
+    }
+}
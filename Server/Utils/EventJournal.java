@@ -0,0 +1,176 @@
+package Server.Utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Append-only journal of state transitions (chat lifecycle, purchase totals).
+ * One event per line: TYPE, epoch-millis timestamp and the event fields, tab separated
+ * (tabs, newlines and backslashes inside fields are escaped). Every append is flushed so a
+ * crash loses at most the event being written; a torn last line is skipped on replay.
+ */
+public class EventJournal {
+
+    public static final class Event {
+        private final String type;
+        private final long timestampMs;
+        private final String[] fields;
+
+        Event(String type, long timestampMs, String[] fields) {
+            this.type = type;
+            this.timestampMs = timestampMs;
+            this.fields = fields;
+        }
+
+        public String getType() { return type; }
+        public long getTimestampMs() { return timestampMs; }
+        public String field(int index) { return index < fields.length ? fields[index] : ""; }
+    }
+
+    private final File journalFile;
+    private Writer writer;
+
+    public EventJournal(String filePath) {
+        this.journalFile = new File(filePath);
+        File parent = journalFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            System.out.println("Error creating journal directory: " + parent.getPath());
+        }
+    }
+
+    /** Replays every complete event in file order. Must be called before the first append. */
+    public synchronized void replay(Consumer<Event> consumer) {
+        if (!journalFile.exists() || journalFile.length() == 0) return;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            boolean tornTail = !endsWithNewline();
+            String line = br.readLine();
+            while (line != null) {
+                String next = br.readLine();
+                if (next != null || !tornTail) {
+                    Event event = parseLine(line);
+                    if (event != null) consumer.accept(event);
+                }
+                line = next;
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading file: " + journalFile.getPath() + " -> " + e.getMessage());
+        }
+    }
+
+    public synchronized void append(String type, String... fields) {
+        long start = System.nanoTime();
+        try (var _ = CommandTracing.stage(CommandTracing.PERSISTENCE, journalFile.getPath())) {
+            if (writer == null) {
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), StandardCharsets.UTF_8));
+            }
+            writer.write(formatLine(type, System.currentTimeMillis(), fields));
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Error writing to file: " + journalFile.getPath() + " -> " + e.getMessage());
+            MetricsRegistry.global().increment("persistence.journal.errors");
+        }
+        MetricsRegistry.global().recordSince("persistence.journal.append", start);
+    }
+
+    /**
+     * Atomically replaces the journal with the given live-state events (compaction after replay).
+     * Each entry is {type, timestampMs, fields...}.
+     */
+    public synchronized void rewrite(List<String[]> events) {
+        close();
+        File tempFile = new File(journalFile.getPath() + ".tmp");
+        try (Writer tempWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+            for (String[] event : events) {
+                String[] fields = new String[event.length - 2];
+                System.arraycopy(event, 2, fields, 0, fields.length);
+                tempWriter.write(formatLine(event[0], Long.parseLong(event[1]), fields));
+            }
+        } catch (IOException e) {
+            System.out.println("Error writing to file: " + tempFile.getPath() + " -> " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tempFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Error replacing file: " + journalFile.getPath() + " -> " + e.getMessage());
+        }
+    }
+
+    public synchronized void close() {
+        if (writer == null) return;
+        try {
+            writer.close();
+        } catch (IOException e) {
+            System.out.println("Error closing file: " + journalFile.getPath() + " -> " + e.getMessage());
+        }
+        writer = null;
+    }
+
+    private boolean endsWithNewline() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(journalFile, "r")) {
+            raf.seek(raf.length() - 1);
+            return raf.read() == '\n';
+        }
+    }
+
+    // -------------------- Line Format --------------------
+    private static String formatLine(String type, long timestampMs, String[] fields) {
+        StringBuilder lineSB = new StringBuilder(type).append('\t').append(timestampMs);
+        for (String field : fields) lineSB.append('\t').append(escape(field));
+        return lineSB.append('\n').toString();
+    }
+
+    private static Event parseLine(String line) {
+        String[] parts = line.split("\t", -1);
+        if (parts.length < 2) return null;
+        long timestampMs;
+        try { timestampMs = Long.parseLong(parts[1]); }
+        catch (NumberFormatException e) { return null; }
+
+        List<String> fields = new ArrayList<>(parts.length - 2);
+        for (int i = 2; i < parts.length; i++) fields.add(unescape(parts[i]));
+        return new Event(parts[0], timestampMs, fields.toArray(new String[0]));
+    }
+
+    /** Escapes tabs, newlines and backslashes; also used by the chat broker's wire format. */
+    public static String escape(String value) {
+        if (value == null) return "";
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '\t' -> sb.append("\\t");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                default -> sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    public static String unescape(String value) {
+        if (value.indexOf('\\') < 0) return value;
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(switch (next) {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> next;
+                });
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
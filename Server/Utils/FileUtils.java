@@ -1,6 +1,7 @@
 package Server.Utils;
 
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
 import java.util.function.Function;
 import java.util.regex.*;
@@ -20,6 +21,8 @@ public class FileUtils {
      */
 
     public static <T> void saveToFile(String filePath, List<T> items, Function<T, String> serializer) {
+        long start = System.nanoTime();
+        CommandTracing.StageEvent stage = CommandTracing.stage(CommandTracing.PERSISTENCE, filePath);
         StringBuilder fileSB = new StringBuilder("[\n");
         for (int index = 0; index < items.size(); index++) {
             fileSB.append(serializer.apply(items.get(index)));
@@ -28,12 +31,79 @@ public class FileUtils {
         }
         fileSB.append("]\n");
 
-        try (FileWriter fw = new FileWriter(filePath)) {
-            fw.write(fileSB.toString());
+        // Write a sibling temp file and move it over the target, so readers and crashes never see a half-written file
+        File target = new File(filePath);
+        File directory = target.getAbsoluteFile().getParentFile();
+        try (stage) {
+            Path tempFile = Files.createTempFile(directory.toPath(), target.getName(), ".tmp");
+            try {
+                Files.writeString(tempFile, fileSB);
+                moveIntoPlace(tempFile, target.toPath());
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
             System.out.println("Saved " + items.size() + " items to file: " + filePath);
+            MetricsRegistry.global().add("persistence.save.chars", fileSB.length());
         } catch (IOException e) {
             System.out.println("Error writing to file: " + filePath + " -> " + e.getMessage());
+            MetricsRegistry.global().increment("persistence.save.errors");
         }
+        MetricsRegistry.global().recordSince("persistence.save", start);
+    }
+
+    private static void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Serialize (the layout the parse methods below read back)
+    public static String employeeToJson(Employee e) {
+        return String.format(
+                """
+                        {
+                          "fullName": "%s",
+                          "employeeId": "%s",
+                          "phoneNumber": "%s",
+                          "accountNumber": "%s",
+                          "employeeNumber": %d,
+                          "branchId": "%s",
+                          "role": "%s",
+                          "userName": "%s",
+                          "password": "%s"
+                        }
+                        """,
+                e.getFullName(), e.getEmployeeId(), e.getPhoneNumber(), e.getAccountNumber(),
+                e.getEmployeeNumber(), e.getBranchId(), e.getRole(), e.getUserName(), e.getPassword());
+    }
+
+    public static String productToJson(Product p) {
+        return String.format(
+                """
+                        {
+                          "productId": "%s",
+                          "productName": "%s",
+                          "category": "%s",
+                          "price": %.2f,
+                          "quantityInStock": %d,
+                          "branchId": "%s"
+                        }
+                        """, p.getProductId(), p.getProductName(), p.getCategory(), p.getPrice(), p.getQuantityInStock(), p.getBranch());
+    }
+
+    public static String customerToJson(Customer c) {
+        return String.format(
+                """
+                        {
+                          "fullName": "%s",
+                          "customerId": "%s",
+                          "phoneNumber": "%s",
+                          "type": "%s"
+                        }
+                        """,
+                c.getCustomerName(), c.getCustomerId(), c.getPhoneNumber(), c.getCustomerType());
     }
 
     // Read JSON Objects
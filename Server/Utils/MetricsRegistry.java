@@ -0,0 +1,250 @@
+package Server.Utils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide server metrics: counters, gauges and latency histograms, looked up by name.
+ * Recording only touches a LongAdder or a lock-free LatencyHistogram; a metric is created the first
+ * time its name is used. Latencies are in microseconds.
+ * Rates (per second) are computed from snapshots taken every few seconds once reporting is started,
+ * over the last minute; before that they are averages since start-up.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+    private static final long SAMPLE_PERIOD_MS = 5_000L;
+    private static final long RATE_WINDOW_MS = 60_000L;
+
+    private final long startedAtMs = System.currentTimeMillis();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /** Event counts at one point in time; counters and histogram counts are kept apart (names may overlap). */
+    private static final class Snapshot {
+        final long timeMs;
+        final Map<String, Long> counterTotals = new HashMap<>();
+        final Map<String, Long> histogramCounts = new HashMap<>();
+
+        Snapshot(long timeMs) { this.timeMs = timeMs; }
+    }
+
+    private final Deque<Snapshot> samples = new ArrayDeque<>();
+    private ScheduledExecutorService reporter;
+
+    public static MetricsRegistry global() { return GLOBAL; }
+
+    // -------------------- Recording --------------------
+    public LongAdder counter(String name) {
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, _ -> new LongAdder());
+    }
+
+    public void increment(String name) { counter(name).increment(); }
+
+    public void add(String name, long amount) { counter(name).add(amount); }
+
+    /** Registers (or replaces) a gauge; the supplier is read on every report and must be cheap and thread-safe. */
+    public void gauge(String name, LongSupplier supplier) { gauges.put(name, supplier); }
+
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        return histogram != null ? histogram : histograms.computeIfAbsent(name, _ -> new LatencyHistogram());
+    }
+
+    /** Records the time elapsed since startNanos (a System.nanoTime() value) in microseconds. */
+    public void recordSince(String name, long startNanos) {
+        histogram(name).record((System.nanoTime() - startNanos) / 1_000L);
+    }
+
+    // -------------------- Rates --------------------
+    private Snapshot takeSnapshot() {
+        Snapshot snapshot = new Snapshot(System.currentTimeMillis());
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) snapshot.counterTotals.put(entry.getKey(), entry.getValue().sum());
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) snapshot.histogramCounts.put(entry.getKey(), entry.getValue().getCount());
+        return snapshot;
+    }
+
+    private synchronized void sample() {
+        Snapshot snapshot = takeSnapshot();
+        samples.addLast(snapshot);
+        while (samples.size() > 1 && snapshot.timeMs - samples.peekFirst().timeMs > RATE_WINDOW_MS) samples.removeFirst();
+    }
+
+    /** Oldest snapshot in the rate window, or a zero snapshot at start-up when sampling is not running. */
+    private synchronized Snapshot rateBase() {
+        return samples.isEmpty() ? new Snapshot(startedAtMs) : samples.peekFirst();
+    }
+
+    private static double ratePerSecond(long now, long then, long nowMs, long thenMs) {
+        long elapsedMs = nowMs - thenMs;
+        return elapsedMs <= 0 ? 0.0 : (now - then) * 1000.0 / elapsedMs;
+    }
+
+    /**
+     * Starts sampling for rates and, when dumpPeriodMs > 0, periodically overwrites dumpFilePath
+     * with a JSON snapshot. Calling it again has no effect.
+     */
+    public synchronized void startReporting(String dumpFilePath, long dumpPeriodMs) {
+        if (reporter != null) return;
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sample();
+        reporter.scheduleAtFixedRate(this::sample, SAMPLE_PERIOD_MS, SAMPLE_PERIOD_MS, TimeUnit.MILLISECONDS);
+        if (dumpFilePath != null && dumpPeriodMs > 0)
+            reporter.scheduleAtFixedRate(() -> dumpToFile(dumpFilePath), dumpPeriodMs, dumpPeriodMs, TimeUnit.MILLISECONDS);
+    }
+
+    // -------------------- Reporting --------------------
+    public String formatStats() {
+        long nowMs = System.currentTimeMillis();
+        Snapshot base = rateBase();
+        StringBuilder statsSB = new StringBuilder();
+        statsSB.append("Uptime: ").append(formatUptime(nowMs - startedAtMs))
+                .append("   (rates are per second over the last ").append((nowMs - base.timeMs) / 1000).append("s)\n\n");
+
+        statsSB.append(String.format("%-36s | %-12s | %-10s\n", "Counter", "Total", "Rate/s"));
+        statsSB.append("---------------------------------------------------------------\n");
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            long total = entry.getValue().sum();
+            double rate = ratePerSecond(total, base.counterTotals.getOrDefault(entry.getKey(), 0L), nowMs, base.timeMs);
+            statsSB.append(String.format("%-36s | %-12d | %-10.2f\n", entry.getKey(), total, rate));
+        }
+
+        if (!gauges.isEmpty()) {
+            statsSB.append("\n");
+            statsSB.append(String.format("%-36s | %-12s\n", "Gauge", "Value"));
+            statsSB.append("---------------------------------------------------------------\n");
+            for (Map.Entry<String, LongSupplier> entry : new TreeMap<>(gauges).entrySet())
+                statsSB.append(String.format("%-36s | %-12d\n", entry.getKey(), entry.getValue().getAsLong()));
+        }
+
+        statsSB.append("\n");
+        statsSB.append(String.format("%-36s | %-10s | %-10s | %-10s | %-10s | %-10s | %-10s\n",
+                "Latency (us)", "Count", "Rate/s", "p50", "p90", "p99", "max"));
+        statsSB.append("-----------------------------------------------------------------------------------------------------------\n");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            long count = h.getCount();
+            double rate = ratePerSecond(count, base.histogramCounts.getOrDefault(entry.getKey(), 0L), nowMs, base.timeMs);
+            statsSB.append(String.format("%-36s | %-10d | %-10.2f | %-10d | %-10d | %-10d | %-10d\n",
+                    entry.getKey(), count, rate, h.percentile(50), h.percentile(90), h.percentile(99), h.getMax()));
+        }
+        return statsSB.toString();
+    }
+
+    private static String formatUptime(long uptimeMs) {
+        long seconds = uptimeMs / 1000;
+        return String.format("%dh %02dm %02ds", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+
+    /** Machine-readable snapshot written by the periodic dump. */
+    public String toJson() {
+        long nowMs = System.currentTimeMillis();
+        Snapshot base = rateBase();
+        StringBuilder jsonSB = new StringBuilder("{\n");
+        jsonSB.append("  \"timestamp\": \"").append(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)).append("\",\n");
+        jsonSB.append("  \"uptimeMs\": ").append(nowMs - startedAtMs).append(",\n");
+
+        jsonSB.append("  \"counters\": {");
+        String separator = "\n";
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            long total = entry.getValue().sum();
+            double rate = ratePerSecond(total, base.counterTotals.getOrDefault(entry.getKey(), 0L), nowMs, base.timeMs);
+            jsonSB.append(separator).append("    \"").append(entry.getKey()).append("\": { \"total\": ")
+                    .append(total).append(", \"ratePerSec\": ").append(String.format(Locale.ROOT, "%.3f", rate)).append(" }");
+            separator = ",\n";
+        }
+        jsonSB.append(separator.equals("\n") ? "},\n" : "\n  },\n");
+
+        jsonSB.append("  \"gauges\": {");
+        separator = "\n";
+        for (Map.Entry<String, LongSupplier> entry : new TreeMap<>(gauges).entrySet()) {
+            jsonSB.append(separator).append("    \"").append(entry.getKey()).append("\": ").append(entry.getValue().getAsLong());
+            separator = ",\n";
+        }
+        jsonSB.append(separator.equals("\n") ? "},\n" : "\n  },\n");
+
+        jsonSB.append("  \"latencyUs\": {");
+        separator = "\n";
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            jsonSB.append(separator).append("    \"").append(entry.getKey()).append("\": { \"count\": ").append(h.getCount())
+                    .append(", \"p50\": ").append(h.percentile(50))
+                    .append(", \"p90\": ").append(h.percentile(90))
+                    .append(", \"p99\": ").append(h.percentile(99))
+                    .append(", \"p999\": ").append(h.percentile(99.9))
+                    .append(", \"max\": ").append(h.getMax()).append(" }");
+            separator = ",\n";
+        }
+        jsonSB.append(separator.equals("\n") ? "}\n" : "\n  }\n");
+        jsonSB.append("}\n");
+        return jsonSB.toString();
+    }
+
+    /**
+     * Prometheus text exposition (format 0.0.4). Names are prefixed with "sms_" and dots become
+     * underscores; counters get "_total", histograms become summaries in seconds.
+     */
+    public String toPrometheus() {
+        StringBuilder promSB = new StringBuilder();
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            String name = prometheusName(entry.getKey()) + "_total";
+            promSB.append("# TYPE ").append(name).append(" counter\n");
+            promSB.append(name).append(' ').append(entry.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, LongSupplier> entry : new TreeMap<>(gauges).entrySet()) {
+            String name = prometheusName(entry.getKey());
+            promSB.append("# TYPE ").append(name).append(" gauge\n");
+            promSB.append(name).append(' ').append(entry.getValue().getAsLong()).append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            String name = prometheusName(entry.getKey()) + "_seconds";
+            LatencyHistogram h = entry.getValue();
+            promSB.append("# TYPE ").append(name).append(" summary\n");
+            for (double quantile : new double[] { 0.5, 0.9, 0.99, 0.999 }) {
+                promSB.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(microsToSeconds(h.percentile(quantile * 100))).append('\n');
+            }
+            promSB.append(name).append("_sum ").append(microsToSeconds(h.getSum())).append('\n');
+            promSB.append(name).append("_count ").append(h.getCount()).append('\n');
+        }
+        return promSB.toString();
+    }
+
+    public static String prometheusName(String name) {
+        return "sms_" + name.replaceAll("[^a-zA-Z0-9_]", "_").toLowerCase(Locale.ROOT);
+    }
+
+    private static String microsToSeconds(long micros) {
+        return String.format(Locale.ROOT, "%.6f", micros / 1_000_000.0);
+    }
+
+    public void dumpToFile(String filePath) {
+        File parent = new File(filePath).getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            System.out.println("Error creating metrics directory: " + parent.getPath());
+            return;
+        }
+        try (FileWriter fw = new FileWriter(filePath)) {
+            fw.write(toJson());
+        } catch (IOException e) {
+            System.out.println("Error writing to file: " + filePath + " -> " + e.getMessage());
+        }
+    }
+}
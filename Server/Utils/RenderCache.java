@@ -0,0 +1,65 @@
+package Server.Utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Pre-rendered listings, one per view (e.g. a branch id), each tagged with the version of the data it was
+ * rendered from. The owning service bumps its version counter on every mutation that changes the view, so
+ * a read that finds the current version is served from the stored UTF-8 bytes without formatting a row,
+ * and the first read after a change renders once and replaces the entry.
+ * Views with more than maxRows rows are not cached (they are streamed instead, see Server.Listing).
+ * Hits, misses and bypasses are counted in the metrics registry under render.cache.<name>.*.
+ */
+public class RenderCache {
+
+    public static final class Rendered {
+        public final long version;
+        public final byte[] bytes;
+        public final int rows;
+
+        Rendered(long version, byte[] bytes, int rows) {
+            this.version = version;
+            this.bytes = bytes;
+            this.rows = rows;
+        }
+    }
+
+    private final String name;
+    private final int maxRows;
+    private final Map<String, Rendered> entries = new ConcurrentHashMap<>();
+
+    public RenderCache(String name, int maxRows) {
+        this.name = name;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Read the version before taking the rows: a mutation that lands meanwhile then leaves an entry tagged
+     * with the older version, which the next read replaces.
+     * @param size current row count, used to skip empty and oversized views without copying them
+     * @param rows copy of the rows to render, taken only on a miss
+     * @return the rendered view, or null when it is empty or larger than maxRows
+     */
+    public <T> Rendered get(String view, long version, int size, Supplier<? extends Collection<T>> rows,
+                            Function<Collection<T>, String> render) {
+        if (size == 0 || size > maxRows) {
+            MetricsRegistry.global().increment("render.cache." + name + ".bypass");
+            return null;
+        }
+        Rendered cached = entries.get(view);
+        if (cached != null && cached.version == version) {
+            MetricsRegistry.global().increment("render.cache." + name + ".hit");
+            return cached;
+        }
+        MetricsRegistry.global().increment("render.cache." + name + ".miss");
+        Collection<T> snapshot = rows.get();
+        Rendered rendered = new Rendered(version, render.apply(snapshot).getBytes(StandardCharsets.UTF_8), snapshot.size());
+        entries.merge(view, rendered, (old, fresh) -> fresh.version >= old.version ? fresh : old);
+        return rendered;
+    }
+}
@@ -0,0 +1,44 @@
+package Server.Utils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary encoding for small, frequently repeated strings (sender names, branch ids).
+ * Each distinct string gets a stable int id; lookups in both directions are lock-free,
+ * only the first sighting of a new string takes the lock. Entries are never removed,
+ * so use it for bounded vocabularies only.
+ */
+public class SymbolTable {
+
+    private final Map<String, Integer> idsBySymbol = new ConcurrentHashMap<>();
+    private volatile String[] symbolsById = new String[64];
+    private int size = 0;
+
+    public int idOf(String symbol) {
+        if (symbol == null) return -1;
+        Integer id = idsBySymbol.get(symbol);
+        return id != null ? id : register(symbol);
+    }
+
+    public String symbolOf(int id) {
+        if (id < 0) return null;
+        String[] symbols = symbolsById;
+        return id < symbols.length ? symbols[id] : null;
+    }
+
+    public int size() { return idsBySymbol.size(); }
+
+    private synchronized int register(String symbol) {
+        Integer existing = idsBySymbol.get(symbol);
+        if (existing != null) return existing;
+
+        String[] symbols = symbolsById;
+        if (size == symbols.length) symbols = Arrays.copyOf(symbols, size * 2);
+        symbols[size] = symbol;
+        symbolsById = symbols; // publish the slot before the id becomes visible
+        idsBySymbol.put(symbol, size);
+        return size++;
+    }
+}
@@ -2,17 +2,57 @@ package Services;
 
 import Exceptions.CustomExceptions;
 import Models.Employee;
-import java.util.HashMap;
+import Server.Utils.MetricsRegistry;
+import java.security.SecureRandom;
+import java.util.HexFormat;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Users and the sessions of the users currently logged in, shared by every client thread.
+ * A login creates a Session with a random token and claims the username with putIfAbsent, so of any
+ * number of simultaneous logins for one user exactly one wins; logout removes only the session it is
+ * given (remove(key, value)), so a stale connection can never end a newer login of the same user.
+ */
 public class AuthService {
 
+    /** One logged-in user on one client connection. */
+    public static final class Session {
+        private final String token;
+        private final Employee employee;
+        private final String connection;
+        private final long loginTimeMillis;
+
+        Session(String token, Employee employee, String connection, long loginTimeMillis) {
+            this.token = token;
+            this.employee = employee;
+            this.connection = connection;
+            this.loginTimeMillis = loginTimeMillis;
+        }
+
+        public String getToken() { return token; }
+        public Employee getEmployee() { return employee; }
+        public String getUsername() { return employee.getUserName(); }
+        /** The client connection the session belongs to (its remote address). */
+        public String getConnection() { return connection; }
+        public long getLoginTimeMillis() { return loginTimeMillis; }
+    }
+
+    private static final SecureRandom TOKEN_RANDOM = new SecureRandom();
+
     private final Map<String, Employee> users;
-    private final Map<String, Boolean> loggedInMap;
+    private final Map<String, Session> sessionsByUsername;
+    private final Map<String, Session> sessionsByToken;
 
     public AuthService() {
-        this.users = new HashMap<>();
-        this.loggedInMap = new HashMap<>();
+        this.users = new ConcurrentHashMap<>();
+        this.sessionsByUsername = new ConcurrentHashMap<>();
+        this.sessionsByToken = new ConcurrentHashMap<>();
+    }
+
+    /** Registers the gauge of logged-in users; call once for the server's instance. */
+    public void registerGauges() {
+        MetricsRegistry.global().gauge("auth.sessions.active", sessionsByUsername::size);
     }
 
     public void register(Employee employee, String username, String password) throws CustomExceptions.EmployeeException {
@@ -21,31 +61,58 @@ public class AuthService {
         }
         employee.setUserName(username);
         employee.setPassword(password);
-        users.put(username, employee);
-        loggedInMap.put(username, false);
+        if (users.putIfAbsent(username, employee) != null) { // lost a race with another registration
+            throw new CustomExceptions.InvalidUsernameException("Username already exists: " + username);
+        }
     }
 
-    public Employee login(String username, String password) throws CustomExceptions.InvalidUsernameException, CustomExceptions.InvalidPasswordException {
-        if (!users.containsKey(username)) {
+    /**
+     * Checks the credentials and claims the user for the connection.
+     * @throws CustomExceptions.InvalidUsernameException also when the user already has a session
+     */
+    public Session login(String username, String password, String connection) throws CustomExceptions.InvalidUsernameException, CustomExceptions.InvalidPasswordException {
+        Employee employee = users.get(username);
+        if (employee == null) {
+            MetricsRegistry.global().increment("auth.login.rejected.credentials");
             throw new CustomExceptions.InvalidUsernameException("The username does not exist!");
         }
-
-        Employee employee = users.get(username);
         if (!employee.getPassword().equals(password)) {
+            MetricsRegistry.global().increment("auth.login.rejected.credentials");
             throw new CustomExceptions.InvalidPasswordException("Incorrect password!");
         }
 
-        if (loggedInMap.get(username)) {
+        Session session = new Session(newToken(), employee, connection, System.currentTimeMillis());
+        if (sessionsByUsername.putIfAbsent(username, session) != null) {
+            MetricsRegistry.global().increment("auth.login.rejected.duplicate");
             throw new CustomExceptions.InvalidUsernameException("This user is already logged in!");
         }
+        sessionsByToken.put(session.getToken(), session);
+        MetricsRegistry.global().increment("auth.login.ok");
+        return session;
+    }
 
-        loggedInMap.put(username, true);
-        return employee;
+    /** Ends the session if it is still the user's current one; safe to call more than once. */
+    public void logout(Session session) {
+        if (session == null) return;
+        sessionsByToken.remove(session.getToken(), session);
+        sessionsByUsername.remove(session.getUsername(), session);
     }
 
-    public void logout(String username) {
-        if (loggedInMap.containsKey(username) && loggedInMap.get(username)) {
-            loggedInMap.put(username, false);
-        }
+    public Session getSession(String token) {
+        return token == null ? null : sessionsByToken.get(token);
+    }
+
+    public boolean isLoggedIn(String username) {
+        return sessionsByUsername.containsKey(username);
+    }
+
+    public int getActiveSessionCount() {
+        return sessionsByUsername.size();
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[16];
+        TOKEN_RANDOM.nextBytes(bytes);
+        return HexFormat.of().formatHex(bytes);
     }
 }
@@ -0,0 +1,59 @@
+package Services;
+
+import Server.Utils.EventJournal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Transport between the chat nodes (ServerApp instances) of one branch network.
+ * Each node registers under a unique node id; messages are either addressed to one node or
+ * broadcast to every other node. Delivery is asynchronous and keeps the order of messages
+ * sent from one node to another. Handlers run on a broker thread, never on the sender's thread.
+ */
+public interface ChatBroker {
+
+    final class Message {
+        private final String from;
+        private final String to;      // null = every other node
+        private final String type;
+        private final String[] fields;
+
+        public Message(String from, String to, String type, String... fields) {
+            this.from = from;
+            this.to = to;
+            this.type = type;
+            this.fields = fields;
+        }
+
+        public String getFrom() { return from; }
+        public String getTo() { return to; }
+        public String getType() { return type; }
+        public String field(int index) { return index < fields.length && fields[index] != null ? fields[index] : ""; }
+
+        /** One line, tab separated: type, from, to ("" for broadcast), fields. */
+        public String encode() {
+            StringBuilder lineSB = new StringBuilder(type).append('\t').append(EventJournal.escape(from))
+                    .append('\t').append(to == null ? "" : EventJournal.escape(to));
+            for (String field : fields) lineSB.append('\t').append(EventJournal.escape(field));
+            return lineSB.toString();
+        }
+
+        public static Message decode(String line) {
+            String[] parts = line.split("\t", -1);
+            if (parts.length < 3) return null;
+            List<String> fields = new ArrayList<>(parts.length - 3);
+            for (int i = 3; i < parts.length; i++) fields.add(EventJournal.unescape(parts[i]));
+            String to = parts[2].isEmpty() ? null : EventJournal.unescape(parts[2]);
+            return new Message(EventJournal.unescape(parts[1]), to, parts[0], fields.toArray(new String[0]));
+        }
+    }
+
+    /** Starts delivering messages addressed to nodeId (and broadcasts) to the handler. */
+    void register(String nodeId, Consumer<Message> handler);
+
+    void send(Message message);
+
+    void unregister(String nodeId);
+}
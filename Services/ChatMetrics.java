@@ -0,0 +1,158 @@
+package Services;
+
+import Server.Utils.LatencyHistogram;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chat lifecycle counters and latency histograms, broken down by branch.
+ * Hot paths only touch a LongAdder or a lock-free histogram; per-branch holders are created once.
+ * Latencies are in milliseconds. Routing metrics (requests, offers, accepts, queue wait) are keyed by
+ * the target branch, requester-side metrics (accept-to-begin, no-shows) by the requesting branch.
+ */
+public class ChatMetrics {
+
+    public static final class BranchMetrics {
+        final LongAdder requests = new LongAdder();
+        final LongAdder offers = new LongAdder();
+        final LongAdder offerTimeouts = new LongAdder();
+        final LongAdder accepts = new LongAdder();
+        final LongAdder requesterNoShows = new LongAdder();
+        final LongAdder soloAutoCloses = new LongAdder();
+        final LongAdder chatsEnded = new LongAdder();
+
+        final LatencyHistogram queueWaitAsTarget = new LatencyHistogram();
+        final LatencyHistogram queueWaitAsRequester = new LatencyHistogram();
+        final LatencyHistogram offerToAccept = new LatencyHistogram();
+        final LatencyHistogram acceptToBegin = new LatencyHistogram();
+        final LatencyHistogram chatDuration = new LatencyHistogram();
+    }
+
+    private final Map<String, BranchMetrics> metricsByBranch = new ConcurrentHashMap<>();
+
+    BranchMetrics of(String branchId) {
+        String key = branchId == null ? "-" : branchId;
+        BranchMetrics metrics = metricsByBranch.get(key);
+        return metrics != null ? metrics : metricsByBranch.computeIfAbsent(key, _ -> new BranchMetrics());
+    }
+
+    // -------------------- Recording --------------------
+    void requestQueued(String targetBranch) { of(targetBranch).requests.increment(); }
+
+    void queueWait(String targetBranch, String sourceBranch, long waitedMs) {
+        of(targetBranch).queueWaitAsTarget.record(waitedMs);
+        of(sourceBranch).queueWaitAsRequester.record(waitedMs);
+    }
+
+    void offerMade(String targetBranch) { of(targetBranch).offers.increment(); }
+    void offerTimedOut(String targetBranch) { of(targetBranch).offerTimeouts.increment(); }
+
+    void offerAccepted(String targetBranch, long offerToAcceptMs) {
+        BranchMetrics metrics = of(targetBranch);
+        metrics.accepts.increment();
+        metrics.offerToAccept.record(offerToAcceptMs);
+    }
+
+    void requesterBegan(String sourceBranch, long acceptToBeginMs) { of(sourceBranch).acceptToBegin.record(acceptToBeginMs); }
+    void requesterNoShow(String sourceBranch) { of(sourceBranch).requesterNoShows.increment(); }
+    void soloAutoClosed(String targetBranch) { of(targetBranch).soloAutoCloses.increment(); }
+
+    void chatEnded(String targetBranch, long durationMs) {
+        BranchMetrics metrics = of(targetBranch);
+        metrics.chatsEnded.increment();
+        metrics.chatDuration.record(durationMs);
+    }
+
+    // -------------------- Reporting --------------------
+    public Map<String, BranchMetrics> snapshotByBranch() { return new TreeMap<>(metricsByBranch); }
+
+    public String formatMetrics() {
+        Map<String, BranchMetrics> byBranch = snapshotByBranch();
+        if (byBranch.isEmpty()) return "No chat activity recorded yet.";
+
+        StringBuilder metricsSB = new StringBuilder();
+        metricsSB.append(String.format("%-8s | %-8s | %-8s | %-8s | %-8s | %-8s | %-10s | %-8s\n",
+                "Branch", "Requests", "Offers", "Timeouts", "Accepts", "NoShows", "SoloClosed", "Ended"));
+        metricsSB.append("---------------------------------------------------------------------------------------\n");
+        for (Map.Entry<String, BranchMetrics> entry : byBranch.entrySet()) {
+            BranchMetrics m = entry.getValue();
+            metricsSB.append(String.format("%-8s | %-8d | %-8d | %-8d | %-8d | %-8d | %-10d | %-8d\n",
+                    entry.getKey(), m.requests.sum(), m.offers.sum(), m.offerTimeouts.sum(), m.accepts.sum(),
+                    m.requesterNoShows.sum(), m.soloAutoCloses.sum(), m.chatsEnded.sum()));
+        }
+
+        metricsSB.append("\n");
+        metricsSB.append(String.format("%-8s | %-22s | %-8s | %-10s | %-10s | %-10s\n",
+                "Branch", "Stage (ms)", "Count", "p50", "p99", "max"));
+        metricsSB.append("---------------------------------------------------------------------------------------\n");
+        for (Map.Entry<String, BranchMetrics> entry : byBranch.entrySet()) {
+            BranchMetrics m = entry.getValue();
+            appendLatencyRow(metricsSB, entry.getKey(), "queue wait (target)", m.queueWaitAsTarget);
+            appendLatencyRow(metricsSB, entry.getKey(), "queue wait (requester)", m.queueWaitAsRequester);
+            appendLatencyRow(metricsSB, entry.getKey(), "offer -> accept", m.offerToAccept);
+            appendLatencyRow(metricsSB, entry.getKey(), "accept -> begin", m.acceptToBegin);
+            appendLatencyRow(metricsSB, entry.getKey(), "chat duration", m.chatDuration);
+        }
+        return metricsSB.toString();
+    }
+
+    private static void appendLatencyRow(StringBuilder metricsSB, String branch, String stage, LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) return;
+        metricsSB.append(String.format("%-8s | %-22s | %-8d | %-10d | %-10d | %-10d\n",
+                branch, stage, histogram.getCount(), histogram.percentile(50), histogram.percentile(99), histogram.getMax()));
+    }
+
+    /** Machine-readable snapshot written by the periodic dump. */
+    public String toJson() {
+        StringBuilder jsonSB = new StringBuilder("{\n");
+        jsonSB.append("  \"timestamp\": \"").append(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)).append("\",\n");
+        jsonSB.append("  \"branches\": {");
+        boolean first = true;
+        for (Map.Entry<String, BranchMetrics> entry : snapshotByBranch().entrySet()) {
+            BranchMetrics m = entry.getValue();
+            jsonSB.append(first ? "\n" : ",\n");
+            first = false;
+            jsonSB.append("    \"").append(entry.getKey()).append("\": {\n");
+            jsonSB.append("      \"requests\": ").append(m.requests.sum()).append(",\n");
+            jsonSB.append("      \"offers\": ").append(m.offers.sum()).append(",\n");
+            jsonSB.append("      \"offerTimeouts\": ").append(m.offerTimeouts.sum()).append(",\n");
+            jsonSB.append("      \"accepts\": ").append(m.accepts.sum()).append(",\n");
+            jsonSB.append("      \"requesterNoShows\": ").append(m.requesterNoShows.sum()).append(",\n");
+            jsonSB.append("      \"soloAutoCloses\": ").append(m.soloAutoCloses.sum()).append(",\n");
+            jsonSB.append("      \"chatsEnded\": ").append(m.chatsEnded.sum()).append(",\n");
+            appendJsonHistogram(jsonSB, "queueWaitAsTargetMs", m.queueWaitAsTarget, true);
+            appendJsonHistogram(jsonSB, "queueWaitAsRequesterMs", m.queueWaitAsRequester, true);
+            appendJsonHistogram(jsonSB, "offerToAcceptMs", m.offerToAccept, true);
+            appendJsonHistogram(jsonSB, "acceptToBeginMs", m.acceptToBegin, true);
+            appendJsonHistogram(jsonSB, "chatDurationMs", m.chatDuration, false);
+            jsonSB.append("    }");
+        }
+        jsonSB.append(first ? "}\n" : "\n  }\n");
+        jsonSB.append("}\n");
+        return jsonSB.toString();
+    }
+
+    private static void appendJsonHistogram(StringBuilder jsonSB, String name, LatencyHistogram histogram, boolean trailingComma) {
+        jsonSB.append("      \"").append(name).append("\": { \"count\": ").append(histogram.getCount())
+                .append(", \"p50\": ").append(histogram.percentile(50))
+                .append(", \"p99\": ").append(histogram.percentile(99))
+                .append(", \"p999\": ").append(histogram.percentile(99.9))
+                .append(", \"max\": ").append(histogram.getMax()).append(" }")
+                .append(trailingComma ? ",\n" : "\n");
+    }
+
+    public void dumpToFile(String filePath) {
+        try (FileWriter fw = new FileWriter(filePath)) {
+            fw.write(toJson());
+        } catch (IOException e) {
+            System.out.println("Error writing to file: " + filePath + " -> " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package Services;
+
+import java.util.List;
+
+/**
+ * Routing policy for the chat requests waiting on one target branch.
+ * ChatService creates one queue per target branch from its queue factory and asks it which
+ * request to offer next whenever an employee of that branch becomes idle.
+ */
+public interface ChatRequestQueue {
+
+    /** Adds a new or re-queued request. */
+    void add(ChatService.ChatRequest chatRequest);
+
+    /** Removes and returns the next request to offer, or null if the queue is empty. */
+    ChatService.ChatRequest poll();
+
+    /** Removes a specific request without serving it (e.g. cancellation). */
+    boolean remove(ChatService.ChatRequest chatRequest);
+
+    int size();
+
+    default boolean isEmpty() { return size() == 0; }
+
+    /** Point-in-time copy of the waiting requests, in no particular order. */
+    List<ChatService.ChatRequest> snapshot();
+}
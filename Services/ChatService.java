@@ -1,15 +1,25 @@
 package Services;
 
 import Exceptions.CustomExceptions;
-import Server.Utils.FileUtils;
+import Server.Utils.ChatArchiveStore;
+import Server.Utils.ChatSearchIndex;
+import Server.Utils.EventJournal;
+import Server.Utils.LatencyHistogram;
+import Server.Utils.MetricsRegistry;
+import Server.Utils.SymbolTable;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 import Models.Role;
 
@@ -17,6 +27,8 @@ import Models.Role;
  * Chat flow: queue → offer (60s) → assignee joins → requester joins (60s) → active →
  *   solo participant (120s auto-close) → end.
  * All public methods are used by ClientHandler.
+ * Clustered (nodeId + ChatBroker): a request waits on its origin node until some node advertises idle
+ * staff in the target branch, then moves there; that node owns the chat and the origin keeps a mirror.
  * Naming is explicit, comments are concise, and behavior is deterministic.
  */
 public class ChatService {
@@ -26,26 +38,62 @@ public class ChatService {
     private static final long OFFER_TIMEOUT_MS = 60_000L;        // assignee has 60s to ACCEPT
     private static final long REQUESTER_TIMEOUT_MS = 60_000L;    // requester has 60s to BEGIN
     private static final long SOLO_GRACE_MS = 120_000L;          // auto-close if only one side remains
-    private static final String CHAT_FILE = "Data/chat_history.json";
+    private static final String DATA_DIR = System.getProperty("chat.data.dir", "Data"); // overridden by harnesses
+    private static final String CHAT_FILE = DATA_DIR + "/chat_history.json";
+    private static final String CHAT_ARCHIVE_DIR = DATA_DIR + "/chat_archive";
+    private static final String CHAT_JOURNAL_FILE = DATA_DIR + "/chat_journal.log";
+    public static final int MAX_PRIORITY = 2;                    // request priority levels 0..MAX_PRIORITY
 
     // -------------------- Value Types --------------------
+    /**
+     * Compact chat message: epoch-millis timestamp and dictionary-encoded sender/branch.
+     * The terminal line is rendered and UTF-8 encoded once, on first delivery, and the same
+     * bytes are written to every recipient.
+     */
     public static class ChatMessage {
-        private final String senderName;
-        private final String senderBranch;
+        private static final SymbolTable SYMBOLS = new SymbolTable();
+        private static final DateTimeFormatter WIRE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+        private final long timestampMs;
+        private final int senderNameId;
+        private final int senderBranchId;
         private final String content;
-        private final LocalDateTime timestamp;
+        private volatile byte[] wireBytes;
 
         public ChatMessage(String senderName, String senderBranch, String content) {
-            this.senderName = senderName;
-            this.senderBranch = senderBranch;
+            this(senderName, senderBranch, content, System.currentTimeMillis());
+        }
+
+        ChatMessage(String senderName, String senderBranch, String content, long timestampMs) {
+            this.senderNameId = SYMBOLS.idOf(senderName);
+            this.senderBranchId = SYMBOLS.idOf(senderBranch);
             this.content = content;
-            this.timestamp = LocalDateTime.now();
+            this.timestampMs = timestampMs;
         }
 
-        public String getSenderName() { return senderName; }
-        public String getSenderBranch() { return senderBranch; }
+        public String getSenderName() { return SYMBOLS.symbolOf(senderNameId); }
+        public String getSenderBranch() { return SYMBOLS.symbolOf(senderBranchId); }
         public String getContent() { return content; }
-        public LocalDateTime getTimestamp() { return timestamp; }
+        public long getTimestampMs() { return timestampMs; }
+        public LocalDateTime getTimestamp() { return LocalDateTime.ofInstant(Instant.ofEpochMilli(timestampMs), ZoneId.systemDefault()); }
+
+        /** "[NEW MSG][yyyy-MM-dd HH:mm] name (branch): content" plus line separator, UTF-8; shared, do not modify. */
+        public byte[] getWireBytes() {
+            byte[] bytes = wireBytes;
+            if (bytes == null) {
+                String line = "[NEW MSG][" + WIRE_TIME_FORMAT.format(getTimestamp()) + "] " + getSenderName()
+                        + " (" + getSenderBranch() + "): " + content + System.lineSeparator();
+                bytes = line.getBytes(StandardCharsets.UTF_8);
+                wireBytes = bytes; // benign race: concurrent first deliveries render identical bytes
+            }
+            return bytes;
+        }
+
+        /** The wire line as text, without the line separator (history listings). */
+        public String getRenderedLine() {
+            byte[] bytes = getWireBytes();
+            return new String(bytes, 0, bytes.length - System.lineSeparator().length(), StandardCharsets.UTF_8);
+        }
     }
 
     public static class ChatSession {
@@ -62,6 +110,12 @@ public class ChatService {
 
         private volatile boolean active = true;
         volatile ScheduledFuture<?> soloTimer;
+        volatile Consumer<ChatMessage> journalSink;
+        volatile boolean recovered = false;
+        volatile String ownerNode;                     // non-null: mirror of a chat owned by another node
+        volatile Consumer<ChatMessage> remoteRelay;    // mirror only: hands new messages to the owner
+        volatile long acceptedAtMs = System.currentTimeMillis();
+        volatile long requesterAttachedAtMs = 0L;
 
         public ChatSession(String chatId, String requesterBranch, String targetBranch) {
             this.chatId = chatId;
@@ -87,7 +141,15 @@ public class ChatService {
         }
 
         public void addMessage(ChatMessage msg) {
+            Consumer<ChatMessage> relay = remoteRelay;
+            if (relay != null) { relay.accept(msg); return; } // the owning node stores and fans it out
+            deliver(msg);
+        }
+
+        void deliver(ChatMessage msg) {
             messages.add(msg);
+            Consumer<ChatMessage> sink = journalSink;
+            if (sink != null) sink.accept(msg);
             for (CopyOnWriteArrayList<ListenerRegistration> list : listenersByBranch.values()) {
                 for (ListenerRegistration reg : list) reg.callback.accept(msg);
             }
@@ -103,6 +165,7 @@ public class ChatService {
         public String getAssigneeSessionId() { return assigneeSessionId; }
         public void setAssigneeSessionId(String sessionId) { this.assigneeSessionId = sessionId; }
 
+        public String getRequesterBranch() { return requesterBranch; }
         public String getTargetBranch() { return targetBranch; }
 
         static final class ListenerRegistration {
@@ -115,36 +178,55 @@ public class ChatService {
     }
 
     public static class ChatRequest {
-        final String requestId = UUID.randomUUID().toString();
+        final String requestId;
         final String sourceEmployeeId;
         final String sourceBranch;
         final String targetBranch;
         final String note;
         final Consumer<String> notifyCallback; // direct callback to requester terminal
+        final int priority; // 0 = routine .. MAX_PRIORITY = most urgent
         int requesterAttachMisses = 0; // counts BEGIN no-shows (max 2)
+        volatile long enqueuedAtMs; // last time the request entered a queue
 
         public ChatRequest(String sourceBranch, String sourceEmployeeId, String targetBranch, String note, Consumer<String> notifyCallback) {
+            this(sourceBranch, sourceEmployeeId, targetBranch, note, 0, notifyCallback);
+        }
+
+        public ChatRequest(String sourceBranch, String sourceEmployeeId, String targetBranch, String note, int priority, Consumer<String> notifyCallback) {
+            this(UUID.randomUUID().toString(), sourceBranch, sourceEmployeeId, targetBranch, note, priority, notifyCallback);
+        }
+
+        ChatRequest(String requestId, String sourceBranch, String sourceEmployeeId, String targetBranch, String note, int priority, Consumer<String> notifyCallback) {
+            this.requestId = requestId;
             this.sourceBranch = sourceBranch;
             this.sourceEmployeeId = sourceEmployeeId;
             this.targetBranch = targetBranch;
             this.note = note;
+            this.priority = priority;
             this.notifyCallback = notifyCallback;
         }
+
+        public String getSourceBranch() { return sourceBranch; }
+        public String getTargetBranch() { return targetBranch; }
+        public int getPriority() { return priority; }
+        public long getEnqueuedAtMs() { return enqueuedAtMs; }
     }
 
     static final class ChatOffer {
         final ChatRequest chatRequest;
         String assigneeSessionId;
         volatile ScheduledFuture<?> offerTimeoutTask;
-        ChatOffer(String assigneeSessionId, ChatRequest chatRequest) {
+        final long offeredAtMs;
+        ChatOffer(String assigneeSessionId, ChatRequest chatRequest, long offeredAtMs) {
             this.assigneeSessionId = assigneeSessionId;
             this.chatRequest = chatRequest;
+            this.offeredAtMs = offeredAtMs;
         }
     }
 
     // -------------------- State --------------------
     private final Map<String, ChatSession> chatIdToSession = new ConcurrentHashMap<>();
-    private final Map<String, Queue<ChatRequest>> waitingRequestsByTargetBranch = new ConcurrentHashMap<>();
+    private final Map<String, ChatRequestQueue> waitingRequestsByTargetBranch = new ConcurrentHashMap<>();
     private final Map<String, Deque<String>> idleSessionsByBranch = new ConcurrentHashMap<>();
     private final Map<String, Set<String>> connectedSessionsByBranch = new ConcurrentHashMap<>();
     private final Map<String, Set<String>> activeChatsBySession = new ConcurrentHashMap<>();
@@ -153,7 +235,8 @@ public class ChatService {
     private final Map<String, Consumer<String>> directNotifyBySession = new ConcurrentHashMap<>();
     private final Map<String, ScheduledFuture<?>> requesterAttachTimersByChat = new ConcurrentHashMap<>();
 
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private final ScheduledExecutorService scheduler; // all chat timeouts
+    private final LongSupplier clock;                 // millisecond clock for timeouts and latency metrics
 
     private final ConcurrentHashMap<String, String> activeRequestDedupe = new ConcurrentHashMap<>();
     private static String makeRequestKey(String sourceEmployeeId, String sourceBranch, String targetBranch) {
@@ -165,10 +248,129 @@ public class ChatService {
     private final Map<String, String> assigneeEmployeeIdByChatId = new ConcurrentHashMap<>();
     private final Map<String, String> sessionDisplayBySessionId = new ConcurrentHashMap<>();
 
+    // Lookup indexes, maintained on every lifecycle transition
+    private final Map<String, ChatRequest> outstandingRequestsByKey = new ConcurrentHashMap<>();  // waiting or offered
+    private final Map<String, Set<String>> liveChatIdsByEmployee = new ConcurrentHashMap<>();     // original requester/assignee
+    private final Map<String, Set<String>> liveChatIdsByBranch = new ConcurrentHashMap<>();       // requester/target branch
+
+    private final ChatMetrics chatMetrics = new ChatMetrics();
+
+    private final Supplier<ChatRequestQueue> queueFactory;
+    private final ChatArchiveStore chatArchive;
+    private final ChatSearchIndex chatSearchIndex;
+    private final EventJournal chatJournal;
+
+    // Cluster state (unused when standalone)
+    private final String nodeId;
+    private final ChatBroker broker;
+    private volatile boolean clusterReady = false;
+    private final Map<String, Map<String, NodeCapacity>> remoteCapacityByBranch = new ConcurrentHashMap<>(); // branch -> node -> staff
+    private final Map<String, String> lastAdvertisedByBranch = new ConcurrentHashMap<>();
+    private final Map<String, ChatRequest> forwardedRequestsById = new ConcurrentHashMap<>();  // origin side: handed to another node
+    private final Map<String, String> originNodeByRequestId = new ConcurrentHashMap<>();       // owner side: received from another node
+    private final Map<String, Set<String>> mirrorNodesByChatId = new ConcurrentHashMap<>();    // owner side: nodes holding a mirror
+
+    private static final class NodeCapacity {
+        volatile int online;
+        volatile int idle;
+    }
+
+    public ChatService() {
+        this(FairChatRequestQueue::new);
+    }
+
+    /** @param queueFactory routing policy; one queue is created per target branch */
+    public ChatService(Supplier<ChatRequestQueue> queueFactory) {
+        this(queueFactory, null, null);
+    }
+
+    /**
+     * @param nodeId unique id of this server in the branch network, or null when running standalone
+     * @param broker transport to the other nodes, or null when running standalone
+     */
+    public ChatService(Supplier<ChatRequestQueue> queueFactory, String nodeId, ChatBroker broker) {
+        this(queueFactory, nodeId, broker, System::currentTimeMillis, Executors.newScheduledThreadPool(1));
+    }
+
+    /**
+     * Full constructor; a load generator passes a virtual clock and a matching scheduler so the
+     * 60s/120s timeouts run in simulated time. The journal always uses wall-clock time.
+     */
+    public ChatService(Supplier<ChatRequestQueue> queueFactory, String nodeId, ChatBroker broker,
+                       LongSupplier clock, ScheduledExecutorService scheduler) {
+        this.queueFactory = queueFactory;
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.nodeId = nodeId;
+        this.broker = nodeId == null ? null : broker;
+        this.chatJournal = new EventJournal(nodeId == null ? CHAT_JOURNAL_FILE : DATA_DIR + "/chat_journal-" + nodeId + ".log");
+        // Like the journal, the archive is per node: record offsets and the search index belong to one writer
+        this.chatArchive = new ChatArchiveStore(nodeId == null ? CHAT_ARCHIVE_DIR : DATA_DIR + "/chat_archive-" + nodeId);
+        this.chatSearchIndex = new ChatSearchIndex(chatArchive);
+        // First start on an existing install: migrate chat_history.json into the archive once
+        if (chatArchive.isEmpty()) chatArchive.importLegacyFile(CHAT_FILE);
+        chatSearchIndex.rebuildFromArchive();
+        recoverFromJournal();
+        registerGauges();
+        if (this.broker != null) {
+            this.broker.register(nodeId, this::onBrokerMessage);
+            clusterReady = true;
+            publish(null, "HELLO");
+        }
+    }
+
     // -------------------- Internal Helpers --------------------
-    private String newChatId() { return "CHAT-" + chatCounter.getAndIncrement(); }
+    /** Live chat state for the server STATS report; a later instance in the same JVM replaces them. */
+    private void registerGauges() {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        metrics.gauge("chat.sessions.online", directNotifyBySession::size);
+        metrics.gauge("chat.chats.live", chatIdToSession::size);
+        metrics.gauge("chat.offers.pending", pendingOffersByRequestId::size);
+        metrics.gauge("chat.requests.waiting", () -> {
+            long waiting = 0;
+            for (ChatRequestQueue queue : waitingRequestsByTargetBranch.values()) waiting += queue.size();
+            return waiting;
+        });
+    }
+
+    private String newChatId() {
+        return nodeId == null ? "CHAT-" + chatCounter.getAndIncrement() : "CHAT-" + nodeId + "-" + chatCounter.getAndIncrement();
+    }
 
     private void cancelTimer(ScheduledFuture<?> future) { if (future != null) future.cancel(false); }
+
+    private static void addToIndex(Map<String, Set<String>> index, String key, String chatId) {
+        if (key != null) index.computeIfAbsent(key, _ -> ConcurrentHashMap.newKeySet()).add(chatId);
+    }
+
+    private static void removeFromIndex(Map<String, Set<String>> index, String key, String chatId) {
+        if (key != null) index.computeIfPresent(key, (_, set) -> { set.remove(chatId); return set.isEmpty() ? null : set; });
+    }
+
+    private static String requestKeyOf(ChatRequest chatRequest) {
+        return makeRequestKey(chatRequest.sourceEmployeeId, chatRequest.sourceBranch, chatRequest.targetBranch);
+    }
+
+    /** Puts a request (new or re-queued) into its target-branch queue and the outstanding index. */
+    private void enqueueRequest(ChatRequest chatRequest) {
+        outstandingRequestsByKey.put(requestKeyOf(chatRequest), chatRequest);
+        chatRequest.enqueuedAtMs = clock.getAsLong();
+        waitingRequestsByTargetBranch.computeIfAbsent(chatRequest.targetBranch, _ -> queueFactory.get()).add(chatRequest);
+    }
+
+    private void recordQueueWait(ChatRequest chatRequest) {
+        chatMetrics.queueWait(chatRequest.targetBranch, chatRequest.sourceBranch, clock.getAsLong() - chatRequest.enqueuedAtMs);
+    }
+
+    /** Request priority derived from the requester's role. */
+    public static int priorityOf(Role role) {
+        if (role == null) return 0;
+        return switch (role) {
+            case ADMIN -> MAX_PRIORITY;
+            case SHIFT_MANAGER -> 1;
+            default -> 0;
+        };
+    }
     private static String bold(String string) { return "\u001B[1m" + string + "\u001B[0m"; }
 
     private static String jsonEscape(String s) {
@@ -203,18 +405,23 @@ public class ChatService {
     }
 
     private synchronized void tryMatch(String targetBranch) {
-        Queue<ChatRequest> queue = waitingRequestsByTargetBranch.get(targetBranch);
+        ChatRequestQueue queue = waitingRequestsByTargetBranch.get(targetBranch);
         if (queue == null) return;
         Deque<String> idleDeque = idleSessionsByBranch.get(targetBranch);
-        if (idleDeque == null) return;
 
-        while (!queue.isEmpty() && !idleDeque.isEmpty()) {
-            ChatRequest chatRequest = queue.peek();
+        while (idleDeque != null && !queue.isEmpty() && !idleDeque.isEmpty()) {
             String assigneeSessionId = idleDeque.pollFirst();
             if (assigneeSessionId == null) break;
+            ChatRequest chatRequest = queue.poll();
+            if (chatRequest == null) {
+                idleDeque.addFirst(assigneeSessionId);
+                break;
+            }
+            recordQueueWait(chatRequest);
             offerToAssignee(chatRequest, assigneeSessionId);
-            queue.remove(chatRequest);
         }
+        forwardWaitingRequests(targetBranch, queue);
+        advertiseCapacity(targetBranch);
     }
 
     private void offerToAssignee(ChatRequest chatRequest, String assigneeSessionId) {
@@ -225,7 +432,7 @@ public class ChatService {
             return;
         }
 
-        ChatOffer chatOffer = new ChatOffer(assigneeSessionId, chatRequest);
+        ChatOffer chatOffer = new ChatOffer(assigneeSessionId, chatRequest, clock.getAsLong());
         pendingOffersByRequestId.put(requestId, chatOffer);
         requestIdByAssigneeSession.put(assigneeSessionId, requestId);
 
@@ -235,35 +442,42 @@ public class ChatService {
             assigneeCallback.accept("[OFFER] Incoming chat from " + chatRequest.sourceBranch + ". Use " + bold("ACCEPT") + " to accept the chat." + noteSuffix);
         }
 
-        chatOffer.offerTimeoutTask = scheduler.schedule(() -> onOfferTimeout(requestId), OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        chatMetrics.offerMade(chatRequest.targetBranch);
+        chatJournal.append("OFFER", requestId, sessionIdToEmployeeId.getOrDefault(assigneeSessionId, ""));
+        chatOffer.offerTimeoutTask = scheduler.schedule(() -> onOfferTimeout(requestId, true), OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
     }
 
-    private void onOfferTimeout(String requestId) {
+    /** Returns the offered request to its queue; expired=false when the assignee disconnected instead. */
+    private void onOfferTimeout(String requestId, boolean expired) {
         ChatOffer chatOffer = pendingOffersByRequestId.remove(requestId);
         if (chatOffer == null) return;
+        if (expired) chatMetrics.offerTimedOut(chatOffer.chatRequest.targetBranch);
         requestIdByAssigneeSession.remove(chatOffer.assigneeSessionId, requestId);
         setIdle(chatOffer.assigneeSessionId, true);
-        waitingRequestsByTargetBranch.computeIfAbsent(chatOffer.chatRequest.targetBranch, _ -> new ConcurrentLinkedQueue<>()).add(chatOffer.chatRequest);
+        enqueueRequest(chatOffer.chatRequest);
         tryMatch(chatOffer.chatRequest.targetBranch);
     }
 
+    /** assigneeSessionId is null for a chat recovered from the journal (the assignee has to reconnect). */
     private void onRequesterAttachTimeout(ChatRequest chatRequest, ChatSession chatSession, String assigneeSessionId) {
         try {
-            Set<String> chatsOfAssignee = activeChatsBySession.get(assigneeSessionId);
+            Set<String> chatsOfAssignee = assigneeSessionId == null ? null : activeChatsBySession.get(assigneeSessionId);
             if (chatsOfAssignee != null) chatsOfAssignee.remove(chatSession.getChatId());
 
-            String targetBranch = chatSession.getBranchOfSession(assigneeSessionId);
-            if (targetBranch == null) targetBranch = chatSession.getBranchesInvolved().stream().findFirst().orElse("");
+            String targetBranch = assigneeSessionId == null ? null : chatSession.getBranchOfSession(assigneeSessionId);
+            if (targetBranch == null) targetBranch = chatSession.getBranchesInvolved().stream().findFirst().orElse(chatSession.targetBranch);
             chatSession.addMessage(new ChatMessage("SYSTEM", targetBranch, "Requester didn't answer, cancelling the chat"));
 
-            setIdle(assigneeSessionId, true);
-            endSessionOnly(chatSession);
+            if (assigneeSessionId != null) setIdle(assigneeSessionId, true);
+            endSessionOnly(chatSession, false); // the request stays outstanding until it is re-queued or cancelled
 
+            chatMetrics.requesterNoShow(chatRequest.sourceBranch);
             chatRequest.requesterAttachMisses++;
             if (chatRequest.requesterAttachMisses < 2) {
                 if (chatRequest.notifyCallback != null)
                     chatRequest.notifyCallback.accept("[INFO] You missed the window. Request re-queued.");
-                waitingRequestsByTargetBranch.computeIfAbsent(chatRequest.targetBranch, _ -> new ConcurrentLinkedQueue<>()).add(chatRequest);
+                chatJournal.append("REQUEUE", chatRequest.requestId, String.valueOf(chatRequest.requesterAttachMisses));
+                enqueueRequest(chatRequest);
                 tryMatch(chatRequest.targetBranch);
             } else {
                 if (chatRequest.notifyCallback != null)
@@ -276,32 +490,51 @@ public class ChatService {
     }
 
     private boolean hasPendingOrOffered(String employeeId, String sourceBranch, String targetBranch) {
-        Queue<ChatRequest> queue = waitingRequestsByTargetBranch.getOrDefault(targetBranch, new ConcurrentLinkedQueue<>());
-        boolean inQueue = queue.stream().anyMatch(req -> req.sourceEmployeeId.equals(employeeId) && req.sourceBranch.equals(sourceBranch));
-        if (inQueue) return true;
-        return pendingOffersByRequestId.values().stream().anyMatch(of ->
-                of.chatRequest.sourceEmployeeId.equals(employeeId)
-                        && of.chatRequest.sourceBranch.equals(sourceBranch)
-                        && of.chatRequest.targetBranch.equals(targetBranch));
+        return outstandingRequestsByKey.containsKey(makeRequestKey(employeeId, sourceBranch, targetBranch));
     }
 
     private void releaseActiveRequest(ChatRequest chatRequest) {
-        String key = makeRequestKey(chatRequest.sourceEmployeeId, chatRequest.sourceBranch, chatRequest.targetBranch);
+        String key = requestKeyOf(chatRequest);
+        outstandingRequestsByKey.remove(key, chatRequest);
         activeRequestDedupe.remove(key, chatRequest.requestId);
+        chatJournal.append("DONE", chatRequest.requestId);
+        String originNode = originNodeByRequestId.remove(chatRequest.requestId);
+        if (originNode != null) publish(originNode, "DONE", chatRequest.requestId);
     }
 
     private void endSessionOnly(ChatSession chatSession) {
+        endSessionOnly(chatSession, true);
+    }
+
+    /** releaseRequest=false keeps the originating request alive (no DONE), for a chat whose request is re-queued. */
+    private void endSessionOnly(ChatSession chatSession, boolean releaseRequest) {
         if (chatSession == null || !chatSession.isActive()) return;
         notifyParticipants(chatSession, "[NOTIFY] CHAT_ENDED " + chatSession.getChatId()); // matches ClientHandler callback
         chatSession.setActive(false);
+        if (chatSession.requesterAttachedAtMs != 0L)
+            chatMetrics.chatEnded(chatSession.targetBranch, clock.getAsLong() - chatSession.acceptedAtMs);
         cancelTimer(requesterAttachTimersByChat.remove(chatSession.getChatId()));
         cancelTimer(chatSession.soloTimer);
         chatSession.soloTimer = null;
+        chatSession.journalSink = null;
+
+        String chatId = chatSession.getChatId();
+        boolean mirror = chatSession.ownerNode != null;
+        if (!mirror) chatJournal.append("END", chatId);
+        Set<String> mirrorNodes = mirrorNodesByChatId.remove(chatId);
+        if (mirrorNodes != null) for (String node : mirrorNodes) publish(node, "ENDED", chatId);
+        if (mirror) sessionDisplayBySessionId.remove(chatSession.getAssigneeSessionId());
+
+        ChatRequest origin = requestByChatId.remove(chatId);
+        if (origin != null) {
+            if (!mirror && releaseRequest) releaseActiveRequest(origin); // a forwarded request is released by the owner's DONE
+            removeFromIndex(liveChatIdsByEmployee, origin.sourceEmployeeId, chatId);
+        }
+        removeFromIndex(liveChatIdsByEmployee, assigneeEmployeeIdByChatId.remove(chatId), chatId);
+        removeFromIndex(liveChatIdsByBranch, chatSession.requesterBranch, chatId);
+        removeFromIndex(liveChatIdsByBranch, chatSession.targetBranch, chatId);
 
-        ChatRequest origin = requestByChatId.remove(chatSession.getChatId());
-        if (origin != null) releaseActiveRequest(origin);
-
-        chatIdToSession.remove(chatSession.getChatId());
+        chatIdToSession.remove(chatId);
     }
 
     private boolean isInActiveChatOtherThan(String sessionId, String exceptChatId) {
@@ -319,14 +552,18 @@ public class ChatService {
     // -------------------- Public API (used by ClientHandler) --------------------
     public Collection<ChatSession> listAllChats() { return chatIdToSession.values(); }
     public ChatSession getChatById(String chatId) { return chatIdToSession.get(chatId); }
-    public String displayOf(String sessionId) { return sessionDisplayBySessionId.getOrDefault(sessionId, sessionId); }
+    public String displayOf(String sessionId) {
+        if (sessionId == null) return "(not connected)";
+        return sessionDisplayBySessionId.getOrDefault(sessionId, sessionId);
+    }
     
 
 
     public boolean hasOnlineInBranch(String branchId) {
     if (branchId == null) return false;
     Set<String> sessionId = connectedSessionsByBranch.get(branchId);
-    return sessionId != null && !sessionId.isEmpty();
+    if (sessionId != null && !sessionId.isEmpty()) return true;
+    return remoteCapacityByBranch.getOrDefault(branchId, Collections.emptyMap()).values().stream().anyMatch(c -> c.online > 0);
     }
 
     // Presence & readiness
@@ -339,7 +576,8 @@ public class ChatService {
     }
 
     public void disconnect(String sessionId) {
-        connectedSessionsByBranch.values().forEach(set -> set.remove(sessionId));
+        List<String> leftBranches = new ArrayList<>(1);
+        connectedSessionsByBranch.forEach((branchId, set) -> { if (set.remove(sessionId)) leftBranches.add(branchId); });
         directNotifyBySession.remove(sessionId);
 
         Set<String> chats = activeChatsBySession.getOrDefault(sessionId, Collections.emptySet());
@@ -355,9 +593,10 @@ public class ChatService {
         String requestId = requestIdByAssigneeSession.remove(sessionId);
         if (requestId != null) {
             ChatOffer chatOffer = pendingOffersByRequestId.get(requestId);
-            if (chatOffer != null && chatOffer.assigneeSessionId.equals(sessionId)) onOfferTimeout(requestId);
+            if (chatOffer != null && chatOffer.assigneeSessionId.equals(sessionId)) onOfferTimeout(requestId, false);
         }
         sessionIdToEmployeeId.remove(sessionId);
+        for (String branchId : leftBranches) advertiseCapacity(branchId);
     }
 
     public void setIdle(String sessionId, boolean idle) {
@@ -375,10 +614,15 @@ public class ChatService {
         } else {
             idleDeque.remove(sessionId);
         }
+        advertiseCapacity(branchId);
     }
 
     // Request life-cycle
     public void requestChatFromBranch(String sourceBranch, String sourceEmployeeId, String targetBranch, String note, Consumer<String> requesterNotify) {
+        requestChatFromBranch(sourceBranch, sourceEmployeeId, null, targetBranch, note, requesterNotify);
+    }
+
+    public void requestChatFromBranch(String sourceBranch, String sourceEmployeeId, Role requesterRole, String targetBranch, String note, Consumer<String> requesterNotify) {
         final String key = makeRequestKey(sourceEmployeeId, sourceBranch, targetBranch);
         String existing = activeRequestDedupe.putIfAbsent(key, "__PENDING__");
         if (existing != null) {
@@ -391,9 +635,13 @@ public class ChatService {
                 activeRequestDedupe.remove(key);
                 return;
             }
-            ChatRequest chatRequest = new ChatRequest(sourceBranch, sourceEmployeeId, targetBranch, note, requesterNotify);
+            ChatRequest chatRequest = new ChatRequest(sourceBranch, sourceEmployeeId, targetBranch, note, priorityOf(requesterRole), requesterNotify);
             activeRequestDedupe.replace(key, chatRequest.requestId);
-            waitingRequestsByTargetBranch.computeIfAbsent(targetBranch, _ -> new ConcurrentLinkedQueue<>()).add(chatRequest);
+            chatJournal.append("REQUEST", chatRequest.requestId, sourceBranch, sourceEmployeeId, targetBranch,
+                    String.valueOf(chatRequest.priority), note == null ? "" : note);
+            chatMetrics.requestQueued(targetBranch);
+            MetricsRegistry.global().increment("chat.requests");
+            enqueueRequest(chatRequest);
             tryMatch(targetBranch);
         } catch (RuntimeException e) {
             activeRequestDedupe.remove(key);
@@ -414,16 +662,31 @@ public class ChatService {
             throw new CustomExceptions.ChatException("You are already in a chat.");
 
         cancelTimer(chatOffer.offerTimeoutTask);
+        chatMetrics.offerAccepted(chatOffer.chatRequest.targetBranch, clock.getAsLong() - chatOffer.offeredAtMs);
         Deque<String> idleDeque = idleSessionsByBranch.get(chatOffer.chatRequest.targetBranch);
         if (idleDeque != null) idleDeque.remove(assigneeSessionId);
 
         String chatId = newChatId();
         String assigneeEmployeeId = sessionIdToEmployeeId.get(assigneeSessionId);
         ChatSession chatSession = new ChatSession(chatId, chatOffer.chatRequest.sourceBranch, chatOffer.chatRequest.targetBranch);
+        chatSession.acceptedAtMs = clock.getAsLong();
         chatIdToSession.put(chatId, chatSession);
         requestByChatId.put(chatId, chatOffer.chatRequest);
         if (assigneeEmployeeId != null) assigneeEmployeeIdByChatId.put(chatId, assigneeEmployeeId);
 
+        outstandingRequestsByKey.remove(requestKeyOf(chatOffer.chatRequest), chatOffer.chatRequest);
+        addToIndex(liveChatIdsByEmployee, chatOffer.chatRequest.sourceEmployeeId, chatId);
+        addToIndex(liveChatIdsByEmployee, assigneeEmployeeId, chatId);
+        addToIndex(liveChatIdsByBranch, chatOffer.chatRequest.sourceBranch, chatId);
+        addToIndex(liveChatIdsByBranch, chatOffer.chatRequest.targetBranch, chatId);
+        chatJournal.append("ACCEPT", chatOffer.chatRequest.requestId, chatId, assigneeEmployeeId == null ? "" : assigneeEmployeeId);
+        chatSession.journalSink = msg -> journalMessage(chatId, msg);
+        String originNode = originNodeByRequestId.get(requestId);
+        if (originNode != null) {
+            mirrorNodesByChatId.computeIfAbsent(chatId, _ -> ConcurrentHashMap.newKeySet()).add(originNode);
+            publish(originNode, "ACCEPTED", requestId, chatId, assigneeEmployeeId == null ? "" : assigneeEmployeeId, displayOf(assigneeSessionId));
+        }
+
         chatSession.setAssigneeSessionId(assigneeSessionId);
         chatSession.addListener(chatOffer.chatRequest.targetBranch, assigneeSessionId, assigneeListener);
         activeChatsBySession.computeIfAbsent(assigneeSessionId, _ -> ConcurrentHashMap.newKeySet()).add(chatId);
@@ -444,21 +707,18 @@ public class ChatService {
         return chatId;
     }
 
+    /** Joinable = original requester/assignee chats plus, for a SHIFT_MANAGER, every chat touching their branch. */
     public List<ChatSession> listJoinableChatsForEmployee(String employeeId, Role role, String branchId, String currentSessionId) {
-        List<ChatSession> result = new ArrayList<>();
-        for (ChatSession chatSession : chatIdToSession.values()) {
-            if (!chatSession.isActive()) continue;
-            if (currentSessionId != null && chatSession.getParticipants().contains(currentSessionId)) continue;
-
-            boolean isOriginalRequester = false;
-            ChatRequest request = requestByChatId.get(chatSession.getChatId());
-            if (request != null) isOriginalRequester = Objects.equals(request.sourceEmployeeId, employeeId);
+        Set<String> candidateChatIds = new LinkedHashSet<>(liveChatIdsByEmployee.getOrDefault(employeeId, Collections.emptySet()));
+        if (role == Role.SHIFT_MANAGER && branchId != null)
+            candidateChatIds.addAll(liveChatIdsByBranch.getOrDefault(branchId, Collections.emptySet()));
 
-            boolean isOriginalAssignee = Objects.equals(assigneeEmployeeIdByChatId.get(chatSession.getChatId()), employeeId);
-            boolean isShiftManagerOfChatBranches = role == Role.SHIFT_MANAGER &&
-                    (Objects.equals(branchId, chatSession.requesterBranch) || Objects.equals(branchId, chatSession.targetBranch));
-
-            if (isOriginalRequester || isOriginalAssignee || isShiftManagerOfChatBranches) result.add(chatSession);
+        List<ChatSession> result = new ArrayList<>(candidateChatIds.size());
+        for (String chatId : candidateChatIds) {
+            ChatSession chatSession = chatIdToSession.get(chatId);
+            if (chatSession == null || !chatSession.isActive()) continue;
+            if (currentSessionId != null && chatSession.getParticipants().contains(currentSessionId)) continue;
+            result.add(chatSession);
         }
         return result;
     }
@@ -486,6 +746,18 @@ public class ChatService {
         Deque<String> requesterIdle = idleSessionsByBranch.get(requesterBranch);
         if (requesterIdle != null) requesterIdle.remove(requesterSessionId);
 
+        if (chatSession.ownerNode != null) attachToOwner(chatSession, requesterBranch, "BEGIN");
+        else onRequesterAttached(chatSession, requesterBranch);
+    }
+
+    private void onRequesterAttached(ChatSession chatSession, String requesterBranch) {
+        String chatId = chatSession.getChatId();
+        chatJournal.append("BEGIN", chatId, requesterBranch);
+        if (chatSession.requesterAttachedAtMs == 0L) {
+            chatSession.requesterAttachedAtMs = clock.getAsLong();
+            chatMetrics.requesterBegan(chatSession.requesterBranch, chatSession.requesterAttachedAtMs - chatSession.acceptedAtMs);
+        }
+
         cancelTimer(requesterAttachTimersByChat.remove(chatId));
         cancelTimer(chatSession.soloTimer);
         chatSession.soloTimer = null;
@@ -510,8 +782,18 @@ public class ChatService {
         activeChatsBySession.computeIfAbsent(sessionId, _ -> ConcurrentHashMap.newKeySet()).add(chatId);
         setIdle(sessionId, false);
 
-        cancelTimer(chatSession.soloTimer);
-        chatSession.soloTimer = null;
+        if (chatSession.ownerNode != null) attachToOwner(chatSession, branchId, "JOIN");
+        else onParticipantJoined(chatSession, branchId);
+    }
+
+    private void onParticipantJoined(ChatSession chatSession, String branchId) {
+        chatJournal.append("JOIN", chatSession.getChatId(), branchId);
+
+        // A recovered chat keeps its countdown until both sides are back
+        if (!chatSession.recovered || chatSession.getBranchesInvolved().size() > 1) {
+            cancelTimer(chatSession.soloTimer);
+            chatSession.soloTimer = null;
+        }
     }
 
     public void sendMessage(String chatId, String fromSessionId, String senderName, String text) throws CustomExceptions.ChatException {
@@ -519,7 +801,9 @@ public class ChatService {
         if (chatSession == null || !chatSession.isActive()) throw new CustomExceptions.ChatException("Chat not found or inactive.");
         String branchId = chatSession.getBranchOfSession(fromSessionId);
         if (branchId == null) throw new CustomExceptions.ChatException("You are not a participant of this chat.");
+        long start = System.nanoTime();
         chatSession.addMessage(new ChatMessage(senderName, branchId, text));
+        MetricsRegistry.global().recordSince("chat.send", start);
     }
 
     public void leaveChatAsUser(String chatId, String branchId, String sessionId) {
@@ -530,6 +814,14 @@ public class ChatService {
         Set<String> chatSet = activeChatsBySession.get(sessionId);
         if (chatSet != null) chatSet.remove(chatId);
 
+        if (chatSession.ownerNode != null) {
+            // The owner keeps one participant per (node, branch); it decides about solo-close and ending
+            if (!chatSession.getBranchesInvolved().contains(branchId)) publish(chatSession.ownerNode, "DETACH", chatId, branchId);
+            setIdle(sessionId, true);
+            return;
+        }
+        chatJournal.append("LEAVE", chatId, branchId);
+
         if (chatSession.getParticipants().isEmpty()) {
             endSessionOnly(chatSession);
             return;
@@ -537,27 +829,69 @@ public class ChatService {
 
         if (chatSession.getBranchesInvolved().size() == 1) {
             chatSession.addMessage(new ChatMessage("SYSTEM", branchId, "Peer left. Chat will auto-close in 2 minutes unless someone rejoins."));
-            cancelTimer(chatSession.soloTimer);
-            chatSession.soloTimer = scheduler.schedule(() -> {
-                saveChatHistory(chatSession.getChatId());
-                chatSession.addMessage(new ChatMessage("SYSTEM", branchId, "Chat auto-closed, Chat history saved."));
-                endSessionOnly(chatSession);
-            }, SOLO_GRACE_MS, TimeUnit.MILLISECONDS);
+            scheduleSoloClose(chatSession, branchId, SOLO_GRACE_MS);
         }
 
         setIdle(sessionId, true);
     }
 
+    private void scheduleSoloClose(ChatSession chatSession, String branchId, long delayMs) {
+        cancelTimer(chatSession.soloTimer);
+        chatSession.soloTimer = scheduler.schedule(() -> {
+            chatMetrics.soloAutoClosed(chatSession.targetBranch);
+            saveChatHistory(chatSession.getChatId());
+            chatSession.addMessage(new ChatMessage("SYSTEM", branchId, "Chat auto-closed, Chat history saved."));
+            endSessionOnly(chatSession);
+            releaseParticipants(chatSession);
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
     public void endChat(String chatId) {
         ChatSession chatSession = chatIdToSession.get(chatId);
         if (chatSession == null) return;
+        if (chatSession.ownerNode != null) {
+            publish(chatSession.ownerNode, "END", chatId); // the owner answers with ENDED
+            return;
+        }
+        closeChat(chatSession);
+    }
 
+    private void closeChat(ChatSession chatSession) {
+        String chatId = chatSession.getChatId();
         notifyParticipants(chatSession, "[NOTIFY] CHAT_ENDED " + chatId);
         endSessionOnly(chatSession);
+        releaseParticipants(chatSession);
+    }
+
+    /**
+     * Graceful shutdown: saves and ends every chat this node owns, so participants get CHAT_ENDED and the
+     * journal records the END (nothing to recover on the next start). Mirrors of chats owned by another
+     * node are left to their owner.
+     * @return number of chats ended
+     */
+    public int endAllChats() {
+        int ended = 0;
+        for (ChatSession chatSession : new ArrayList<>(chatIdToSession.values())) {
+            if (chatSession.ownerNode != null || !chatSession.isActive()) continue;
+            saveChatHistory(chatSession.getChatId());
+            closeChat(chatSession);
+            ended++;
+        }
+        return ended;
+    }
+
+    /** Stops the chat timers, leaves the broker and closes the journal; call after endAllChats. */
+    public void close() {
+        scheduler.shutdownNow();
+        if (broker != null) broker.unregister(nodeId);
+        chatJournal.close();
+    }
 
+    /** Makes the remaining participants of an ended chat available for new offers. */
+    private void releaseParticipants(ChatSession chatSession) {
         for (String sessionId : new ArrayList<>(chatSession.getParticipants())) {
             Set<String> set = activeChatsBySession.get(sessionId);
-            if (set != null) set.remove(chatId);
+            if (set != null) set.remove(chatSession.getChatId());
             setIdle(sessionId, true);
         }
     }
@@ -565,14 +899,20 @@ public class ChatService {
     public void saveChatHistory(String chatId) {
         ChatSession chatSession = getChatById(chatId);
         if (chatSession == null) return;
+        if (chatSession.ownerNode != null) {
+            publish(chatSession.ownerNode, "SAVE", chatId); // the owner holds the full history
+            return;
+        }
 
         String date = LocalDate.now().toString();
         String time = LocalTime.now().format(DateTimeFormatter.ofPattern("HH:mm"));
 
         
+        List<String> msgLines = new ArrayList<>();
         List<String> msgLiterals = new ArrayList<>();
         for (ChatMessage m : chatSession.getMessages()) {
             String line = m.getSenderName() + " (" + m.getSenderBranch() + "): " + m.getContent();
+            msgLines.add(line);
             msgLiterals.add("    \"" + jsonEscape(line) + "\"");
         }
 
@@ -587,34 +927,474 @@ public class ChatService {
             "  ]\n" +
             "}";
 
-        
-        List<String> existing = FileUtils.readJsonObjectsFromFile(CHAT_FILE);
-        List<String> cleaned = getStringList(existing, newObject);
+        ChatArchiveStore.Entry entry = chatArchive.append(chatSession.getChatId(), date, time,
+                List.of(chatSession.getRequesterBranch(), chatSession.getTargetBranch()), newObject);
+        if (entry != null) chatSearchIndex.indexChat(entry, msgLines);
+    }
 
+    // -------------------- Journal & Recovery --------------------
+    private void journalMessage(String chatId, ChatMessage msg) {
+        chatJournal.append("MSG", chatId, msg.getSenderName(), msg.getSenderBranch(), msg.getContent(),
+                String.valueOf(msg.getTimestampMs()));
+    }
 
-        FileUtils.saveToFile(CHAT_FILE, cleaned, s -> s);
+    private static final class RecoveredRequest {
+        final String requestId, sourceBranch, sourceEmployeeId, targetBranch, note, originNode;
+        final int priority;
+        int misses = 0;
+        long enqueuedAtMs;
+        String chatId; // null while waiting in a queue
+
+        RecoveredRequest(EventJournal.Event event) {
+            this.requestId = event.field(0);
+            this.sourceBranch = event.field(1);
+            this.sourceEmployeeId = event.field(2);
+            this.targetBranch = event.field(3);
+            int parsedPriority;
+            try { parsedPriority = Integer.parseInt(event.field(4)); } catch (NumberFormatException e) { parsedPriority = 0; }
+            this.priority = parsedPriority;
+            this.note = event.field(5);
+            this.originNode = event.field(6).isEmpty() ? null : event.field(6);
+            this.enqueuedAtMs = event.getTimestampMs();
+        }
     }
 
-    private static List<String> getStringList(List<String> existing, String newObject) {
-        List<String> cleaned = new ArrayList<>();
+    private static final class RecoveredChat {
+        final String chatId, requestId, assigneeEmployeeId;
+        final long acceptedAtMs;
+        long beganAtMs = 0L;
+        long soloSinceMs = 0L;
+        final Map<String, Integer> attachedByBranch = new HashMap<>();
+        final List<ChatMessage> messages = new ArrayList<>();
+        final List<String[]> messageEvents = new ArrayList<>();
 
-        for (String obj : existing) {
-            if (obj == null) continue;
-            String t = obj.trim();
-            if (t.isEmpty()) continue;
+        RecoveredChat(String chatId, String requestId, String assigneeEmployeeId, long acceptedAtMs) {
+            this.chatId = chatId;
+            this.requestId = requestId;
+            this.assigneeEmployeeId = assigneeEmployeeId;
+            this.acceptedAtMs = acceptedAtMs;
+        }
+
+        void attach(String branchId, long timestampMs) {
+            attachedByBranch.merge(branchId, 1, Integer::sum);
+            if (attachedByBranch.size() > 1) soloSinceMs = 0L;
+        }
 
+        void detach(String branchId, long timestampMs) {
+            attachedByBranch.computeIfPresent(branchId, (_, count) -> count > 1 ? count - 1 : null);
+            if (attachedByBranch.size() == 1 && soloSinceMs == 0L) soloSinceMs = timestampMs;
+        }
+    }
 
-            if (t.equals("[") || t.equals("]") || t.equals(",")) continue;
+    /**
+     * Rebuilds waiting requests and live chats from the journal, then compacts it to that live state.
+     * Sessions and offers are not recoverable (every terminal reconnects), so offered requests go back
+     * to their queue and recovered chats wait for participants to JOIN/BEGIN again. Timeouts resume with
+     * the time that was left when the server stopped; downtime does not count against them.
+     */
+    private void recoverFromJournal() {
+        Map<String, RecoveredRequest> requests = new LinkedHashMap<>();
+        Map<String, RecoveredChat> chats = new LinkedHashMap<>();
+        long[] lastEventMs = {0L};
+        int[] maxChatNumber = {chatCounter.get() - 1};
+
+        chatJournal.replay(event -> {
+            lastEventMs[0] = Math.max(lastEventMs[0], event.getTimestampMs());
+            long ts = event.getTimestampMs();
+            switch (event.getType()) {
+                case "REQUEST" -> requests.put(event.field(0), new RecoveredRequest(event));
+                case "REQUEUE" -> {
+                    RecoveredRequest request = requests.get(event.field(0));
+                    if (request != null) {
+                        request.chatId = null;
+                        request.enqueuedAtMs = ts;
+                        try { request.misses = Integer.parseInt(event.field(1)); } catch (NumberFormatException ignored) {}
+                    }
+                }
+                case "DONE", "FORWARD" -> requests.remove(event.field(0)); // forwarded: now journaled by its new node
+                case "ACCEPT" -> {
+                    RecoveredRequest request = requests.get(event.field(0));
+                    if (request == null) return;
+                    request.chatId = event.field(1);
+                    RecoveredChat chat = new RecoveredChat(event.field(1), request.requestId, event.field(2), ts);
+                    chat.attach(request.targetBranch, ts);
+                    chats.put(chat.chatId, chat);
+                    try { maxChatNumber[0] = Math.max(maxChatNumber[0], Integer.parseInt(chat.chatId.substring(chat.chatId.lastIndexOf('-') + 1))); }
+                    catch (RuntimeException ignored) {}
+                }
+                case "BEGIN", "JOIN" -> {
+                    RecoveredChat chat = chats.get(event.field(0));
+                    if (chat == null) return;
+                    if (event.getType().equals("BEGIN") && chat.beganAtMs == 0L) chat.beganAtMs = ts;
+                    chat.attach(event.field(1), ts);
+                }
+                case "LEAVE" -> {
+                    RecoveredChat chat = chats.get(event.field(0));
+                    if (chat != null) chat.detach(event.field(1), ts);
+                }
+                case "RECOVERED" -> {
+                    RecoveredChat chat = chats.get(event.field(0));
+                    if (chat != null) {
+                        chat.attachedByBranch.clear();
+                        chat.soloSinceMs = ts;
+                    }
+                }
+                case "MSG" -> {
+                    RecoveredChat chat = chats.get(event.field(0));
+                    if (chat == null) return;
+                    long sentAtMs;
+                    try { sentAtMs = Long.parseLong(event.field(4)); } catch (NumberFormatException e) { sentAtMs = ts; }
+                    chat.messages.add(new ChatMessage(event.field(1), event.field(2), event.field(3), sentAtMs));
+                    chat.messageEvents.add(new String[] { "MSG", String.valueOf(ts), chat.chatId,
+                            event.field(1), event.field(2), event.field(3), String.valueOf(sentAtMs) });
+                }
+                case "END" -> chats.remove(event.field(0));
+                default -> { } // OFFER is informational: offers die with their session
+            }
+        });
+        if (maxChatNumber[0] >= chatCounter.get()) chatCounter.set(maxChatNumber[0] + 1);
+
+        long now = System.currentTimeMillis();
+        long downtimeMs = lastEventMs[0] == 0L ? 0L : Math.max(0L, now - lastEventMs[0]);
+        List<String[]> compacted = new ArrayList<>();
+        int recoveredRequests = 0;
+        int recoveredChats = 0;
+
+        for (RecoveredRequest recovered : requests.values()) {
+            String employeeId = recovered.sourceEmployeeId;
+            String originNode = recovered.originNode;
+            Consumer<String> notify = originNode == null ? msg -> notifyEmployee(employeeId, msg)
+                    : msg -> publish(originNode, "NOTICE", recovered.requestId, msg);
+            ChatRequest chatRequest = new ChatRequest(recovered.requestId, recovered.sourceBranch, employeeId,
+                    recovered.targetBranch, recovered.note, recovered.priority, notify);
+            chatRequest.requesterAttachMisses = recovered.misses;
+            activeRequestDedupe.put(requestKeyOf(chatRequest), chatRequest.requestId);
+            if (originNode != null) originNodeByRequestId.put(chatRequest.requestId, originNode);
+
+            compacted.add(new String[] { "REQUEST", String.valueOf(recovered.enqueuedAtMs + downtimeMs), recovered.requestId,
+                    recovered.sourceBranch, employeeId, recovered.targetBranch, String.valueOf(recovered.priority), recovered.note,
+                    originNode == null ? "" : originNode });
+            if (recovered.misses > 0)
+                compacted.add(new String[] { "REQUEUE", String.valueOf(recovered.enqueuedAtMs + downtimeMs), recovered.requestId, String.valueOf(recovered.misses) });
+
+            RecoveredChat chat = recovered.chatId == null ? null : chats.get(recovered.chatId);
+            if (chat == null) {
+                enqueueRequest(chatRequest);
+                chatRequest.enqueuedAtMs = recovered.enqueuedAtMs + downtimeMs; // keep its age for aging
+                recoveredRequests++;
+                continue;
+            }
 
+            restoreChat(chatRequest, chat, downtimeMs, compacted);
+            recoveredChats++;
+        }
 
-            if (t.startsWith(",")) t = t.substring(1).trim();
-            if (t.endsWith(","))   t = t.substring(0, t.length() - 1).trim();
+        chatJournal.rewrite(compacted);
+        for (String chatId : chatIdToSession.keySet()) chatJournal.append("RECOVERED", chatId);
+        for (String targetBranch : waitingRequestsByTargetBranch.keySet()) tryMatch(targetBranch);
 
-            if (!t.isEmpty()) cleaned.add(t);
+        if (recoveredRequests > 0 || recoveredChats > 0)
+            System.out.println("Recovered " + recoveredRequests + " waiting chat requests and " + recoveredChats + " live chats from journal.");
+    }
+
+    private void restoreChat(ChatRequest chatRequest, RecoveredChat chat, long downtimeMs, List<String[]> compacted) {
+        String chatId = chat.chatId;
+        ChatSession chatSession = new ChatSession(chatId, chatRequest.sourceBranch, chatRequest.targetBranch);
+        chatSession.recovered = true;
+        chatSession.acceptedAtMs = chat.acceptedAtMs + downtimeMs;
+        if (chat.beganAtMs != 0L) chatSession.requesterAttachedAtMs = chat.beganAtMs + downtimeMs;
+        chatSession.messages.addAll(chat.messages);
+        chatSession.journalSink = msg -> journalMessage(chatId, msg);
+        String originNode = originNodeByRequestId.get(chatRequest.requestId);
+        if (originNode != null) mirrorNodesByChatId.computeIfAbsent(chatId, _ -> ConcurrentHashMap.newKeySet()).add(originNode);
+
+        String assigneeEmployeeId = chat.assigneeEmployeeId.isEmpty() ? null : chat.assigneeEmployeeId;
+        chatIdToSession.put(chatId, chatSession);
+        requestByChatId.put(chatId, chatRequest);
+        if (assigneeEmployeeId != null) assigneeEmployeeIdByChatId.put(chatId, assigneeEmployeeId);
+        addToIndex(liveChatIdsByEmployee, chatRequest.sourceEmployeeId, chatId);
+        addToIndex(liveChatIdsByEmployee, assigneeEmployeeId, chatId);
+        addToIndex(liveChatIdsByBranch, chatRequest.sourceBranch, chatId);
+        addToIndex(liveChatIdsByBranch, chatRequest.targetBranch, chatId);
+
+        compacted.add(new String[] { "ACCEPT", String.valueOf(chat.acceptedAtMs + downtimeMs), chatRequest.requestId, chatId, chat.assigneeEmployeeId });
+        if (chat.beganAtMs != 0L)
+            compacted.add(new String[] { "BEGIN", String.valueOf(chat.beganAtMs + downtimeMs), chatId, chatRequest.sourceBranch });
+        if (chat.soloSinceMs != 0L)
+            compacted.add(new String[] { "RECOVERED", String.valueOf(chat.soloSinceMs + downtimeMs), chatId });
+        compacted.addAll(chat.messageEvents);
+
+        long stoppedAtMs = System.currentTimeMillis() - downtimeMs;
+        if (chat.beganAtMs == 0L) {
+            long remainingMs = Math.max(0L, REQUESTER_TIMEOUT_MS - (stoppedAtMs - chat.acceptedAtMs));
+            requesterAttachTimersByChat.put(chatId, scheduler.schedule(
+                    () -> onRequesterAttachTimeout(chatRequest, chatSession, null), remainingMs, TimeUnit.MILLISECONDS));
+        } else {
+            long soloSinceMs = chat.soloSinceMs != 0L ? chat.soloSinceMs : stoppedAtMs;
+            long remainingMs = Math.max(0L, SOLO_GRACE_MS - (stoppedAtMs - soloSinceMs));
+            scheduleSoloClose(chatSession, chatRequest.targetBranch, remainingMs);
         }
+    }
+
+    /** Delivers a notice to every connected session of an employee (used for recovered requests). */
+    private void notifyEmployee(String employeeId, String message) {
+        for (Map.Entry<String, String> entry : sessionIdToEmployeeId.entrySet()) {
+            if (!entry.getValue().equals(employeeId)) continue;
+            Consumer<String> callback = directNotifyBySession.get(entry.getKey());
+            if (callback != null) callback.accept(message);
+        }
+    }
+
+    // -------------------- Cluster --------------------
+    private void publish(String toNode, String type, String... fields) {
+        if (broker == null || !clusterReady) return;
+        broker.send(new ChatBroker.Message(nodeId, toNode, type, fields));
+    }
 
+    private static String remoteSessionId(String node, String branchId) { return "node:" + node + ":" + branchId; }
+
+    /** Tells the other nodes how many employees of a branch are online / idle here (only on change). */
+    private void advertiseCapacity(String branchId) {
+        if (broker == null || branchId == null) return;
+        int online = connectedSessionsByBranch.getOrDefault(branchId, Collections.emptySet()).size();
+        Deque<String> idleDeque = idleSessionsByBranch.get(branchId);
+        int idle = idleDeque == null ? 0 : idleDeque.size();
+        String state = online + "/" + idle;
+        if (state.equals(lastAdvertisedByBranch.put(branchId, state))) return;
+        publish(null, "CAPACITY", branchId, String.valueOf(online), String.valueOf(idle));
+    }
+
+    /**
+     * Hands local waiting requests to nodes that advertise idle staff in the target branch, as long as
+     * this node has none. Requests received from another node are only served where they are.
+     */
+    private synchronized void forwardWaitingRequests(String targetBranch, ChatRequestQueue queue) {
+        Map<String, NodeCapacity> capacityByNode = remoteCapacityByBranch.get(targetBranch);
+        if (capacityByNode == null || queue.isEmpty()) return;
+        Deque<String> localIdle = idleSessionsByBranch.get(targetBranch);
+        if (localIdle != null && !localIdle.isEmpty()) return;
+
+        for (Map.Entry<String, NodeCapacity> entry : capacityByNode.entrySet()) {
+            NodeCapacity capacity = entry.getValue();
+            int budget = queue.size();
+            while (capacity.idle > 0 && budget-- > 0) {
+                ChatRequest chatRequest = queue.poll();
+                if (chatRequest == null) return;
+                if (originNodeByRequestId.containsKey(chatRequest.requestId)) {
+                    queue.add(chatRequest);
+                    continue;
+                }
+                capacity.idle--; // optimistic until that node advertises again
+                recordQueueWait(chatRequest);
+                forwardedRequestsById.put(chatRequest.requestId, chatRequest);
+                chatJournal.append("FORWARD", chatRequest.requestId, entry.getKey());
+                publish(entry.getKey(), "REQUEST", chatRequest.requestId, chatRequest.sourceBranch, chatRequest.sourceEmployeeId,
+                        chatRequest.targetBranch, String.valueOf(chatRequest.priority), chatRequest.note == null ? "" : chatRequest.note);
+            }
+        }
+    }
+
+    private void onBrokerMessage(ChatBroker.Message message) {
+        try {
+            String fromNode = message.getFrom();
+            switch (message.getType()) {
+                case "HELLO" -> { // a node (re)joined: repeat our capacity for it
+                    lastAdvertisedByBranch.clear();
+                    for (String branchId : connectedSessionsByBranch.keySet()) advertiseCapacity(branchId);
+                }
+                case "CAPACITY" -> {
+                    String targetBranch = message.field(0);
+                    NodeCapacity capacity = remoteCapacityByBranch.computeIfAbsent(targetBranch, _ -> new ConcurrentHashMap<>())
+                            .computeIfAbsent(fromNode, _ -> new NodeCapacity());
+                    capacity.online = Integer.parseInt(message.field(1));
+                    capacity.idle = Integer.parseInt(message.field(2));
+                    ChatRequestQueue queue = waitingRequestsByTargetBranch.get(targetBranch);
+                    if (capacity.idle > 0 && queue != null) forwardWaitingRequests(targetBranch, queue);
+                }
+                case "REQUEST" -> onRemoteRequest(message);
+                case "NOTICE" -> {
+                    ChatRequest chatRequest = forwardedRequestsById.get(message.field(0));
+                    if (chatRequest != null && chatRequest.notifyCallback != null) chatRequest.notifyCallback.accept(message.field(1));
+                }
+                case "DONE" -> {
+                    ChatRequest chatRequest = forwardedRequestsById.remove(message.field(0));
+                    if (chatRequest != null) releaseActiveRequest(chatRequest);
+                }
+                case "ACCEPTED" -> onRemoteAccepted(message);
+                case "ATTACH" -> onRemoteAttach(message);
+                case "DETACH" -> leaveChatAsUser(message.field(0), message.field(1), remoteSessionId(fromNode, message.field(1)));
+                case "SEND" -> {
+                    ChatSession chatSession = chatIdToSession.get(message.field(0));
+                    if (chatSession != null && chatSession.isActive() && chatSession.ownerNode == null)
+                        chatSession.addMessage(new ChatMessage(message.field(1), message.field(2), message.field(3)));
+                }
+                case "MSG" -> {
+                    ChatSession chatSession = chatIdToSession.get(message.field(0));
+                    if (chatSession == null || chatSession.ownerNode == null) return;
+                    chatSession.deliver(new ChatMessage(message.field(1), message.field(2), message.field(3), Long.parseLong(message.field(4))));
+                }
+                case "SAVE" -> {
+                    ChatSession chatSession = chatIdToSession.get(message.field(0));
+                    if (chatSession != null && chatSession.ownerNode == null) saveChatHistory(chatSession.getChatId());
+                }
+                case "END" -> {
+                    ChatSession chatSession = chatIdToSession.get(message.field(0));
+                    if (chatSession != null && chatSession.ownerNode == null) closeChat(chatSession);
+                    else publish(fromNode, "ENDED", message.field(0)); // already gone: let the mirror go too
+                }
+                case "ENDED" -> {
+                    ChatSession chatSession = chatIdToSession.get(message.field(0));
+                    if (chatSession != null && chatSession.ownerNode != null) closeChat(chatSession);
+                }
+                default -> System.out.println("Unknown chat broker message: " + message.getType());
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Error handling chat broker message " + message.getType() + " -> " + e.getMessage());
+        }
+    }
+
+    /** Owner side: a request handed over by its origin node; notices go back through the broker. */
+    private void onRemoteRequest(ChatBroker.Message message) {
+        String originNode = message.getFrom();
+        String requestId = message.field(0);
+        int priority;
+        try { priority = Integer.parseInt(message.field(4)); } catch (NumberFormatException e) { priority = 0; }
+        ChatRequest chatRequest = new ChatRequest(requestId, message.field(1), message.field(2), message.field(3),
+                message.field(5), priority, msg -> publish(originNode, "NOTICE", requestId, msg));
+        originNodeByRequestId.put(requestId, originNode);
+        activeRequestDedupe.put(requestKeyOf(chatRequest), requestId);
+        chatJournal.append("REQUEST", requestId, chatRequest.sourceBranch, chatRequest.sourceEmployeeId,
+                chatRequest.targetBranch, String.valueOf(priority), chatRequest.note, originNode);
+        enqueueRequest(chatRequest);
+        tryMatch(chatRequest.targetBranch);
+    }
+
+    /** Origin side: the owner accepted a forwarded request; keep a mirror so local users can BEGIN/JOIN. */
+    private void onRemoteAccepted(ChatBroker.Message message) {
+        ChatRequest chatRequest = forwardedRequestsById.get(message.field(0));
+        if (chatRequest == null) return;
+        String ownerNode = message.getFrom();
+        String chatId = message.field(1);
+        String assigneeEmployeeId = message.field(2).isEmpty() ? null : message.field(2);
+
+        ChatSession mirror = new ChatSession(chatId, chatRequest.sourceBranch, chatRequest.targetBranch);
+        mirror.ownerNode = ownerNode;
+        mirror.remoteRelay = msg -> publish(ownerNode, "SEND", chatId, msg.getSenderName(), msg.getSenderBranch(), msg.getContent());
+        String assigneeKey = ownerNode + "/" + chatId;
+        sessionDisplayBySessionId.put(assigneeKey, message.field(3));
+        mirror.setAssigneeSessionId(assigneeKey);
+
+        outstandingRequestsByKey.remove(requestKeyOf(chatRequest), chatRequest);
+        chatIdToSession.put(chatId, mirror);
+        requestByChatId.put(chatId, chatRequest);
+        if (assigneeEmployeeId != null) assigneeEmployeeIdByChatId.put(chatId, assigneeEmployeeId);
+        addToIndex(liveChatIdsByEmployee, chatRequest.sourceEmployeeId, chatId);
+        addToIndex(liveChatIdsByEmployee, assigneeEmployeeId, chatId);
+        addToIndex(liveChatIdsByBranch, chatRequest.sourceBranch, chatId);
+        addToIndex(liveChatIdsByBranch, chatRequest.targetBranch, chatId);
+    }
+
+    /** Mirror side: the first local participant of a branch registers this node with the owner. */
+    private void attachToOwner(ChatSession mirror, String branchId, String mode) {
+        var listeners = mirror.listenersByBranch.get(branchId);
+        if (listeners != null && listeners.size() == 1) publish(mirror.ownerNode, "ATTACH", mirror.getChatId(), branchId, mode);
+    }
+
+    /** Owner side: a node with local participants of a branch joins the chat as one remote listener. */
+    private void onRemoteAttach(ChatBroker.Message message) {
+        String fromNode = message.getFrom();
+        String chatId = message.field(0);
+        String branchId = message.field(1);
+        ChatSession chatSession = chatIdToSession.get(chatId);
+        if (chatSession == null || !chatSession.isActive() || chatSession.ownerNode != null) {
+            publish(fromNode, "ENDED", chatId);
+            return;
+        }
+        mirrorNodesByChatId.computeIfAbsent(chatId, _ -> ConcurrentHashMap.newKeySet()).add(fromNode);
+        chatSession.addListener(branchId, remoteSessionId(fromNode, branchId), msg -> publish(fromNode, "MSG", chatId,
+                msg.getSenderName(), msg.getSenderBranch(), msg.getContent(),
+                String.valueOf(msg.getTimestampMs())));
+        if (message.field(2).equals("BEGIN")) onRequesterAttached(chatSession, branchId);
+        else onParticipantJoined(chatSession, branchId);
+    }
+
+    // Presence and queue snapshots (admin endpoint)
+    /** Sessions connected to this node, per branch. */
+    public Map<String, Integer> countConnectedByBranch() {
+        Map<String, Integer> counts = new TreeMap<>();
+        connectedSessionsByBranch.forEach((branchId, sessions) -> { if (!sessions.isEmpty()) counts.put(branchId, sessions.size()); });
+        return counts;
+    }
+
+    /** Connected sessions free to take an offer, per branch. */
+    public Map<String, Integer> countIdleByBranch() {
+        Map<String, Integer> counts = new TreeMap<>();
+        idleSessionsByBranch.forEach((branchId, sessions) -> counts.put(branchId, sessions.size()));
+        return counts;
+    }
+
+    /** Requests waiting for an offer, per target branch. */
+    public Map<String, Integer> queueDepthByBranch() {
+        Map<String, Integer> depths = new TreeMap<>();
+        waitingRequestsByTargetBranch.forEach((branchId, queue) -> depths.put(branchId, queue.size()));
+        return depths;
+    }
+
+    // Queue statistics
+    public String formatQueueStats() {
+        Map<String, ChatMetrics.BranchMetrics> metricsByBranch = chatMetrics.snapshotByBranch();
+        Set<String> branches = new TreeSet<>(waitingRequestsByTargetBranch.keySet());
+        branches.addAll(metricsByBranch.keySet());
+
+        StringBuilder statsSB = new StringBuilder();
+        statsSB.append(String.format("%-8s | %-9s | %-8s | %-8s | %-8s | %-8s | %-8s\n",
+                "Branch", "Side", "Waiting", "Served", "p50(ms)", "p99(ms)", "max(ms)"));
+        statsSB.append("-------------------------------------------------------------------------\n");
+        for (String branch : branches) {
+            ChatRequestQueue queue = waitingRequestsByTargetBranch.get(branch);
+            ChatMetrics.BranchMetrics metrics = metricsByBranch.get(branch);
+            appendQueueStatsRow(statsSB, branch, "target", queue == null ? 0 : queue.size(), metrics == null ? null : metrics.queueWaitAsTarget);
+            appendQueueStatsRow(statsSB, branch, "requester", -1, metrics == null ? null : metrics.queueWaitAsRequester);
+        }
+        return statsSB.toString();
+    }
+
+    private static void appendQueueStatsRow(StringBuilder statsSB, String branch, String side, int waiting, LatencyHistogram histogram) {
+        if ((histogram == null || histogram.getCount() == 0) && waiting <= 0) return;
+        statsSB.append(String.format("%-8s | %-9s | %-8s | %-8d | %-8d | %-8d | %-8d\n",
+                branch, side, waiting < 0 ? "-" : String.valueOf(waiting),
+                histogram == null ? 0 : histogram.getCount(),
+                histogram == null ? 0 : histogram.percentile(50),
+                histogram == null ? 0 : histogram.percentile(99),
+                histogram == null ? 0 : histogram.getMax()));
+    }
+
+    // Lifecycle metrics
+    public ChatMetrics getChatMetrics() { return chatMetrics; }
+
+    /** Periodically overwrites filePath with a JSON snapshot of the chat metrics. */
+    public void startMetricsDump(String filePath, long periodMs) {
+        scheduler.scheduleAtFixedRate(() -> chatMetrics.dumpToFile(filePath), periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Chat archive
+    /** Archived JSON objects of a past chat (chat ids restart after a server restart, so several may match). */
+    public List<String> findArchivedChats(String chatId) {
+        List<String> records = new ArrayList<>();
+        for (ChatArchiveStore.Entry entry : chatArchive.findByChatId(chatId)) {
+            String record = chatArchive.read(entry);
+            if (record != null) records.add(record);
+        }
+        return records;
+    }
+
+    /** Full-text search over archived messages; see ChatSearchIndex for the query syntax. */
+    public ChatSearchIndex.SearchPage searchChatHistory(String query, int page, int pageSize) {
+        return chatSearchIndex.search(query, page, pageSize);
+    }
 
-        cleaned.add(newObject);
-        return cleaned;
+    /** Exports the whole archive back to the chat_history.json layout. */
+    public int exportChatHistory() {
+        return chatArchive.exportToJson(CHAT_FILE);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,119 @@
+package Services;
+
+import java.util.Arrays;
+
+/**
+ * Running spend (in cents) and visit count per customer, kept in parallel primitive arrays with open
+ * addressing. The 9-digit customer id is the int key, so recording a sale allocates nothing and costs one
+ * probe on average; a million customers take about 32 bytes each at the 0.5 load factor.
+ * Not thread-safe: SaleService records and reads under a lock on the instance.
+ */
+public final class CustomerPurchaseStats {
+
+    private static final int EMPTY = -1; // customer ids are never negative
+
+    private int[] keys;
+    private long[] spendCents;
+    private int[] visits;
+    private int size;
+    private int shift; // Fibonacci hashing: the slot is the top log2(capacity) bits of key * 2^32/phi
+
+    public CustomerPurchaseStats(int expectedCustomers) {
+        allocate(Integer.highestOneBit(Math.max(16, expectedCustomers * 2 - 1)) << 1);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        spendCents = new long[capacity];
+        visits = new int[capacity];
+        size = 0;
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    /** Receives one customer's totals; primitive arguments, so walking the table allocates nothing. */
+    @FunctionalInterface
+    public interface TotalsConsumer {
+        void accept(int customerKey, int visits, long spendCents);
+    }
+
+    /**
+     * Adds one visit and the amount to the customer's totals.
+     * @return the slot now holding the totals; valid until the next record call
+     */
+    public int record(int customerKey, long cents) {
+        return add(customerKey, 1, cents);
+    }
+
+    /**
+     * Adds visits and an amount at once (rebuilding the totals from the purchase journal).
+     * @return the slot now holding the totals; valid until the next record call
+     */
+    public int add(int customerKey, int visitCount, long cents) {
+        int slot = slotOf(customerKey);
+        if (keys[slot] == EMPTY) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+                slot = slotOf(customerKey);
+            }
+            keys[slot] = customerKey;
+            size++;
+        }
+        spendCents[slot] += cents;
+        visits[slot] += visitCount;
+        return slot;
+    }
+
+    public long spendCentsAt(int slot) { return spendCents[slot]; }
+    public int visitsAt(int slot) { return visits[slot]; }
+
+    /** @return the customer's spend in cents, 0 if it has none recorded */
+    public long spendCents(int customerKey) {
+        int slot = slotOf(customerKey);
+        return keys[slot] == EMPTY ? 0 : spendCents[slot];
+    }
+
+    public int visits(int customerKey) {
+        int slot = slotOf(customerKey);
+        return keys[slot] == EMPTY ? 0 : visits[slot];
+    }
+
+    public int size() { return size; }
+
+    /** Every customer with recorded totals, in table order. */
+    public void forEach(TotalsConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) consumer.accept(keys[i], visits[i], spendCents[i]);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(spendCents, 0);
+        Arrays.fill(visits, 0);
+        size = 0;
+    }
+
+    /** The key's slot, or the empty slot where it would go (linear probing). */
+    private int slotOf(int customerKey) {
+        int mask = keys.length - 1;
+        int slot = (customerKey * 0x9E3779B9) >>> shift;
+        while (keys[slot] != EMPTY && keys[slot] != customerKey) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldSpend = spendCents;
+        int[] oldVisits = visits;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+            int slot = slotOf(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            spendCents[slot] = oldSpend[i];
+            visits[slot] = oldVisits[i];
+            size++;
+        }
+    }
+}
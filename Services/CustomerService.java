@@ -2,62 +2,214 @@ package Services;
 
 import Exceptions.CustomExceptions;
 import Models.Customer;
+import Server.Utils.RenderCache;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Customer registry shared by every client thread, indexed by customerId.
+ * Inserts are atomic (putIfAbsent), lookups are O(1), and customer ids are also kept in insertion order
+ * so listings and the customers.json snapshot keep the order customers were added in.
+ *
+ * The search indexes hold customer ids, not Customer objects, so a tier change (replaceCustomer swaps in
+ * an object of another subclass) only has to move the id between type sets:
+ *   phone  sorted map keyed "phone#customerId", so a prefix is one range scan
+ *   name   trigram -> ids whose lower-cased name contains it; a query walks the smallest posting
+ *          among its trigrams and confirms each candidate with contains()
+ *   type   lower-case type -> ids, ordered by id
+ * Names and phones are not edited after registration. Every add or replace bumps the version the
+ * cached customer table is checked against (see RenderCache).
+ */
 public class CustomerService {
 
-    private final List<Customer> customersList;
+    private final Map<String, Customer> customersById;
+    private final Queue<String> idsInOrder;
+    private final NavigableMap<String, String> idsByPhone = new ConcurrentSkipListMap<>();
+    private final Map<String, Set<String>> idsByNameGram = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> idsByType = new ConcurrentHashMap<>(); // key: lower-case type
+
+    public static final int MIN_NAME_QUERY = 3; // one trigram
+
+    private static final int MAX_CACHED_ROWS = Integer.getInteger("listing.cache.maxRows", 10_000);
+    private final AtomicLong version = new AtomicLong();
+    private final RenderCache customerTables = new RenderCache("customers", MAX_CACHED_ROWS);
 
     public CustomerService() {
-        this.customersList = new ArrayList<>();
+        this.customersById = new ConcurrentHashMap<>();
+        this.idsInOrder = new ConcurrentLinkedQueue<>();
     }
 
     public void addCustomer(Customer customer) throws CustomExceptions.CustomerException {
-        for (Customer existing : customersList) {
-            if (existing.getCustomerId().equals(customer.getCustomerId())) {
-                throw new CustomExceptions.InvalidCustomerIdException("Customer ID already exists: " + customer.getCustomerId());
-            }
+        String id = customer.getCustomerId();
+        if (customersById.putIfAbsent(id, customer) != null) {
+            throw new CustomExceptions.InvalidCustomerIdException("Customer ID already exists: " + id);
         }
-        customersList.add(customer);
+        idsInOrder.add(id);
+        typeSet(customer).add(id);
+        idsByPhone.put(customer.getPhoneNumber() + "#" + id, id);
+        for (String gram : nameGrams(customer.getCustomerName()))
+            idsByNameGram.computeIfAbsent(gram, _ -> ConcurrentHashMap.newKeySet()).add(id);
+        version.incrementAndGet();
+    }
+
+    /**
+     * Swaps the registered customer for one with the same id (e.g. the same person as a VIPCustomer).
+     * @return false if the registered object is no longer current (someone else replaced it first)
+     */
+    public boolean replaceCustomer(Customer current, Customer replacement) {
+        if (!current.getCustomerId().equals(replacement.getCustomerId())
+                || !customersById.replace(current.getCustomerId(), current, replacement)) return false;
+        typeSet(replacement).add(replacement.getCustomerId());
+        typeSet(current).remove(current.getCustomerId());
+        version.incrementAndGet();
+        return true;
+    }
+
+    private Set<String> typeSet(Customer customer) {
+        return idsByType.computeIfAbsent(customer.getCustomerType().toLowerCase(Locale.ROOT), _ -> new ConcurrentSkipListSet<>());
     }
 
     public Customer getCustomerById(String id) {
-        for (Customer customer : customersList) {
-            if (customer.getCustomerId().equals(id)) {
-                return customer;
+        return id == null ? null : customersById.get(id);
+    }
+
+    public int getCustomerCount() {
+        return customersById.size();
+    }
+
+    /** Copy of all customers in insertion order. */
+    public List<Customer> listAllCustomers() {
+        List<Customer> customers = new ArrayList<>(customersById.size());
+        for (Customer customer : customersSnapshot()) customers.add(customer);
+        return customers;
+    }
+
+    /**
+     * Read-only view in insertion order for listings; iterating never blocks writers or throws
+     * ConcurrentModificationException, and customers added meanwhile may or may not appear.
+     */
+    public Iterable<Customer> customersSnapshot() {
+        return resolve(idsInOrder);
+    }
+
+    /** Lazily maps ids to their current Customer objects. */
+    private Iterable<Customer> resolve(Collection<String> ids) {
+        return () -> ids.stream().map(customersById::get).filter(Objects::nonNull).iterator();
+    }
+
+    // -------------------- Search --------------------
+    /** Read-only view, ordered by id, of the customers of one type (NEW, RETURNING, VIP). */
+    public Iterable<Customer> customersByType(String type) {
+        Set<String> ids = idsByType.get(type.toLowerCase(Locale.ROOT));
+        return ids == null ? List.of() : resolve(ids);
+    }
+
+    /** Read-only view, ordered by phone, of the customers whose phone number starts with the prefix. */
+    public Iterable<Customer> customersByPhonePrefix(String prefix) {
+        return resolve(idsByPhone.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values());
+    }
+
+    /** Customers whose phone number starts with the prefix, ordered by phone; at most limit results. */
+    public List<Customer> findByPhonePrefix(String prefix, int limit) {
+        List<Customer> result = new ArrayList<>();
+        for (Customer customer : customersByPhonePrefix(prefix)) {
+            if (result.size() == limit) break;
+            result.add(customer);
+        }
+        return result;
+    }
+
+    /**
+     * Customers whose name contains the text (case-insensitive, at least MIN_NAME_QUERY characters):
+     * the first limit matches by name, ordered by name. All matches are checked; a bounded heap keeps
+     * the limit smallest names, so a short result costs O(matches * log limit).
+     */
+    public List<Customer> findByName(String text, int limit) {
+        String needle = text.trim().toLowerCase(Locale.ROOT);
+        if (needle.length() < MIN_NAME_QUERY || limit <= 0) return new ArrayList<>();
+
+        List<Set<String>> postings = new ArrayList<>();
+        for (String gram : nameGrams(needle)) {
+            Set<String> posting = idsByNameGram.get(gram);
+            if (posting == null) return new ArrayList<>(); // a trigram nobody has: no match
+            postings.add(posting);
+        }
+        postings.sort(Comparator.comparingInt(Set::size));
+
+        Comparator<Customer> byName = Comparator.comparing(Customer::getCustomerName).thenComparing(Customer::getCustomerId);
+        PriorityQueue<Customer> firstByName = new PriorityQueue<>(byName.reversed()); // head: the last name kept
+        for (Customer candidate : resolve(postings.get(0))) {
+            if (!candidate.getCustomerName().toLowerCase(Locale.ROOT).contains(needle)) continue;
+            if (firstByName.size() < limit) {
+                firstByName.add(candidate);
+            } else if (byName.compare(candidate, firstByName.peek()) < 0) {
+                firstByName.poll();
+                firstByName.add(candidate);
             }
         }
-        return null;
+        List<Customer> result = new ArrayList<>(firstByName);
+        result.sort(byName);
+        return result;
     }
 
-    public List<Customer> listAllCustomers() {
-        return new ArrayList<>(customersList);
+    private static Set<String> nameGrams(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + MIN_NAME_QUERY <= lower.length(); i++) grams.add(lower.substring(i, i + MIN_NAME_QUERY));
+        return grams;
     }
 
-    public String formatCustomerList(List<Customer> customers) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(String.format("%-20s | %-10s | %-12s | %-10s | %-8s\n",
-                "Name", "Id", "Phone", "Type", "Discount"));
-        sb.append("-------------------------------------------------------------------------\n");
+    /**
+     * The whole customer table (header and rows) from the render cache.
+     * @return null when it is empty or too large to cache; format or stream it instead
+     */
+    public RenderCache.Rendered renderedCustomerList() {
+        return customerTables.get("ALL", version.get(), customersById.size(), this::listAllCustomers, this::formatCustomerList);
+    }
 
+    public String formatCustomerList(Iterable<Customer> customers) {
+        StringBuilder sb = new StringBuilder(formatCustomerHeader());
         for (Customer c : customers) {
-            String discount = switch (c.getCustomerType().toLowerCase()) {
-                case "returning" -> "10%";
-                case "vip" -> "30%";
-                default -> "0%";
-            };
-
-            sb.append(String.format("%-20s | %-10s | %-12s | %-10s | %-8s\n",
-                    c.getCustomerName(),
-                    c.getCustomerId(),
-                    c.getPhoneNumber(),
-                    c.getCustomerType(),
-                    discount
-            ));
+            sb.append(formatCustomerRow(c));
         }
 
         return sb.toString();
     }
 
+    public String formatCustomerHeader() {
+        return String.format("%-20s | %-10s | %-12s | %-10s | %-8s\n", "Name", "Id", "Phone", "Type", "Discount")
+                + "-------------------------------------------------------------------------\n";
+    }
+
+    public String formatCustomerRow(Customer c) {
+        String discount = switch (c.getCustomerType().toLowerCase()) {
+            case "returning" -> "10%";
+            case "vip" -> "30%";
+            default -> "0%";
+        };
+
+        return String.format("%-20s | %-10s | %-12s | %-10s | %-8s\n",
+                c.getCustomerName(),
+                c.getCustomerId(),
+                c.getPhoneNumber(),
+                c.getCustomerType(),
+                discount
+        );
+    }
+
 }
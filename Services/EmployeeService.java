@@ -4,50 +4,116 @@ import Exceptions.CustomExceptions;
 import Models.Employee;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+/**
+ * Employee registry shared by every client thread.
+ * Username, employee id and employee number are each unique, and each has its own concurrent index.
+ * Adds and removals are serialized on one registration lock (they are rare: ADD_EMPLOYEE and the startup
+ * load): an add checks all three keys and then inserts, so it is rejected only for a key held by an employee
+ * that is actually registered, and of two concurrent adds that share a key exactly one succeeds.
+ * Lookups by each key and by branch take no lock and are O(1); during an add an employee may show up in
+ * one index a moment before the others. Listings keep the order employees were added in.
+ */
 public class EmployeeService {
 
-    private final List<Employee> employees;
+    private final Map<String, Employee> employeesByUsername = new ConcurrentHashMap<>();
+    private final Map<String, Employee> employeesById = new ConcurrentHashMap<>();
+    private final Map<Integer, Employee> employeesByNumber = new ConcurrentHashMap<>();
+    private final Queue<Employee> employeesInOrder;
+    private final Map<String, Queue<Employee>> employeesByBranch = new ConcurrentHashMap<>(); // key: upper-case branch id
+    private final Object registrationLock = new Object(); // guards adds and removals; lookups go without it
 
     public EmployeeService() {
-        this.employees = new ArrayList<>();
+        this.employeesInOrder = new ConcurrentLinkedQueue<>();
     }
 
     public void addEmployee(Employee employee) throws CustomExceptions.EmployeeException {
-        for (Employee emp : employees) {
-            if (emp.getUserName().equals(employee.getUserName()))
+        synchronized (registrationLock) {
+            if (employeesByUsername.containsKey(employee.getUserName()))
                 throw new CustomExceptions.InvalidUsernameException("Username already exists: " + employee.getUserName());
-            if (emp.getEmployeeId().equals(employee.getEmployeeId()))
+            if (employeesById.containsKey(employee.getEmployeeId()))
                 throw new CustomExceptions.InvalidEmployeeIdException("Employee ID already exists: " + employee.getEmployeeId());
-            if (emp.getEmployeeNumber() == employee.getEmployeeNumber())
+            if (employeesByNumber.containsKey(employee.getEmployeeNumber()))
                 throw new CustomExceptions.InvalidEmployeeNumberException("Employee number already exists: " + employee.getEmployeeNumber());
+
+            employeesByUsername.put(employee.getUserName(), employee);
+            employeesById.put(employee.getEmployeeId(), employee);
+            employeesByNumber.put(employee.getEmployeeNumber(), employee);
+            employeesInOrder.add(employee);
+            employeesByBranch.computeIfAbsent(employee.getBranchId().toUpperCase(), _ -> new ConcurrentLinkedQueue<>()).add(employee);
         }
-        employees.add(employee);
     }
 
+    /**
+     * Takes back an employee whose registration could not be completed (e.g. the login could not be created).
+     * Listings are scanned, so this is O(n); it is only for that rollback.
+     */
+    public void removeEmployee(Employee employee) {
+        synchronized (registrationLock) {
+            employeesInOrder.remove(employee);
+            Queue<Employee> branch = employeesByBranch.get(employee.getBranchId().toUpperCase());
+            if (branch != null) branch.remove(employee);
+            employeesByNumber.remove(employee.getEmployeeNumber(), employee);
+            employeesById.remove(employee.getEmployeeId(), employee);
+            employeesByUsername.remove(employee.getUserName(), employee);
+        }
+    }
+
+    public Employee getEmployeeByUsername(String username) {
+        return username == null ? null : employeesByUsername.get(username);
+    }
+
+    public Employee getEmployeeById(String employeeId) {
+        return employeeId == null ? null : employeesById.get(employeeId);
+    }
+
+    public Employee getEmployeeByNumber(int employeeNumber) {
+        return employeesByNumber.get(employeeNumber);
+    }
+
+    public int getEmployeeCount() {
+        return employeesByNumber.size();
+    }
+
+    /** Copy of all employees in the order they were added. */
     public List<Employee> listAllEmployees() {
-        return new ArrayList<>(employees);
+        return new ArrayList<>(employeesInOrder);
     }
 
-    public String formatEmployeeList(List<Employee> employees) {
-        StringBuilder employeeSB = new StringBuilder();
-        employeeSB.append(String.format("%-15s | %-12s | %-12s | %-12s | %-8s | %-10s | %-15s | %-12s\n",
-                "Name", "Id", "Phone", "BankAccount", "Branch", "EmpNum", "Role", "Username"));
-        employeeSB.append("---------------------------------------------------------------------------------------------------------------------\n");
+    public List<Employee> getEmployeesByBranch(String branchId) {
+        Queue<Employee> branch = employeesByBranch.get(branchId.toUpperCase());
+        return branch == null ? new ArrayList<>() : new ArrayList<>(branch);
+    }
 
+    public String formatEmployeeList(List<Employee> employees) {
+        StringBuilder employeeSB = new StringBuilder(formatEmployeeHeader());
         for (Employee employee : employees) {
-            employeeSB.append(String.format("%-15s | %-12s | %-12s | %-12s | %-8s | %-10d | %-15s | %-12s\n",
-                    employee.getFullName(),
-                    employee.getEmployeeId(),
-                    employee.getPhoneNumber(),
-                    employee.getAccountNumber(),
-                    employee.getBranchId(),
-                    employee.getEmployeeNumber(),
-                    employee.getRole(),
-                    employee.getUserName()
-            ));
+            employeeSB.append(formatEmployeeRow(employee));
         }
 
         return employeeSB.toString();
     }
+
+    public String formatEmployeeHeader() {
+        return String.format("%-15s | %-12s | %-12s | %-12s | %-8s | %-10s | %-15s | %-12s\n",
+                "Name", "Id", "Phone", "BankAccount", "Branch", "EmpNum", "Role", "Username")
+                + "---------------------------------------------------------------------------------------------------------------------\n";
+    }
+
+    public String formatEmployeeRow(Employee employee) {
+        return String.format("%-15s | %-12s | %-12s | %-12s | %-8s | %-10d | %-15s | %-12s\n",
+                employee.getFullName(),
+                employee.getEmployeeId(),
+                employee.getPhoneNumber(),
+                employee.getAccountNumber(),
+                employee.getBranchId(),
+                employee.getEmployeeNumber(),
+                employee.getRole(),
+                employee.getUserName()
+        );
+    }
 }
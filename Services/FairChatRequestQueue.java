@@ -0,0 +1,131 @@
+package Services;
+
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Priority- and fairness-aware routing policy for one target branch.
+ * - Each requesting branch has its own lane; lanes are served by weighted fair queuing
+ *   (a lane's virtual finish tag grows by 1/weight per served request), so one flooding
+ *   branch cannot starve the others.
+ * - Inside a lane, requests wait in one FIFO per priority level (see ChatService.priorityOf).
+ * - Aging: a request gains one priority level per agingMs waited, so routine requests
+ *   are eventually served even under a steady stream of urgent ones.
+ * Selection order: highest effective priority, then smallest lane finish tag, then oldest request.
+ */
+public class FairChatRequestQueue implements ChatRequestQueue {
+
+    public static final long DEFAULT_AGING_MS = 30_000L;
+
+    private final Map<String, Integer> weightsBySourceBranch;
+    private final long agingMs;
+    private final LongSupplier clock;
+
+    private final Map<String, Lane> lanesBySourceBranch = new LinkedHashMap<>();
+    private double virtualTime = 0.0;
+    private int size = 0;
+
+    private static final class Lane {
+        final double weight;
+        final List<ArrayDeque<ChatService.ChatRequest>> byPriority = new ArrayList<>();
+        double finishTag = 0.0;
+
+        Lane(double weight) {
+            this.weight = weight;
+            for (int level = 0; level <= ChatService.MAX_PRIORITY; level++) byPriority.add(new ArrayDeque<>());
+        }
+    }
+
+    public FairChatRequestQueue() {
+        this(Collections.emptyMap(), DEFAULT_AGING_MS, System::currentTimeMillis);
+    }
+
+    /**
+     * @param weightsBySourceBranch relative share per requesting branch (missing branches weigh 1)
+     * @param agingMs               wait time that promotes a request by one priority level
+     * @param clock                 millisecond clock, matching ChatRequest enqueue times
+     */
+    public FairChatRequestQueue(Map<String, Integer> weightsBySourceBranch, long agingMs, LongSupplier clock) {
+        this.weightsBySourceBranch = Map.copyOf(weightsBySourceBranch);
+        this.agingMs = agingMs;
+        this.clock = clock;
+    }
+
+    @Override
+    public synchronized void add(ChatService.ChatRequest chatRequest) {
+        Lane lane = lanesBySourceBranch.computeIfAbsent(chatRequest.sourceBranch,
+                branch -> new Lane(Math.max(1, weightsBySourceBranch.getOrDefault(branch, 1))));
+        lane.byPriority.get(clampPriority(chatRequest.priority)).addLast(chatRequest);
+        size++;
+    }
+
+    @Override
+    public synchronized ChatService.ChatRequest poll() {
+        if (size == 0) return null;
+        long now = clock.getAsLong();
+
+        Lane bestLane = null;
+        ArrayDeque<ChatService.ChatRequest> bestDeque = null;
+        int bestPriority = -1;
+        double bestStartTag = 0.0;
+        long bestEnqueuedAt = 0L;
+
+        for (Lane lane : lanesBySourceBranch.values()) {
+            double startTag = Math.max(virtualTime, lane.finishTag);
+            for (ArrayDeque<ChatService.ChatRequest> deque : lane.byPriority) {
+                ChatService.ChatRequest head = deque.peekFirst();
+                if (head == null) continue;
+                int effective = effectivePriority(head, now);
+                boolean better = bestLane == null
+                        || effective > bestPriority
+                        || (effective == bestPriority && startTag < bestStartTag)
+                        || (effective == bestPriority && startTag == bestStartTag && head.enqueuedAtMs < bestEnqueuedAt);
+                if (better) {
+                    bestLane = lane;
+                    bestDeque = deque;
+                    bestPriority = effective;
+                    bestStartTag = startTag;
+                    bestEnqueuedAt = head.enqueuedAtMs;
+                }
+            }
+        }
+
+        ChatService.ChatRequest next = bestDeque.pollFirst();
+        size--;
+        virtualTime = bestStartTag;
+        bestLane.finishTag = bestStartTag + 1.0 / bestLane.weight;
+        return next;
+    }
+
+    @Override
+    public synchronized boolean remove(ChatService.ChatRequest chatRequest) {
+        Lane lane = lanesBySourceBranch.get(chatRequest.sourceBranch);
+        if (lane == null) return false;
+        boolean removed = lane.byPriority.get(clampPriority(chatRequest.priority)).remove(chatRequest);
+        if (removed) size--;
+        return removed;
+    }
+
+    @Override
+    public synchronized int size() { return size; }
+
+    @Override
+    public synchronized List<ChatService.ChatRequest> snapshot() {
+        List<ChatService.ChatRequest> result = new ArrayList<>(size);
+        for (Lane lane : lanesBySourceBranch.values()) {
+            for (ArrayDeque<ChatService.ChatRequest> deque : lane.byPriority) result.addAll(deque);
+        }
+        return result;
+    }
+
+    // -------------------- Internal Helpers --------------------
+    private int effectivePriority(ChatService.ChatRequest chatRequest, long now) {
+        long waited = Math.max(0, now - chatRequest.enqueuedAtMs);
+        long aged = agingMs > 0 ? waited / agingMs : 0;
+        return (int) Math.min(ChatService.MAX_PRIORITY, clampPriority(chatRequest.priority) + aged);
+    }
+
+    private static int clampPriority(int priority) {
+        return Math.max(0, Math.min(ChatService.MAX_PRIORITY, priority));
+    }
+}
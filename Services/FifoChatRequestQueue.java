@@ -0,0 +1,29 @@
+package Services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Original routing policy: strict arrival order, no priorities and no per-branch fairness.
+ */
+public class FifoChatRequestQueue implements ChatRequestQueue {
+
+    private final Queue<ChatService.ChatRequest> queue = new ConcurrentLinkedQueue<>();
+
+    @Override
+    public void add(ChatService.ChatRequest chatRequest) { queue.add(chatRequest); }
+
+    @Override
+    public ChatService.ChatRequest poll() { return queue.poll(); }
+
+    @Override
+    public boolean remove(ChatService.ChatRequest chatRequest) { return queue.remove(chatRequest); }
+
+    @Override
+    public int size() { return queue.size(); }
+
+    @Override
+    public List<ChatService.ChatRequest> snapshot() { return new ArrayList<>(queue); }
+}
@@ -0,0 +1,59 @@
+package Services;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Broker for several chat nodes living in one JVM.
+ * Every node gets a single delivery thread, so messages to a node are handled in send order
+ * and a handler may freely call back into other nodes without lock-ordering issues.
+ */
+public class InProcessChatBroker implements ChatBroker {
+
+    private static final class Node {
+        final Consumer<Message> handler;
+        final ExecutorService delivery;
+
+        Node(String nodeId, Consumer<Message> handler) {
+            this.handler = handler;
+            this.delivery = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "chat-broker-" + nodeId);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private final Map<String, Node> nodesById = new ConcurrentHashMap<>();
+
+    @Override
+    public void register(String nodeId, Consumer<Message> handler) {
+        if (nodesById.putIfAbsent(nodeId, new Node(nodeId, handler)) != null)
+            throw new IllegalStateException("Chat node already registered: " + nodeId);
+    }
+
+    @Override
+    public void send(Message message) {
+        if (message.getTo() != null) {
+            deliver(nodesById.get(message.getTo()), message);
+            return;
+        }
+        for (Map.Entry<String, Node> entry : nodesById.entrySet()) {
+            if (!entry.getKey().equals(message.getFrom())) deliver(entry.getValue(), message);
+        }
+    }
+
+    @Override
+    public void unregister(String nodeId) {
+        Node node = nodesById.remove(nodeId);
+        if (node != null) node.delivery.shutdown();
+    }
+
+    private static void deliver(Node node, Message message) {
+        if (node == null) return; // unknown or departed node: dropped, like a real broker without persistence
+        node.delivery.execute(() -> node.handler.accept(message));
+    }
+}
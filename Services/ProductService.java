@@ -2,58 +2,114 @@ package Services;
 
 import Exceptions.CustomExceptions;
 import Models.Product;
+import Server.Utils.RenderCache;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Products of all branches, with per-branch and per-category lists kept alongside the main list so
+ * lookups and filtered listings only walk the rows that can match.
+ * Shared by every client thread: a product is registered once under "BRANCH#productId" (putIfAbsent), and
+ * the lists are concurrent, so a listing copied while PURCHASE_PRODUCT adds a product never throws
+ * ConcurrentModificationException. The branch and category lists are copy-on-write: listings read them
+ * far more often than new products are added.
+ * Every change (new product, stock update through updateStock) bumps the version of its branch and the
+ * overall version; the rendered product tables are cached against those versions (see RenderCache).
+ */
 public class ProductService {
 
-    private final List<Product> productList;
+    private final Queue<Product> productList;
+    private final Map<String, Product> productsByKey = new ConcurrentHashMap<>();             // key: BRANCH#productId
+    private final Map<String, List<Product>> productsByBranch = new ConcurrentHashMap<>();    // key: upper-case branch id
+    private final Map<String, List<Product>> productsByCategory = new ConcurrentHashMap<>();  // key: lower-case category
+
+    private static final int MAX_CACHED_ROWS = Integer.getInteger("listing.cache.maxRows", 10_000);
+    private final AtomicLong version = new AtomicLong();
+    private final Map<String, AtomicLong> branchVersions = new ConcurrentHashMap<>(); // key: upper-case branch id
+    private final RenderCache productTables = new RenderCache("products", MAX_CACHED_ROWS);
 
     public ProductService() {
-        this.productList = new ArrayList<>();
+        this.productList = new ConcurrentLinkedQueue<>();
     }
 
     public void addOrUpdateProduct(Product p, int additionalQuantity) throws CustomExceptions.ProductException {
-        for (Product existing : productList) {
-            if (existing.getProductId().equals(p.getProductId()) &&
-                    existing.getBranch().equalsIgnoreCase(p.getBranch())) {
-                existing.setQuantityInStock(existing.getQuantityInStock() + additionalQuantity);
-                return;
-            }
+        Product existing = productsByKey.putIfAbsent(productKey(p.getProductId(), p.getBranch()), p);
+        if (existing != null) {
+            updateStock(existing, additionalQuantity);
+            return;
         }
         productList.add(p);
+        productsByBranch.computeIfAbsent(p.getBranch().toUpperCase(), _ -> new CopyOnWriteArrayList<>()).add(p);
+        productsByCategory.computeIfAbsent(p.getCategory().toLowerCase(), _ -> new CopyOnWriteArrayList<>()).add(p);
+        markChanged(p.getBranch());
+    }
+
+    /** Changes the stock by delta (negative for a sale); all stock changes go through here. */
+    public void updateStock(Product product, int delta) throws CustomExceptions.ProductException {
+        product.setQuantityInStock(product.getQuantityInStock() + delta);
+        markChanged(product.getBranch());
+    }
+
+    private void markChanged(String branchId) {
+        branchVersions.computeIfAbsent(branchId.toUpperCase(), _ -> new AtomicLong()).incrementAndGet();
+        version.incrementAndGet();
     }
 
     public Product getProductByIdAndBranch(String productId, String branchId) {
-        for (Product p : productList) {
-            if (p.getProductId().equals(productId) && p.getBranch().equalsIgnoreCase(branchId)) {
-                return p;
-            }
-        }
-        return null;
+        return productsByKey.get(productKey(productId, branchId));
+    }
+
+    private static String productKey(String productId, String branchId) {
+        return branchId.toUpperCase() + "#" + productId;
     }
 
-    public String formatProductList(List<Product> products) {
-        StringBuilder productSB = new StringBuilder();
-       productSB.append(String.format("%-10s | %-20s | %-15s | %-10s | %-10s | %-10s\n",
-                "Product Id", "Name", "Category", "Price", "Stock", "Branch"));
-        productSB.append("----------------------------------------------------------------------------------------\n");
+    /**
+     * The product table (header and rows) of one branch, or of all branches when branchId is null, from
+     * the render cache.
+     * @return null when the table is empty or too large to cache; format or stream it instead
+     */
+    public RenderCache.Rendered renderedProductList(String branchId) {
+        if (branchId == null)
+            return productTables.get("ALL", version.get(), productsByKey.size(), this::getAllProducts, this::formatProductList);
+        String key = branchId.toUpperCase();
+        AtomicLong branchVersion = branchVersions.get(key);
+        long currentVersion = branchVersion == null ? 0 : branchVersion.get();
+        return productTables.get(key, currentVersion, productsByBranch.getOrDefault(key, List.of()).size(),
+                () -> getProductsByBranch(key), this::formatProductList);
+    }
+
+    public String formatProductList(Iterable<Product> products) {
+        StringBuilder productSB = new StringBuilder(formatProductHeader());
         for (Product p : products) {
-            productSB.append(String.format("%-10s | %-20s | %-15s | %-10.2f | %-10d | %-10s\n",
-                    p.getProductId(), p.getProductName(), p.getCategory(),
-                    p.getPrice(), p.getQuantityInStock(), p.getBranch()));
+            productSB.append(formatProductRow(p));
         }
        return productSB.toString();
    }
 
+    public String formatProductHeader() {
+        return String.format("%-10s | %-20s | %-15s | %-10s | %-10s | %-10s\n",
+                "Product Id", "Name", "Category", "Price", "Stock", "Branch")
+                + "----------------------------------------------------------------------------------------\n";
+    }
+
+    public String formatProductRow(Product p) {
+        return String.format("%-10s | %-20s | %-15s | %-10.2f | %-10d | %-10s\n",
+                p.getProductId(), p.getProductName(), p.getCategory(),
+                p.getPrice(), p.getQuantityInStock(), p.getBranch());
+    }
+
     public List<Product> getProductsByBranch(String branchId) {
-       List<Product> result = new ArrayList<>();
-     for (Product p : productList) {
-           if (p.getBranch().equalsIgnoreCase(branchId)) {
-              result.add(p);
-            }
-        }
-        return result;
+        return new ArrayList<>(productsByBranch.getOrDefault(branchId.toUpperCase(), List.of()));
+    }
+
+    public List<Product> getProductsByCategory(String category) {
+        return new ArrayList<>(productsByCategory.getOrDefault(category.toLowerCase(), List.of()));
     }
 
     public List<Product> getAllProducts() {
@@ -3,23 +3,99 @@ package Services;
 import Exceptions.CustomExceptions;
 import Models.Customer;
 import Models.Product;
+import Models.ReturningCustomer;
+import Models.VIPCustomer;
+import Server.Utils.EventJournal;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Sales, and the purchase history that drives customer tiers: every sale adds one visit and its final
+ * price to the customer's running totals, and a customer whose totals reach a threshold is promoted
+ * (NEW -> RETURNING -> VIP, never down) by swapping in the new type through CustomerService.
+ * Thresholds: -Dtier.returning.visits (default 3), -Dtier.returning.spend (1000),
+ *             -Dtier.vip.visits (10), -Dtier.vip.spend (5000); either one of a pair is enough.
+ * The totals survive restarts through a purchase journal: every sale appends SALE <customerId> <cents>,
+ * and at startup the journal is replayed into the totals and compacted to one TOTAL <customerId> <visits>
+ * <cents> line per customer. Promotions themselves are kept in customers.json.
+ */
 public class SaleService {
 
+    private static final int RETURNING_VISITS = Integer.getInteger("tier.returning.visits", 3);
+    private static final long RETURNING_SPEND_CENTS = spendThreshold("tier.returning.spend", "1000");
+    private static final int VIP_VISITS = Integer.getInteger("tier.vip.visits", 10);
+    private static final long VIP_SPEND_CENTS = spendThreshold("tier.vip.spend", "5000");
+
     private final ProductService productService;
+    private final CustomerService customerService;
+    private final CustomerPurchaseStats purchaseStats = new CustomerPurchaseStats(1024);
+    private final EventJournal purchaseJournal; // null: totals are kept in memory only
     private static final List<SaleRecord> allSales = new ArrayList<>();
 
-    public SaleService(ProductService productService) {
-        if (productService == null) {
-            throw new IllegalArgumentException("ProductService cannot be null!");
+    public SaleService(ProductService productService, CustomerService customerService) {
+        this(productService, customerService, null);
+    }
+
+    /** @param purchaseJournalFile where the purchase totals are kept across restarts, or null for none */
+    public SaleService(ProductService productService, CustomerService customerService, String purchaseJournalFile) {
+        if (productService == null || customerService == null) {
+            throw new IllegalArgumentException("ProductService and CustomerService cannot be null!");
         }
         this.productService = productService;
+        this.customerService = customerService;
+        this.purchaseJournal = purchaseJournalFile == null ? null : new EventJournal(purchaseJournalFile);
+        if (purchaseJournal != null) loadPurchaseTotals();
+    }
+
+    /** Rebuilds the totals from the journal, then rewrites it with one TOTAL line per customer. */
+    private void loadPurchaseTotals() {
+        synchronized (purchaseStats) {
+            purchaseJournal.replay(event -> {
+                try {
+                    int customerKey = Integer.parseInt(event.field(0));
+                    switch (event.getType()) {
+                        case "SALE" -> purchaseStats.add(customerKey, 1, Long.parseLong(event.field(1)));
+                        case "TOTAL" -> purchaseStats.add(customerKey, Integer.parseInt(event.field(1)), Long.parseLong(event.field(2)));
+                        default -> { }
+                    }
+                } catch (NumberFormatException e) {
+                    System.out.println("Skipping bad purchase journal entry: " + event.getType() + " " + event.field(0));
+                }
+            });
+
+            List<String[]> compacted = new ArrayList<>(purchaseStats.size());
+            String now = String.valueOf(System.currentTimeMillis());
+            purchaseStats.forEach((customerKey, visits, spendCents) -> compacted.add(new String[] {
+                    "TOTAL", now, String.format("%09d", customerKey), String.valueOf(visits), String.valueOf(spendCents) }));
+            purchaseJournal.rewrite(compacted);
+            if (!compacted.isEmpty()) System.out.println("Loaded purchase totals of " + compacted.size() + " customers.");
+        }
+    }
+
+    public void close() {
+        if (purchaseJournal != null) purchaseJournal.close();
     }
 
-    public double sellProduct(Customer customer, String productId, String branchId, int quantity) throws CustomExceptions.ProductException {
+    private static long spendThreshold(String property, String fallback) {
+        return Math.round(Double.parseDouble(System.getProperty(property, fallback)) * 100);
+    }
+
+    /** Outcome of a sale: the price charged and, if the sale moved the customer up a tier, the customer's new object. */
+    public static class SaleResult {
+        private final double finalPrice;
+        private final Customer promotedCustomer;
+
+        SaleResult(double finalPrice, Customer promotedCustomer) {
+            this.finalPrice = finalPrice;
+            this.promotedCustomer = promotedCustomer;
+        }
+
+        public double getFinalPrice() { return finalPrice; }
+        public Customer getPromotedCustomer() { return promotedCustomer; }
+    }
+
+    public SaleResult sellProduct(Customer customer, String productId, String branchId, int quantity) throws CustomExceptions.ProductException {
         Product product = productService.getProductByIdAndBranch(productId, branchId);
         if (product == null)
             throw new CustomExceptions.InvalidProductIdException("Product not found in branch " + branchId);
@@ -32,33 +108,90 @@ public class SaleService {
         double totalPrice = product.getPrice() * quantity;
         double finalPrice = customer.calculateFinalPrice(totalPrice);
 
-        product.setQuantityInStock(product.getQuantityInStock() - quantity);
+        productService.updateStock(product, -quantity);
 
         allSales.add(new SaleRecord(product.getProductId(), product.getProductName(), product.getCategory(),
-                product.getBranch(), quantity, finalPrice, LocalDateTime.now()));
+                product.getBranch(), customer.getCustomerId(), quantity, finalPrice, LocalDateTime.now()));
+
+        return new SaleResult(finalPrice, recordPurchase(customer, finalPrice));
+    }
+
+    /**
+     * Adds the sale to the customer's totals and promotes the customer when a threshold is reached.
+     * @return the promoted customer, or null when the tier stays the same
+     */
+    private Customer recordPurchase(Customer customer, double finalPrice) {
+        int visits;
+        long spendCents;
+        long saleCents = Math.round(finalPrice * 100);
+        synchronized (purchaseStats) {
+            int slot = purchaseStats.record(Integer.parseInt(customer.getCustomerId()), saleCents);
+            visits = purchaseStats.visitsAt(slot);
+            spendCents = purchaseStats.spendCentsAt(slot);
+        }
+        if (purchaseJournal != null) purchaseJournal.append("SALE", customer.getCustomerId(), String.valueOf(saleCents));
+
+        int tier = visits >= VIP_VISITS || spendCents >= VIP_SPEND_CENTS ? 2
+                : visits >= RETURNING_VISITS || spendCents >= RETURNING_SPEND_CENTS ? 1 : 0;
+        if (tier <= tierOf(customer)) return null;
+
+        try {
+            Customer promoted = tier == 2
+                    ? new VIPCustomer(customer.getCustomerName(), customer.getCustomerId(), customer.getPhoneNumber())
+                    : new ReturningCustomer(customer.getCustomerName(), customer.getCustomerId(), customer.getPhoneNumber());
+            // Fails if another sale promoted the same customer first; its result stands
+            return customerService.replaceCustomer(customer, promoted) ? promoted : null;
+        } catch (CustomExceptions.CustomerException e) {
+            return null; // the fields were validated when the customer was registered
+        }
+    }
 
-        return finalPrice;
+    private static int tierOf(Customer customer) {
+        return switch (customer.getCustomerType().toLowerCase()) {
+            case "vip" -> 2;
+            case "returning" -> 1;
+            default -> 0;
+        };
     }
 
     public static List<SaleRecord> getAllSales() {
         return new ArrayList<>(allSales);
     }
 
+    /** Drops the in-memory sales history (benchmarks reset it between iterations). */
+    public static void clearSales() {
+        allSales.clear();
+    }
+
+    public int getVisits(String customerId) {
+        synchronized (purchaseStats) {
+            return purchaseStats.visits(Integer.parseInt(customerId));
+        }
+    }
+
+    public double getTotalSpend(String customerId) {
+        synchronized (purchaseStats) {
+            return purchaseStats.spendCents(Integer.parseInt(customerId)) / 100.0;
+        }
+    }
+
     public static class SaleRecord {
         private final String productId;
         private final String productName;
         private final String productType;
         private final String branch;
+        private final String customerId;
         private final int quantity;
         private final double finalPrice;
         private final LocalDateTime saleTime;
 
-        public SaleRecord(String productId, String productName, String productType, String branch,
+        public SaleRecord(String productId, String productName, String productType, String branch, String customerId,
                           int quantity, double finalPrice, LocalDateTime saleTime) {
             this.productId = productId;
             this.productName = productName;
             this.productType = productType;
             this.branch = branch;
+            this.customerId = customerId;
             this.quantity = quantity;
             this.finalPrice = finalPrice;
             this.saleTime = saleTime;
@@ -68,6 +201,7 @@ public class SaleService {
         public String getProductName() { return productName; }
         public String getProductType() { return productType; }
         public String getBranch() { return branch; }
+        public String getCustomerId() { return customerId; }
         public int getQuantity() { return quantity; }
         public double getFinalPrice() { return finalPrice; }
         public LocalDateTime getSaleTime() { return saleTime; }
@@ -0,0 +1,74 @@
+package Services;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Broker client for one chat node, connected to a ChatBrokerHub over TCP.
+ * Messages travel as one encoded line each; the hub routes them by destination node.
+ * A single reader thread hands incoming messages to the node's handler in arrival order.
+ */
+public class TcpChatBroker implements ChatBroker {
+
+    private final String host;
+    private final int port;
+    private Socket socket;
+    private PrintWriter out;
+    private String registeredNodeId;
+
+    public TcpChatBroker(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public synchronized void register(String nodeId, Consumer<Message> handler) {
+        if (registeredNodeId != null) throw new IllegalStateException("TcpChatBroker already serves node " + registeredNodeId);
+        try {
+            socket = new Socket(host, port);
+            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out.println(new Message(nodeId, null, "HELLO").encode());
+            registeredNodeId = nodeId;
+
+            Thread reader = new Thread(() -> readLoop(in, handler), "chat-broker-" + nodeId);
+            reader.setDaemon(true);
+            reader.start();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot connect to chat broker " + host + ":" + port + " -> " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized void send(Message message) {
+        if (out == null) return;
+        out.println(message.encode());
+        if (out.checkError()) System.out.println("Error writing to chat broker " + host + ":" + port);
+    }
+
+    @Override
+    public synchronized void unregister(String nodeId) {
+        if (!nodeId.equals(registeredNodeId)) return;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.out.println("Error closing chat broker connection -> " + e.getMessage());
+        }
+        out = null;
+        registeredNodeId = null;
+    }
+
+    private void readLoop(BufferedReader in, Consumer<Message> handler) {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                Message message = Message.decode(line);
+                if (message != null) handler.accept(message);
+            }
+        } catch (IOException e) {
+            if (registeredNodeId != null) System.out.println("Chat broker connection lost -> " + e.getMessage());
+        }
+    }
+}